@@ -0,0 +1,65 @@
+package net.fernandezgodinho.histogrammer.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import net.fernandezgodinho.histogrammer.Histogrammer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class CalcHistogramBenchmark. Throughput of Histogrammer.calcHistogram() across image types
+ * and sizes.
+ * 
+ * @author Joao Godinho
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CalcHistogramBenchmark {
+    /** The image type, a BufferedImage TYPE_ constant without the prefix. */
+    @Param({ "INT_ARGB", "3BYTE_BGR", "BYTE_GRAY" })
+    public String type;
+    
+    /** The image size in megapixels. */
+    @Param({ "0.25", "1", "4", "24", "100" })
+    public double megapixels;
+    
+    /** The image. */
+    private BufferedImage image;
+    
+    /**
+     * Creates the image.
+     */
+    @Setup
+    public void setUp() {
+        image = Images.gradient(Images.type(type), megapixels);
+    }
+    
+    /**
+     * Calculates the histogram of the image.
+     *
+     * @param counter the pixel counter
+     * @return the histogram
+     */
+    @Benchmark
+    public int[][] calcHistogram(PixelCounter counter) {
+        Histogrammer histogram = new Histogrammer(image);
+        histogram.calcHistogram();
+        counter.pixels += (long) image.getWidth() * image.getHeight();
+        return histogram.getHistogram();
+    }
+}
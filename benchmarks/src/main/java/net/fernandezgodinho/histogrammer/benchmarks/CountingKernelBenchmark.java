@@ -0,0 +1,78 @@
+package net.fernandezgodinho.histogrammer.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import net.fernandezgodinho.histogrammer.Histogrammer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class CountingKernelBenchmark. Throughput of calcHistogram() on packed int images of one
+ * colour, of a gradient and of random pixels, which repeat the same counters back to back, in short
+ * runs and never.
+ *
+ * @author Joao Godinho
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CountingKernelBenchmark {
+    /** The Constant MEGAPIXELS. */
+    private final static double MEGAPIXELS = 4;
+
+    /** The Constant WHITE. */
+    private final static int WHITE = 0xFFFFFFFF;
+
+    /** The image type, a BufferedImage TYPE_ constant without the prefix. */
+    @Param({ "INT_ARGB", "INT_RGB" })
+    public String type;
+
+    /** The content of the image, UNIFORM white, GRADIENT or RANDOM. */
+    @Param({ "UNIFORM", "GRADIENT", "RANDOM" })
+    public String content;
+
+    /** The image. */
+    private BufferedImage image;
+
+    /**
+     * Creates the image.
+     */
+    @Setup
+    public void setUp() {
+        int imageType = Images.type(type);
+        switch (content) {
+        case "UNIFORM":  image = Images.uniform(imageType, MEGAPIXELS, WHITE); break;
+        case "GRADIENT": image = Images.gradient(imageType, MEGAPIXELS); break;
+        case "RANDOM":   image = Images.random(imageType, MEGAPIXELS, 1); break;
+        default: throw new IllegalArgumentException("Unknown content " + content);
+        }
+    }
+
+    /**
+     * Calculates the histogram of the image.
+     *
+     * @param counter the pixel counter
+     * @return the histogram
+     */
+    @Benchmark
+    public int[][] calcHistogram(PixelCounter counter) {
+        Histogrammer histogram = new Histogrammer(image);
+        histogram.calcHistogram();
+        counter.pixels += (long) image.getWidth() * image.getHeight();
+        return histogram.getHistogram();
+    }
+}
@@ -0,0 +1,131 @@
+package net.fernandezgodinho.histogrammer.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import net.fernandezgodinho.histogrammer.Histogrammer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class EqualizationBenchmark. Applying an equalisation lookup table in place with
+ * Histogrammer.applyLut, sequentially and on the common pool, against the same mapping done with
+ * getRGB and setRGB one row at a time, and tiled CLAHE on the common pool. The image is rewritten by
+ * every operation; the throughput does not depend on its content.
+ *
+ * @author Joao Godinho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class EqualizationBenchmark {
+    /** The image type, a BufferedImage TYPE_ constant without the prefix. */
+    @Param({ "INT_RGB", "3BYTE_BGR" })
+    public String type;
+
+    /** The image size in megapixels. */
+    @Param({ "4", "24" })
+    public double megapixels;
+
+    /** The image. */
+    private BufferedImage image;
+
+    /** The histogrammer of the image, parallel from any size. */
+    private Histogrammer parallel;
+
+    /** The histogrammer of the image, never parallel. */
+    private Histogrammer sequential;
+
+    /** The equalisation table. */
+    private int[][] lut;
+
+    /**
+     * Creates the image and its equalisation table.
+     */
+    @Setup
+    public void setUp() {
+        image = Images.gradient(Images.type(type), megapixels);
+        parallel = new Histogrammer(image);
+        parallel.setParallelThreshold(0);
+        parallel.calcHistogram();
+        lut = parallel.getEqualizationLut();
+        sequential = new Histogrammer(image);
+        sequential.setParallelThreshold(Long.MAX_VALUE);
+    }
+
+    /**
+     * Maps the image through the table with getRGB and setRGB, a row at a time.
+     *
+     * @param counter the pixel counter
+     * @return the image
+     */
+    @Benchmark
+    public BufferedImage getRgbSetRgb(PixelCounter counter) {
+        int width = image.getWidth();
+        int[] row = new int[width];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int pixel = row[x];
+                row[x] = lut[0][pixel >>> 24] << 24 | lut[1][0xFF & pixel >> 16] << 16
+                        | lut[2][0xFF & pixel >> 8] << 8 | lut[3][0xFF & pixel];
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        counter.pixels += (long) width * image.getHeight();
+        return image;
+    }
+
+    /**
+     * Applies the table on the calling thread.
+     *
+     * @param counter the pixel counter
+     * @return the image
+     */
+    @Benchmark
+    public BufferedImage applyLut(PixelCounter counter) {
+        sequential.applyLut(lut, ForkJoinPool.commonPool());
+        counter.pixels += (long) image.getWidth() * image.getHeight();
+        return image;
+    }
+
+    /**
+     * Applies the table in bands of rows on the common pool.
+     *
+     * @param counter the pixel counter
+     * @return the image
+     */
+    @Benchmark
+    public BufferedImage applyLutParallel(PixelCounter counter) {
+        parallel.applyLut(lut, ForkJoinPool.commonPool());
+        counter.pixels += (long) image.getWidth() * image.getHeight();
+        return image;
+    }
+
+    /**
+     * Applies CLAHE over 8 by 8 tiles with a clip limit of 2, on the common pool.
+     *
+     * @param counter the pixel counter
+     * @return the image
+     */
+    @Benchmark
+    public BufferedImage claheParallel(PixelCounter counter) {
+        parallel.equalizeAdaptive(8, 8, 2, ForkJoinPool.commonPool());
+        counter.pixels += (long) image.getWidth() * image.getHeight();
+        return image;
+    }
+}
@@ -0,0 +1,95 @@
+package net.fernandezgodinho.histogrammer.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.fernandezgodinho.histogrammer.FrameLayout;
+import net.fernandezgodinho.histogrammer.FrameLayout.Format;
+import net.fernandezgodinho.histogrammer.Histogrammer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class FrameBenchmark. Histograms of a 3840x2160 raw frame held in a direct ByteBuffer, packed
+ * RGBA or NV12, counted in full and through the luma path.
+ *
+ * @author Joao Godinho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FrameBenchmark {
+    /** The Constant WIDTH. */
+    private final static int WIDTH = 3840;
+
+    /** The Constant HEIGHT. */
+    private final static int HEIGHT = 2160;
+
+    /** The frame format, RGBA or NV12. */
+    @Param({ "RGBA", "NV12" })
+    public String format;
+
+    /** The frame. */
+    private ByteBuffer frame;
+
+    /** The histogrammer. */
+    private Histogrammer histogrammer;
+
+    /** The luma histogram. */
+    private int[] luma;
+
+    /**
+     * Creates a frame of random samples.
+     */
+    @Setup
+    public void setUp() {
+        FrameLayout layout = "NV12".equals(format) ? FrameLayout.nv12(WIDTH, HEIGHT)
+                : FrameLayout.packed(Format.valueOf(format), WIDTH, HEIGHT);
+        byte[] samples = new byte[(int) layout.getFrameSize()];
+        new Random(1).nextBytes(samples);
+        frame = ByteBuffer.allocateDirect(samples.length);
+        frame.put(samples).clear();
+        histogrammer = new Histogrammer(layout);
+        luma = new int[256];
+    }
+
+    /**
+     * Adds the ARGB histogram of the frame.
+     *
+     * @param counter the pixel counter
+     * @return the histogram
+     */
+    @Benchmark
+    public int[][] calcHistogram(PixelCounter counter) {
+        histogrammer.calcHistogram(frame);
+        counter.pixels += (long) WIDTH * HEIGHT;
+        return histogrammer.getHistogram();
+    }
+
+    /**
+     * Adds the luma histogram of the frame.
+     *
+     * @param counter the pixel counter
+     * @return the luma histogram
+     */
+    @Benchmark
+    public int[] calcLumaHistogram(PixelCounter counter) {
+        histogrammer.calcLumaHistogram(frame, luma);
+        counter.pixels += (long) WIDTH * HEIGHT;
+        return luma;
+    }
+}
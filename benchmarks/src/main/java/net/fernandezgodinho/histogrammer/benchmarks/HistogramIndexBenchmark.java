@@ -0,0 +1,165 @@
+package net.fernandezgodinho.histogrammer.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.fernandezgodinho.histogrammer.HistogramIndex;
+import net.fernandezgodinho.histogrammer.HistogramIndex.Match;
+import net.fernandezgodinho.histogrammer.HistogramIndex.Metric;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class HistogramIndexBenchmark. Top-10 queries on a HistogramIndex against a brute force L1 scan
+ * of the int[4][256] histograms. The histograms come in clusters of near duplicates, 20 per cluster,
+ * and queries are perturbed copies of stored histograms.
+ *
+ * @author Joao Godinho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HistogramIndexBenchmark {
+    /** The Constant COLOR_RANGE. */
+    private final static int COLOR_RANGE = 256;
+
+    /** The Constant QUERIES. Number of precomputed queries cycled through. */
+    private final static int QUERIES = 64;
+
+    /** The number of histograms. */
+    @Param({ "10000", "100000" })
+    public int size;
+
+    /** The metric of the indexed queries. */
+    @Param({ "L1", "CHI_SQUARE" })
+    public Metric metric;
+
+    /** The histograms. */
+    private int[][][] histograms;
+
+    /** The index. */
+    private HistogramIndex index;
+
+    /** The queries. */
+    private int[][][] queries;
+
+    /** The next query. */
+    private int next;
+
+    /**
+     * Creates the histograms, the index and the queries.
+     */
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        histograms = new int[size][][];
+        index = new HistogramIndex();
+        int[][] center = null;
+        for (int i = 0; i < size; i++) {
+            if (i % 20 == 0) { center = randomHistogram(random); }
+            histograms[i] = perturb(center, random);
+            index.add(histograms[i]);
+        }
+        queries = new int[QUERIES][][];
+        for (int i = 0; i < QUERIES; i++) { queries[i] = perturb(histograms[random.nextInt(size)], random); }
+        index.topK(queries[0], 1, metric);
+    }
+
+    /**
+     * Queries the index.
+     *
+     * @return the matches
+     */
+    @Benchmark
+    public List<Match> index() {
+        return index.topK(queries[next++ & (QUERIES - 1)], 10, metric);
+    }
+
+    /**
+     * Scans every histogram for the closest by L1 distance of the percentages.
+     *
+     * @return the closest histogram
+     */
+    @Benchmark
+    public int bruteForce() {
+        int[][] query = queries[next++ & (QUERIES - 1)];
+        double[][] percentages = percentages(query);
+        int closest = -1;
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            double distance = 0;
+            for (int c = 1; c < 4; c++) {
+                long total = 0;
+                for (int count : histograms[i][c]) { total += count; }
+                for (int v = 0; v < COLOR_RANGE; v++) {
+                    distance += Math.abs((double) histograms[i][c][v] / total - percentages[c][v]);
+                }
+            }
+            if (distance < best) {
+                best = distance;
+                closest = i;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Fractions of each channel.
+     *
+     * @param histogram the histogram
+     * @return the fractions
+     */
+    private static double[][] percentages(int[][] histogram) {
+        double[][] percentages = new double[4][COLOR_RANGE];
+        for (int c = 1; c < 4; c++) {
+            long total = 0;
+            for (int count : histogram[c]) { total += count; }
+            for (int v = 0; v < COLOR_RANGE; v++) { percentages[c][v] = (double) histogram[c][v] / total; }
+        }
+        return percentages;
+    }
+
+    /**
+     * Random histogram with one peak per channel.
+     *
+     * @param random the random
+     * @return the histogram
+     */
+    private static int[][] randomHistogram(Random random) {
+        int[][] histogram = new int[4][COLOR_RANGE];
+        for (int c = 0; c < 4; c++) {
+            int peak = random.nextInt(COLOR_RANGE);
+            for (int v = 0; v < COLOR_RANGE; v++) { histogram[c][v] = 5000 / (1 + Math.abs(v - peak)) + random.nextInt(100); }
+        }
+        return histogram;
+    }
+
+    /**
+     * Copy of a histogram with noise added.
+     *
+     * @param histogram the histogram
+     * @param random the random
+     * @return the copy
+     */
+    private static int[][] perturb(int[][] histogram, Random random) {
+        int[][] copy = new int[4][COLOR_RANGE];
+        for (int c = 0; c < 4; c++) {
+            for (int v = 0; v < COLOR_RANGE; v++) { copy[c][v] = histogram[c][v] + random.nextInt(50); }
+        }
+        return copy;
+    }
+}
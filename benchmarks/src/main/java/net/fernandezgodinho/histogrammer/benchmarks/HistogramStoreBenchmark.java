@@ -0,0 +1,129 @@
+package net.fernandezgodinho.histogrammer.benchmarks;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.fernandezgodinho.histogrammer.HistogramStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class HistogramStoreBenchmark. Random reads and sequential scans of a HistogramStore. The store
+ * is written once per fork into a temporary directory, so reads come from the page cache; the
+ * sequential scan time divided by the records gives the scan throughput.
+ *
+ * @author Joao Godinho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistogramStoreBenchmark {
+    /** The Constant COLOR_RANGE. */
+    private final static int COLOR_RANGE = 256;
+
+    /** The Constant READS. Number of precomputed random indices cycled through. */
+    private final static int READS = 1 << 16;
+
+    /** The number of histograms in the store, 64 MB and 512 MB of records. */
+    @Param({ "16384", "131072" })
+    public int records;
+
+    /** The directory. */
+    private Path directory;
+
+    /** The store. */
+    private HistogramStore store;
+
+    /** The random indices. */
+    private long[] indices;
+
+    /** The next index. */
+    private int next;
+
+    /**
+     * Writes the store.
+     *
+     * @throws IOException Signals that the store could not be written.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("histogram-store");
+        store = new HistogramStore(directory);
+        Random random = new Random(1);
+        int[][] histogram = new int[4][COLOR_RANGE];
+        for (int i = 0; i < records; i++) {
+            histogram[i & 3][random.nextInt(COLOR_RANGE)] += i;
+            store.append(histogram);
+        }
+        indices = new long[READS];
+        for (int i = 0; i < READS; i++) { indices[i] = random.nextInt(records); }
+    }
+
+    /**
+     * Closes and deletes the store.
+     *
+     * @throws IOException Signals that the store could not be deleted.
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        for (String segment : directory.toFile().list()) {
+            Files.delete(directory.resolve(segment));
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Reads every counter of a random histogram through its view.
+     *
+     * @return the sum of the counters
+     */
+    @Benchmark
+    public int randomRead() {
+        IntBuffer histogram = store.get(indices[next++ & (READS - 1)]);
+        int sum = 0;
+        for (int i = 0; i < 4 * COLOR_RANGE; i++) { sum += histogram.get(i); }
+        return sum;
+    }
+
+    /**
+     * Reads a single counter of a random histogram.
+     *
+     * @return the count
+     */
+    @Benchmark
+    public int randomCount() {
+        return store.getCount(indices[next++ & (READS - 1)], 1, 128);
+    }
+
+    /**
+     * Scans one counter of every histogram in order.
+     *
+     * @return the sum of the counts
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long sequentialScan() {
+        long sum = 0;
+        for (long i = 0; i < records; i++) { sum += store.getCount(i, 1, 128); }
+        return sum;
+    }
+}
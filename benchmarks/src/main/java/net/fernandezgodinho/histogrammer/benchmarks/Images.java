@@ -0,0 +1,159 @@
+package net.fernandezgodinho.histogrammer.benchmarks;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The Class Images. Synthetic benchmark images, built the same way as the gradient fixtures of
+ * HistogrammerTest.
+ * 
+ * @author Joao Godinho
+ */
+public final class Images {
+    /** The Constant COLOR_RANGE. */
+    private final static int COLOR_RANGE = 256;
+    
+    /** The Constant OPAQUE. ARGB*/
+    private final static int OPAQUE = 0xFF000000;
+    
+    /** The Constant RED_SHIFT. */
+    private final static int RED_SHIFT = 16;
+    
+    /** The Constant GREEN_SHIFT. */
+    private final static int GREEN_SHIFT = 8;
+    
+    /** The Constant BLUE_SHIFT. */
+    private final static int BLUE_SHIFT = 0;
+    
+    /**
+     * Instantiates a new images.
+     */
+    private Images() {
+    }
+    
+    /**
+     * Parses a BufferedImage type from its constant name without the TYPE_ prefix, e.g. INT_ARGB.
+     *
+     * @param name the name
+     * @return the image type
+     */
+    public static int type(String name) {
+        try {
+            return BufferedImage.class.getField("TYPE_" + name).getInt(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Unknown image type " + name, e);
+        }
+    }
+    
+    /**
+     * Creates a square image with about the given number of megapixels, filled with a vertical
+     * gradient in every channel.
+     *
+     * @param type the image type
+     * @param megapixels the megapixels
+     * @return the image
+     */
+    public static BufferedImage gradient(int type, double megapixels) {
+        int side = (int) Math.round(Math.sqrt(megapixels * 1000000));
+        return gradient(type, side, side);
+    }
+    
+    /**
+     * Creates an image filled with a vertical gradient in every channel.
+     *
+     * @param type the image type
+     * @param width the width
+     * @param height the height
+     * @return the image
+     */
+    public static BufferedImage gradient(int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        int[] line = new int[width];
+        
+        for (int h = 0; h < height; h++) {
+            int normalized = (int) ((long) h * COLOR_RANGE / height);
+            Arrays.fill(line, OPAQUE | normalized << RED_SHIFT | normalized << GREEN_SHIFT | normalized << BLUE_SHIFT);
+            image.setRGB(0, h, width, 1, line, 0, width);
+        }
+        return image;
+    }
+    
+    /**
+     * Creates a square image with about the given number of megapixels, filled with one colour.
+     *
+     * @param type the image type
+     * @param megapixels the megapixels
+     * @param argb the colour
+     * @return the image
+     */
+    public static BufferedImage uniform(int type, double megapixels, int argb) {
+        int side = (int) Math.round(Math.sqrt(megapixels * 1000000));
+        BufferedImage image = new BufferedImage(side, side, type);
+        int[] line = new int[side];
+        
+        Arrays.fill(line, argb);
+        for (int h = 0; h < side; h++) {
+            image.setRGB(0, h, side, 1, line, 0, side);
+        }
+        return image;
+    }
+    
+    /**
+     * Creates a square image with about the given number of megapixels, filled with uniformly random
+     * pixels.
+     *
+     * @param type the image type
+     * @param megapixels the megapixels
+     * @param seed the seed
+     * @return the image
+     */
+    public static BufferedImage random(int type, double megapixels, long seed) {
+        int side = (int) Math.round(Math.sqrt(megapixels * 1000000));
+        BufferedImage image = new BufferedImage(side, side, type);
+        Random random = new Random(seed);
+        int[] line = new int[side];
+        
+        for (int h = 0; h < side; h++) {
+            for (int w = 0; w < side; w++) {
+                line[w] = random.nextInt();
+            }
+            image.setRGB(0, h, side, 1, line, 0, side);
+        }
+        return image;
+    }
+    
+    /**
+     * Creates a square 16 bit per sample image with about the given number of megapixels, filled with
+     * a vertical gradient over the whole 16 bit range in every band. One band gives a TYPE_USHORT_GRAY
+     * image, three a custom sRGB image with a ComponentColorModel.
+     *
+     * @param bands the bands, 1 or 3
+     * @param megapixels the megapixels
+     * @return the image
+     */
+    public static BufferedImage ushortGradient(int bands, double megapixels) {
+        int side = (int) Math.round(Math.sqrt(megapixels * 1000000));
+        BufferedImage image;
+        if (bands == 1) {
+            image = new BufferedImage(side, side, BufferedImage.TYPE_USHORT_GRAY);
+        } else {
+            ComponentColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                    false, false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+            image = new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(side, side), false, null);
+        }
+        WritableRaster raster = image.getRaster();
+        int[] line = new int[side * bands];
+        
+        for (int h = 0; h < side; h++) {
+            Arrays.fill(line, (int) ((long) h * (1 << 16) / side));
+            raster.setPixels(0, h, side, 1, line);
+        }
+        return image;
+    }
+}
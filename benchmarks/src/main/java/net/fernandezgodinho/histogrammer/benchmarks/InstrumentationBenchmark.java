@@ -0,0 +1,97 @@
+package net.fernandezgodinho.histogrammer.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Recording;
+
+import net.fernandezgodinho.histogrammer.HistogramMetrics;
+import net.fernandezgodinho.histogrammer.Histogrammer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class InstrumentationBenchmark. A frame loop of calcHistogram(), getPercentageHistogram() and
+ * getHistogramAsImage(int, BufferedImage) with instrumentation OFF, with HistogramMetrics enabled,
+ * and under a flight recording of the histogram events. The small image shows the fixed cost per
+ * instrumented call, the large one what it amounts to on a typical frame.
+ *
+ * @author Joao Godinho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class InstrumentationBenchmark {
+    /** The Constant EVENT_NAME. */
+    private final static String EVENT_NAME = "net.fernandezgodinho.histogrammer.Histogram";
+
+    /** The instrumentation, OFF, METRICS or JFR. */
+    @Param({ "OFF", "METRICS", "JFR" })
+    public String instrumentation;
+
+    /** The image size in megapixels. */
+    @Param({ "0.01", "1" })
+    public double megapixels;
+
+    /** The histogrammer. */
+    private Histogrammer histogrammer;
+
+    /** The plot. */
+    private BufferedImage plot;
+
+    /** The recording, while benchmarking JFR. */
+    private Recording recording;
+
+    /**
+     * Creates the image and turns the instrumentation on.
+     */
+    @Setup
+    public void setUp() {
+        histogrammer = new Histogrammer(Images.gradient(BufferedImage.TYPE_INT_RGB, megapixels));
+        plot = new BufferedImage(256, 100, BufferedImage.TYPE_INT_ARGB);
+        HistogramMetrics.setEnabled("METRICS".equals(instrumentation));
+        if ("JFR".equals(instrumentation)) {
+            recording = new Recording();
+            recording.enable(EVENT_NAME);
+            recording.setToDisk(false);
+            recording.start();
+        }
+    }
+
+    /**
+     * Turns the instrumentation off.
+     */
+    @TearDown
+    public void tearDown() {
+        HistogramMetrics.setEnabled(false);
+        if (recording != null) {
+            recording.close();
+        }
+    }
+
+    /**
+     * Counts and renders a frame.
+     *
+     * @return the plot
+     */
+    @Benchmark
+    public BufferedImage frame() {
+        histogrammer.reset();
+        histogrammer.calcHistogram();
+        return histogrammer.getHistogramAsImage(1, plot);
+    }
+}
@@ -0,0 +1,101 @@
+package net.fernandezgodinho.histogrammer.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.fernandezgodinho.histogrammer.Histogrammer;
+import net.fernandezgodinho.histogrammer.IntegralHistogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class IntegralHistogramBenchmark. Histogram of a square region of interest from an
+ * IntegralHistogram against calcHistogram() on a sub-image of the same region.
+ * 
+ * @author Joao Godinho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class IntegralHistogramBenchmark {
+    /** The Constant IMG_SIZE. */
+    private final static int IMG_SIZE = 640;
+    
+    /** The Constant REGIONS. Number of precomputed region positions cycled through. */
+    private final static int REGIONS = 1024;
+    
+    /** The bins per channel of the integral histogram. */
+    @Param({ "8", "32" })
+    public int bins;
+    
+    /** The side of the square region. */
+    @Param({ "16", "64", "256" })
+    public int regionSize;
+    
+    /** The image. */
+    private BufferedImage image;
+    
+    /** The integral histogram. */
+    private IntegralHistogram integral;
+    
+    /** The query output. */
+    private int[][] output;
+    
+    /** The region positions, x and y interleaved. */
+    private int[] positions;
+    
+    /** The next region. */
+    private int next;
+    
+    /**
+     * Creates the image, its integral histogram and the region positions.
+     */
+    @Setup
+    public void setUp() {
+        image = Images.gradient(BufferedImage.TYPE_INT_ARGB, IMG_SIZE, IMG_SIZE);
+        integral = new IntegralHistogram(new Histogrammer(image), bins);
+        output = new int[4][bins];
+        positions = new int[2 * REGIONS];
+        Random random = new Random(1);
+        for (int i = 0; i < positions.length; i++) { positions[i] = random.nextInt(IMG_SIZE - regionSize + 1); }
+    }
+    
+    /**
+     * Queries the integral histogram.
+     *
+     * @return the histogram
+     */
+    @Benchmark
+    public int[][] integralHistogram() {
+        int i = 2 * (next++ & (REGIONS - 1));
+        integral.histogram(positions[i], positions[i + 1], regionSize, regionSize, output);
+        return output;
+    }
+    
+    /**
+     * Calculates the histogram of a sub-image.
+     *
+     * @return the histogram
+     */
+    @Benchmark
+    public int[][] calcHistogram() {
+        int i = 2 * (next++ & (REGIONS - 1));
+        Histogrammer histogram = new Histogrammer(image.getSubimage(positions[i], positions[i + 1], regionSize, regionSize));
+        histogram.calcHistogram();
+        return histogram.getHistogram();
+    }
+}
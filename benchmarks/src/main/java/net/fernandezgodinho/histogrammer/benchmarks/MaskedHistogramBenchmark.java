@@ -0,0 +1,104 @@
+package net.fernandezgodinho.histogrammer.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import net.fernandezgodinho.histogrammer.Histogrammer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class MaskedHistogramBenchmark. Masked histograms of a 4 MP image with a centred elliptical
+ * foreground covering a given share of the image, against counting the whole image, and the alpha
+ * weighted histogram.
+ *
+ * @author Joao Godinho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MaskedHistogramBenchmark {
+    /** The Constant MEGAPIXELS. */
+    private final static double MEGAPIXELS = 4;
+
+    /** The image type, a BufferedImage TYPE_ constant without the prefix. */
+    @Param({ "INT_ARGB", "3BYTE_BGR" })
+    public String type;
+
+    /** The share of the image the foreground covers, in percent. */
+    @Param({ "10", "50" })
+    public int coverage;
+
+    /** The image. */
+    private BufferedImage image;
+
+    /** The mask. */
+    private long[] mask;
+
+    /**
+     * Creates the image and the mask.
+     */
+    @Setup
+    public void setUp() {
+        image = Images.gradient(Images.type(type), MEGAPIXELS);
+        int width = image.getWidth(), height = image.getHeight(), words = (width + 63) / 64;
+        mask = new long[words * height];
+        // an ellipse of area pi * a * b covering the given share of the image
+        double scale = Math.sqrt(coverage / 100.0 * 4 / Math.PI) / 2;
+        double a = width * scale, b = height * scale;
+        for (int y = 0; y < height; y++) {
+            double dy = (y - height / 2.0) / b;
+            for (int x = 0; x < width; x++) {
+                double dx = (x - width / 2.0) / a;
+                if (dx * dx + dy * dy <= 1) { mask[y * words + x / 64] |= 1L << x; }
+            }
+        }
+    }
+
+    /**
+     * Counts every pixel.
+     *
+     * @return the histogram
+     */
+    @Benchmark
+    public int[][] calcHistogram() {
+        Histogrammer histogrammer = new Histogrammer(image);
+        histogrammer.calcHistogram();
+        return histogrammer.getHistogram();
+    }
+
+    /**
+     * Counts the pixels under the mask.
+     *
+     * @return the histogram
+     */
+    @Benchmark
+    public int[][] calcMaskedHistogram() {
+        Histogrammer histogrammer = new Histogrammer(image);
+        histogrammer.calcMaskedHistogram(mask);
+        return histogrammer.getHistogram();
+    }
+
+    /**
+     * Counts every pixel and its alpha weighted histogram.
+     *
+     * @return the alpha weighted histogram
+     */
+    @Benchmark
+    public double[][] calcAlphaWeightedHistogram() {
+        return new Histogrammer(image).calcAlphaWeightedHistogram();
+    }
+}
@@ -0,0 +1,94 @@
+package net.fernandezgodinho.histogrammer.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import net.fernandezgodinho.histogrammer.Histogrammer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class OutputBenchmark. Throughput of getPercentageHistogram() and getHistogramAsImage(int)
+ * on the histogram of a gradient image, at several plot scales.
+ * 
+ * @author Joao Godinho
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputBenchmark {
+    /** The scale of the plot. */
+    @Param({ "1", "2", "4", "8" })
+    public int scale;
+    
+    /** The image. */
+    private BufferedImage image;
+    
+    /** The histogram of the image. */
+    private Histogrammer histogram;
+    
+    /** The image the histogram is rendered into by histogramIntoImage. */
+    private BufferedImage rendered;
+    
+    /**
+     * Creates the image and its histogram.
+     */
+    @Setup
+    public void setUp() {
+        image = Images.gradient(BufferedImage.TYPE_INT_ARGB, 1);
+        histogram = new Histogrammer(image);
+        histogram.calcHistogram();
+        histogram.getPercentageHistogram();
+        rendered = histogram.getHistogramAsImage(scale);
+    }
+    
+    /**
+     * Calculates the percentage histogram. The result is cached by the Histogrammer, so each call
+     * starts from a new one; its counters are all zero, which costs the same to convert.
+     *
+     * @return the percentage histogram
+     */
+    @Benchmark
+    public int[][] percentageHistogram() {
+        return new Histogrammer(image).getPercentageHistogram();
+    }
+    
+    /**
+     * Renders the histogram.
+     *
+     * @param counter the pixel counter, counting rendered pixels
+     * @return the rendered image
+     */
+    @Benchmark
+    public BufferedImage histogramAsImage(PixelCounter counter) {
+        BufferedImage rendered = histogram.getHistogramAsImage(scale);
+        counter.pixels += (long) rendered.getWidth() * rendered.getHeight();
+        return rendered;
+    }
+    
+    /**
+     * Renders the histogram into the same image every time.
+     *
+     * @param counter the pixel counter, counting rendered pixels
+     * @return the rendered image
+     */
+    @Benchmark
+    public BufferedImage histogramIntoImage(PixelCounter counter) {
+        histogram.getHistogramAsImage(scale, rendered);
+        counter.pixels += (long) rendered.getWidth() * rendered.getHeight();
+        return rendered;
+    }
+}
@@ -0,0 +1,28 @@
+package net.fernandezgodinho.histogrammer.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The Class PixelCounter. Auxiliary counter that makes JMH report pixels per second next to the
+ * operations per second of a benchmark.
+ * 
+ * @author Joao Godinho
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class PixelCounter {
+    /** The pixels processed in the current iteration. */
+    public long pixels;
+    
+    /**
+     * Resets the counter before each iteration.
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+        pixels = 0;
+    }
+}
@@ -0,0 +1,87 @@
+package net.fernandezgodinho.histogrammer.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import net.fernandezgodinho.histogrammer.Histogrammer;
+import net.fernandezgodinho.histogrammer.SampleHistogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Class SampleHistogramBenchmark. SampleHistogram on the native 16 bit samples of 4 MP grey and
+ * RGB images against Histogrammer.calcHistogram(), which converts every pixel to 8 bit sRGB.
+ * 
+ * @author Joao Godinho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SampleHistogramBenchmark {
+    /** The Constant MEGAPIXELS. */
+    private final static double MEGAPIXELS = 4;
+    
+    /** The bands of the image, 1 for TYPE_USHORT_GRAY and 3 for 16 bit RGB. */
+    @Param({ "1", "3" })
+    public int bands;
+    
+    /** The bins per band of the sample histogram. */
+    @Param({ "256", "65536" })
+    public int bins;
+    
+    /** The image. */
+    private BufferedImage image;
+    
+    /** The sample histogram. */
+    private SampleHistogram sampleHistogram;
+    
+    /**
+     * Creates the image.
+     */
+    @Setup
+    public void setUp() {
+        image = Images.ushortGradient(bands, MEGAPIXELS);
+        sampleHistogram = new SampleHistogram(image, bins);
+    }
+    
+    /**
+     * Counts the native samples.
+     *
+     * @param counter the pixel counter
+     * @return the sample histogram
+     */
+    @Benchmark
+    public SampleHistogram sampleHistogram(PixelCounter counter) {
+        sampleHistogram.reset();
+        sampleHistogram.calcHistogram();
+        counter.pixels += (long) image.getWidth() * image.getHeight();
+        return sampleHistogram;
+    }
+    
+    /**
+     * Counts the pixels converted to 8 bit sRGB.
+     *
+     * @param counter the pixel counter
+     * @return the histogram
+     */
+    @Benchmark
+    public int[][] convertedHistogram(PixelCounter counter) {
+        Histogrammer histogram = new Histogrammer(image);
+        histogram.calcHistogram();
+        counter.pixels += (long) image.getWidth() * image.getHeight();
+        return histogram.getHistogram();
+    }
+}
@@ -0,0 +1,547 @@
+package net.fernandezgodinho.histogrammer;
+
+import static net.fernandezgodinho.histogrammer.Histogrammer.ALPHA_SHIFT;
+import static net.fernandezgodinho.histogrammer.Histogrammer.BYTE_MASK;
+import static net.fernandezgodinho.histogrammer.Histogrammer.COLOR_RANGE;
+import static net.fernandezgodinho.histogrammer.Histogrammer.GREEN_SHIFT;
+import static net.fernandezgodinho.histogrammer.Histogrammer.OPAQUE;
+import static net.fernandezgodinho.histogrammer.Histogrammer.RED_SHIFT;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The Class Equalizer. Builds per-channel lookup tables from ARGB histograms and applies them, or the
+ * tile tables of contrast limited adaptive equalisation, to an image in place. The image types with a
+ * specialised HistogramKernel other than the grey ones are written straight into their DataBuffer;
+ * grey images, whose getRGB values are not their samples, and every other type go through getRGB and
+ * setRGB on the calling thread, since setRGB is not safe to call from several threads.
+ *
+ * Tables are int[4][256], alpha, red, green and blue, each mapping a value from 0 to 255 to another.
+ *
+ * @author Joao Godinho
+ */
+final class Equalizer {
+    /** The Constant MAX_VALUE. */
+    private final static int MAX_VALUE = COLOR_RANGE - 1;
+
+    /**
+     * Instantiates a new equalizer.
+     */
+    private Equalizer() {
+    }
+
+    /**
+     * Work on a range of rows, run by RowTask.
+     */
+    interface Rows {
+        /**
+         * Processes rows.
+         *
+         * @param fromRow the first row
+         * @param toRow the row after the last
+         */
+        void process(int fromRow, int toRow);
+    }
+
+    /**
+     * Builds the identity table.
+     *
+     * @return the table
+     */
+    static int[][] identity() {
+        int[][] lut = new int[4][COLOR_RANGE];
+        for (int[] channel : lut) {
+            for (int v = 0; v < COLOR_RANGE; v++) { channel[v] = v; }
+        }
+        return lut;
+    }
+
+    /**
+     * Builds the global equalisation table of a histogram. Alpha is left as it is.
+     *
+     * @param histogram the histogram
+     * @return the table
+     */
+    static int[][] equalization(int[][] histogram) {
+        int[][] lut = identity();
+        for (int c = 1; c < 4; c++) { equalize(histogram[c], lut[c]); }
+        return lut;
+    }
+
+    /**
+     * Fills the equalisation table of one channel, value v mapping to (cdf(v) - cdf(min)) * 255 /
+     * (total - cdf(min)) rounded, so the smallest value present becomes 0 and the largest 255. A
+     * channel with fewer than two distinct values maps to itself.
+     *
+     * @param counts the counts
+     * @param lut the table
+     */
+    static void equalize(int[] counts, int[] lut) {
+        long total = 0;
+        for (int count : counts) { total += count; }
+        int first = 0;
+        while (first < COLOR_RANGE && counts[first] == 0) { first++; }
+        long base = first < COLOR_RANGE ? counts[first] : 0;
+        long range = total - base;
+        if (range == 0) {
+            for (int v = 0; v < COLOR_RANGE; v++) { lut[v] = v; }
+            return;
+        }
+        long cdf = 0;
+        for (int v = 0; v < COLOR_RANGE; v++) {
+            cdf += counts[v];
+            lut[v] = v < first ? 0 : (int) (((cdf - base) * MAX_VALUE * 2 + range) / (range * 2));
+        }
+    }
+
+    /**
+     * Builds the contrast stretch table of a histogram. In each colour channel the given percentile
+     * maps to 0, the complementary one to 255, values outside them are clipped and values between
+     * them spread linearly. Alpha is left as it is, and so is a channel whose two percentiles meet.
+     *
+     * @param statistics the statistics of the histogram
+     * @param clipPercentile the percentile clipped at each end, from 0 to less than 50
+     * @return the table
+     */
+    static int[][] stretch(HistogramStatistics statistics, double clipPercentile) {
+        if (!(clipPercentile >= 0 && clipPercentile < 50)) {
+            throw new IllegalArgumentException("Clip percentile must be from 0 to less than 50: " + clipPercentile);
+        }
+        int[][] lut = identity();
+        for (int c = 1; c < 4; c++) {
+            int low = statistics.getPercentile(c, clipPercentile);
+            int high = statistics.getPercentile(c, 100 - clipPercentile);
+            if (high <= low) { continue; }
+            int range = high - low;
+            for (int v = 0; v < COLOR_RANGE; v++) {
+                lut[c][v] = v <= low ? 0 : v >= high ? MAX_VALUE : ((v - low) * MAX_VALUE * 2 + range) / (range * 2);
+            }
+        }
+        return lut;
+    }
+
+    /**
+     * Checks that a table is int[4][256] of values from 0 to 255.
+     *
+     * @param lut the table
+     */
+    static void check(int[][] lut) {
+        if (lut.length != 4) {
+            throw new IllegalArgumentException("Expected 4 channels, got " + lut.length);
+        }
+        for (int[] channel : lut) {
+            if (channel.length != COLOR_RANGE) {
+                throw new IllegalArgumentException("Expected " + COLOR_RANGE + " entries, got " + channel.length);
+            }
+            for (int value : channel) {
+                if (value < 0 || value > MAX_VALUE) {
+                    throw new IllegalArgumentException("Table value out of range: " + value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the kernel of an image writes straight into its DataBuffer, so bands of rows can
+     * be processed on several threads.
+     *
+     * @param kernel the kernel of the image
+     * @return true, if direct
+     */
+    static boolean isDirect(HistogramKernel kernel) {
+        return kernel == HistogramKernel.INT_ARGB || kernel == HistogramKernel.INT_RGB
+                || kernel == HistogramKernel.THREE_BYTE_BGR || kernel == HistogramKernel.FOUR_BYTE_ABGR;
+    }
+
+    /**
+     * Applies a table to every pixel of an image.
+     *
+     * @param image the image
+     * @param kernel the kernel of the image
+     * @param lut the table
+     * @param pool the pool, null to run on the calling thread
+     * @param rowsPerBand the rows per band
+     */
+    static void apply(final BufferedImage image, final HistogramKernel kernel, int[][] lut, ForkJoinPool pool,
+            int rowsPerBand) {
+        final WritableRaster raster = image.getRaster();
+        final int width = image.getWidth();
+        Rows rows;
+        switch (isDirect(kernel) ? kernel : HistogramKernel.GENERIC) {
+        case INT_ARGB:
+        case INT_RGB:
+            final int[] alpha = shifted(lut[0], ALPHA_SHIFT), red = shifted(lut[1], RED_SHIFT);
+            final int[] green = shifted(lut[2], GREEN_SHIFT), blue = lut[3];
+            final int[] ints = ((DataBufferInt) raster.getDataBuffer()).getData();
+            final int intStride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            final boolean hasAlpha = kernel == HistogramKernel.INT_ARGB;
+            rows = new Rows() {
+                @Override
+                public void process(int fromRow, int toRow) {
+                    int row = HistogramKernel.offset(raster, 0, fromRow, intStride, 1);
+                    for (int y = fromRow; y < toRow; y++, row += intStride) {
+                        for (int i = row, end = row + width; i < end; i++) {
+                            int pixel = ints[i];
+                            ints[i] = (hasAlpha ? alpha[pixel >>> ALPHA_SHIFT] : pixel & OPAQUE)
+                                    | red[BYTE_MASK & (pixel >> RED_SHIFT)]
+                                    | green[BYTE_MASK & (pixel >> GREEN_SHIFT)] | blue[BYTE_MASK & pixel];
+                        }
+                    }
+                }
+            };
+            break;
+        case THREE_BYTE_BGR:
+        case FOUR_BYTE_ABGR:
+            final byte[] bytes = ((DataBufferByte) raster.getDataBuffer()).getData();
+            final ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            final int stride = sampleModel.getScanlineStride();
+            final int pixelStride = sampleModel.getPixelStride();
+            final int bands = sampleModel.getNumBands();
+            final int[] offsets = new int[bands];
+            final byte[][] tables = new byte[bands][];
+            for (int b = 0; b < bands; b++) {
+                offsets[b] = sampleModel.getOffset(0, 0, b);
+                // raster bands are red, green, blue and alpha, the table channels alpha, red, green, blue
+                tables[b] = bytes(lut[(b + 1) % 4]);
+            }
+            rows = new Rows() {
+                @Override
+                public void process(int fromRow, int toRow) {
+                    int row = HistogramKernel.offset(raster, 0, fromRow, stride, pixelStride);
+                    for (int y = fromRow; y < toRow; y++, row += stride) {
+                        for (int b = 0; b < bands; b++) {
+                            byte[] table = tables[b];
+                            for (int i = row + offsets[b], end = i + width * pixelStride; i < end; i += pixelStride) {
+                                bytes[i] = table[BYTE_MASK & bytes[i]];
+                            }
+                        }
+                    }
+                }
+            };
+            break;
+        default:
+            final int[][] table = lut;
+            rows = new Rows() {
+                @Override
+                public void process(int fromRow, int toRow) {
+                    int[] argb = new int[width];
+                    for (int y = fromRow; y < toRow; y++) {
+                        image.getRGB(0, y, width, 1, argb, 0, width);
+                        for (int i = 0; i < width; i++) { argb[i] = map(table, argb[i]); }
+                        image.setRGB(0, y, width, 1, argb, 0, width);
+                    }
+                }
+            };
+            pool = null;
+            break;
+        }
+        run(rows, image.getHeight(), pool, rowsPerBand);
+    }
+
+    /**
+     * Applies contrast limited adaptive histogram equalisation to the colour channels of an image. The
+     * image is split into a grid of tiles, each tile's histogram is clipped at clipLimit times its mean
+     * bin count with the excess spread evenly over all bins, and equalised into a table of its own.
+     * Each pixel is then mapped through the tables of the four nearest tile centres, interpolated
+     * bilinearly, so there are no seams at tile borders. Alpha is left as it is.
+     *
+     * @param image the image
+     * @param kernel the kernel of the image
+     * @param tilesX the tiles across, at most the width
+     * @param tilesY the tiles down, at most the height
+     * @param clipLimit the clip limit relative to the mean bin count, 0 or less for no clipping
+     * @param pool the pool, null to run on the calling thread
+     * @param rowsPerBand the rows per band
+     */
+    static void equalizeAdaptive(final BufferedImage image, final HistogramKernel kernel, int tilesX, int tilesY,
+            final double clipLimit, ForkJoinPool pool, int rowsPerBand) {
+        final int width = image.getWidth(), height = image.getHeight();
+        if (tilesX < 1 || tilesY < 1 || tilesX > width || tilesY > height) {
+            throw new IllegalArgumentException("Invalid tile grid " + tilesX + "x" + tilesY + " for a " + width
+                    + "x" + height + " image");
+        }
+        final int tileWidth = (width + tilesX - 1) / tilesX, tileHeight = (height + tilesY - 1) / tilesY;
+        final int columns = (width + tileWidth - 1) / tileWidth, rows = (height + tileHeight - 1) / tileHeight;
+        if (!isDirect(kernel)) { pool = null; }
+
+        // one table per tile, red, green and blue one after the other
+        final int[][] tables = new int[columns * rows][3 * COLOR_RANGE];
+        run(new Rows() {
+            @Override
+            public void process(int fromRow, int toRow) {
+                int[][] histogram = new int[4][COLOR_RANGE];
+                int[] lut = new int[COLOR_RANGE];
+                for (int ty = fromRow; ty < toRow; ty++) {
+                    for (int tx = 0; tx < columns; tx++) {
+                        int x = tx * tileWidth, y = ty * tileHeight;
+                        int w = Math.min(tileWidth, width - x), h = Math.min(tileHeight, height - y);
+                        for (int[] channel : histogram) { Arrays.fill(channel, 0); }
+                        kernel.count(image.getRaster(), image.getColorModel(), x, y, w, h, histogram);
+                        for (int c = 1; c < 4; c++) {
+                            clip(histogram[c], clipLimit, (long) w * h);
+                            equalize(histogram[c], lut);
+                            System.arraycopy(lut, 0, tables[ty * columns + tx], (c - 1) * COLOR_RANGE, COLOR_RANGE);
+                        }
+                    }
+                }
+            }
+        }, rows, pool, 1);
+
+        final int[] left = new int[width], right = new int[width];
+        final float[] rightWeight = new float[width];
+        interpolation(width, tileWidth, columns, left, right, rightWeight);
+        final int[] top = new int[height], bottom = new int[height];
+        final float[] bottomWeight = new float[height];
+        interpolation(height, tileHeight, rows, top, bottom, bottomWeight);
+
+        run(new Rows() {
+            @Override
+            public void process(int fromRow, int toRow) {
+                int[] argb = new int[width];
+                for (int y = fromRow; y < toRow; y++) {
+                    kernel.read(image.getRaster(), image.getColorModel(), 0, y, width, 1, argb);
+                    int above = top[y] * columns, below = bottom[y] * columns;
+                    float wy = bottomWeight[y];
+                    for (int x = 0; x < width; x++) {
+                        int[] t00 = tables[above + left[x]], t01 = tables[above + right[x]];
+                        int[] t10 = tables[below + left[x]], t11 = tables[below + right[x]];
+                        float wx = rightWeight[x];
+                        int pixel = argb[x], result = pixel & OPAQUE;
+                        for (int c = 0, shift = RED_SHIFT; c < 3 * COLOR_RANGE; c += COLOR_RANGE, shift -= 8) {
+                            int v = c + (BYTE_MASK & pixel >> shift);
+                            float upper = t00[v] + wx * (t01[v] - t00[v]);
+                            float lower = t10[v] + wx * (t11[v] - t10[v]);
+                            result |= (int) (upper + wy * (lower - upper) + 0.5f) << shift;
+                        }
+                        argb[x] = result;
+                    }
+                    write(image, kernel, y, argb);
+                }
+            }
+        }, height, pool, rowsPerBand);
+    }
+
+    /**
+     * Clips the counts of a tile at clipLimit times the mean bin count and spreads the excess evenly
+     * over all bins, the remainder one count per bin at even steps.
+     *
+     * @param counts the counts
+     * @param clipLimit the clip limit relative to the mean bin count, 0 or less for no clipping
+     * @param pixels the pixels in the tile
+     */
+    private static void clip(int[] counts, double clipLimit, long pixels) {
+        if (clipLimit <= 0) { return; }
+        int limit = (int) Math.max(1, Math.min(Integer.MAX_VALUE, clipLimit * pixels / COLOR_RANGE));
+        long excess = 0;
+        for (int v = 0; v < COLOR_RANGE; v++) {
+            if (counts[v] > limit) {
+                excess += counts[v] - limit;
+                counts[v] = limit;
+            }
+        }
+        int each = (int) (excess / COLOR_RANGE), remainder = (int) (excess % COLOR_RANGE);
+        for (int v = 0; v < COLOR_RANGE; v++) { counts[v] += each; }
+        if (remainder > 0) {
+            for (int v = 0, step = COLOR_RANGE / remainder; remainder > 0; v += step, remainder--) { counts[v]++; }
+        }
+    }
+
+    /**
+     * Finds for each position along an axis the tiles whose centres are on either side of it and the
+     * weight of the second, positions before the first centre or after the last using that tile only.
+     *
+     * @param length the length of the axis
+     * @param tileLength the tile length, the last tile possibly shorter
+     * @param tiles the tiles
+     * @param first the first tile of each position
+     * @param second the second tile of each position
+     * @param weight the weight of the second tile
+     */
+    private static void interpolation(int length, int tileLength, int tiles, int[] first, int[] second,
+            float[] weight) {
+        for (int p = 0, tile = 0; p < length; p++) {
+            while (tile < tiles - 1 && center(tile + 1, tileLength, length) <= p) { tile++; }
+            double from = center(tile, tileLength, length);
+            if (p < from || tile == tiles - 1) {
+                first[p] = second[p] = tile;
+                weight[p] = 0;
+            } else {
+                first[p] = tile;
+                second[p] = tile + 1;
+                weight[p] = (float) ((p - from) / (center(tile + 1, tileLength, length) - from));
+            }
+        }
+    }
+
+    /**
+     * Centre of a tile along an axis.
+     *
+     * @param tile the tile
+     * @param tileLength the tile length
+     * @param length the length of the axis
+     * @return the centre, in pixel coordinates
+     */
+    private static double center(int tile, int tileLength, int length) {
+        int start = tile * tileLength;
+        return start + (Math.min(tileLength, length - start) - 1) / 2.0;
+    }
+
+    /**
+     * Writes a row of ARGB pixels back into an image.
+     *
+     * @param image the image
+     * @param kernel the kernel of the image
+     * @param y the row
+     * @param argb the pixels
+     */
+    private static void write(BufferedImage image, HistogramKernel kernel, int y, int[] argb) {
+        WritableRaster raster = image.getRaster();
+        int width = argb.length;
+        switch (isDirect(kernel) ? kernel : HistogramKernel.GENERIC) {
+        case INT_ARGB:
+        case INT_RGB: {
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            int row = HistogramKernel.offset(raster, 0, y, stride, 1);
+            if (kernel == HistogramKernel.INT_ARGB) {
+                System.arraycopy(argb, 0, data, row, width);
+            } else {
+                for (int i = 0; i < width; i++) { data[row + i] = data[row + i] & OPAQUE | argb[i] & ~OPAQUE; }
+            }
+            break;
+        }
+        case THREE_BYTE_BGR:
+        case FOUR_BYTE_ABGR: {
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            int pixelStride = sampleModel.getPixelStride();
+            int row = HistogramKernel.offset(raster, 0, y, sampleModel.getScanlineStride(), pixelStride);
+            int red = sampleModel.getOffset(0, 0, 0), green = sampleModel.getOffset(0, 0, 1);
+            int blue = sampleModel.getOffset(0, 0, 2);
+            for (int i = 0, p = row; i < width; i++, p += pixelStride) {
+                int pixel = argb[i];
+                data[p + red] = (byte) (pixel >> RED_SHIFT);
+                data[p + green] = (byte) (pixel >> GREEN_SHIFT);
+                data[p + blue] = (byte) pixel;
+            }
+            break;
+        }
+        default:
+            image.setRGB(0, y, width, 1, argb, 0, width);
+            break;
+        }
+    }
+
+    /**
+     * Maps an ARGB pixel through a table.
+     *
+     * @param lut the table
+     * @param pixel the pixel
+     * @return the mapped pixel
+     */
+    private static int map(int[][] lut, int pixel) {
+        return lut[0][pixel >>> ALPHA_SHIFT] << ALPHA_SHIFT | lut[1][BYTE_MASK & (pixel >> RED_SHIFT)] << RED_SHIFT
+                | lut[2][BYTE_MASK & (pixel >> GREEN_SHIFT)] << GREEN_SHIFT | lut[3][BYTE_MASK & pixel];
+    }
+
+    /**
+     * Copies a channel table with its values shifted into place in a packed pixel.
+     *
+     * @param lut the channel table
+     * @param shift the shift
+     * @return the shifted table
+     */
+    private static int[] shifted(int[] lut, int shift) {
+        int[] table = new int[COLOR_RANGE];
+        for (int v = 0; v < COLOR_RANGE; v++) { table[v] = lut[v] << shift; }
+        return table;
+    }
+
+    /**
+     * Copies a channel table as bytes.
+     *
+     * @param lut the channel table
+     * @return the byte table
+     */
+    private static byte[] bytes(int[] lut) {
+        byte[] table = new byte[COLOR_RANGE];
+        for (int v = 0; v < COLOR_RANGE; v++) { table[v] = (byte) lut[v]; }
+        return table;
+    }
+
+    /**
+     * Runs work over rows, split into bands on a pool or all at once on the calling thread.
+     *
+     * @param rows the work
+     * @param height the number of rows
+     * @param pool the pool, null to run on the calling thread
+     * @param rowsPerBand the rows per band
+     */
+    private static void run(Rows rows, int height, ForkJoinPool pool, int rowsPerBand) {
+        if (pool == null || height <= rowsPerBand) {
+            rows.process(0, height);
+        } else {
+            pool.invoke(new RowTask(rows, 0, height, rowsPerBand));
+        }
+    }
+
+    /**
+     * The Class RowTask. Runs work over a band of rows, splitting it in two while it has more rows
+     * than a single band.
+     */
+    private static class RowTask extends RecursiveAction {
+        /** The Constant serialVersionUID. */
+        private static final long serialVersionUID = 1L;
+
+        /** The work. */
+        private final Rows rows;
+
+        /** The first row. */
+        private final int fromRow;
+
+        /** The row after the last. */
+        private final int toRow;
+
+        /** The rows per band. */
+        private final int rowsPerBand;
+
+        /**
+         * Instantiates a new row task.
+         *
+         * @param rows the work
+         * @param fromRow the first row
+         * @param toRow the row after the last
+         * @param rowsPerBand the rows per band
+         */
+        RowTask(Rows rows, int fromRow, int toRow, int rowsPerBand) {
+            this.rows = rows;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.rowsPerBand = rowsPerBand;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.concurrent.RecursiveAction#compute()
+         */
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= rowsPerBand) {
+                rows.process(fromRow, toRow);
+                return;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            RowTask upper = new RowTask(rows, fromRow, middle, rowsPerBand);
+            upper.fork();
+            new RowTask(rows, middle, toRow, rowsPerBand).compute();
+            upper.join();
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package net.fernandezgodinho.histogrammer;
+
+import static net.fernandezgodinho.histogrammer.Histogrammer.BYTE_MASK;
+import static net.fernandezgodinho.histogrammer.Histogrammer.COLOR_RANGE;
+import static net.fernandezgodinho.histogrammer.Histogrammer.GREEN_SHIFT;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The Class FrameLayout. Describes how the pixels of a raw frame are laid out in a ByteBuffer, so
+ * Histogrammer can count them straight from the buffer, heap, direct or memory-mapped, without
+ * copying them into a BufferedImage.
+ *
+ * Packed frames have four bytes per pixel, RGBA or BGRA, in rows of stride bytes. YUV 4:2:0 frames
+ * have a full size Y plane and U and V planes of half the width and height, rounded up, either
+ * separate (I420, YV12) or interleaved in one plane (NV12, NV21); each plane has its own offset and
+ * stride and the chroma samples a pixel stride of 1 or 2. YUV is converted to RGB with the BT.601
+ * matrix, limited range (Y 16 to 235) unless the layout says full range, and reads as opaque.
+ *
+ * Offsets are byte indices from the start of the buffer, regardless of its position. Layouts are
+ * immutable.
+ *
+ * @author Joao Godinho
+ */
+public final class FrameLayout {
+    /**
+     * The Enum Format. How the samples of a pixel are stored.
+     */
+    public enum Format {
+        /** Four bytes per pixel, red, green, blue, alpha. */
+        RGBA,
+        /** Four bytes per pixel, blue, green, red, alpha. */
+        BGRA,
+        /** YUV 4:2:0, a Y plane and subsampled U and V planes or one interleaved UV plane. */
+        YUV420
+    }
+
+    /** The Constant PACKED_BYTES. Bytes per pixel of the packed formats. */
+    private final static int PACKED_BYTES = 4;
+
+    /** The Constant FIXED_SHIFT. Fraction bits of the YUV conversion tables. */
+    private final static int FIXED_SHIFT = 16;
+
+    /** The Constant FIXED_HALF. */
+    private final static int FIXED_HALF = 1 << (FIXED_SHIFT - 1);
+
+    /**
+     * The Constant LIMITED_RANGE. Conversion tables, Y, V to red, U to green, V to green, U to blue,
+     * with Y from 16 to 235 and U and V from 16 to 240 stretched to the full range.
+     */
+    private final static int[][] LIMITED_RANGE = tables(255.0 / 219, 16, 1.596027, 0.391762, 0.812968, 2.017232);
+
+    /** The Constant FULL_RANGE. Conversion tables, Y, V to red, U to green, V to green, U to blue. */
+    private final static int[][] FULL_RANGE = tables(1, 0, 1.402, 0.344136, 0.714136, 1.772);
+
+    /** The Constant CLAMP_ORIGIN. Index of component 0 in CLAMP, beyond the most negative sum. */
+    private final static int CLAMP_ORIGIN = 512;
+
+    /** The Constant CLAMP. Component of a rounded sum from -512 to 1023, clamped to 0 to 255. */
+    private final static int[] CLAMP = new int[3 * CLAMP_ORIGIN];
+
+    static {
+        for (int i = 0; i < CLAMP.length; i++) { CLAMP[i] = Math.max(0, Math.min(BYTE_MASK, i - CLAMP_ORIGIN)); }
+    }
+
+    /** The format. */
+    private final Format format;
+
+    /** The width in pixels. */
+    private final int width;
+
+    /** The height in pixels. */
+    private final int height;
+
+    /** The offset of the first pixel, or of the Y plane. */
+    private final int offset;
+
+    /** The bytes from one row to the next, or from one Y row to the next. */
+    private final int stride;
+
+    /** The offset of the U plane. */
+    private final int uOffset;
+
+    /** The offset of the V plane. */
+    private final int vOffset;
+
+    /** The bytes from one chroma row to the next. */
+    private final int chromaStride;
+
+    /** The bytes from one chroma sample to the next within a row. */
+    private final int chromaPixelStride;
+
+    /** Whether YUV samples use the full 0 to 255 range. */
+    private final boolean fullRange;
+
+    /**
+     * Instantiates a new frame layout.
+     *
+     * @param format the format
+     * @param width the width
+     * @param height the height
+     * @param offset the offset
+     * @param stride the stride
+     * @param uOffset the U offset
+     * @param vOffset the V offset
+     * @param chromaStride the chroma stride
+     * @param chromaPixelStride the chroma pixel stride
+     * @param fullRange whether YUV is full range
+     */
+    private FrameLayout(Format format, int width, int height, int offset, int stride, int uOffset, int vOffset,
+            int chromaStride, int chromaPixelStride, boolean fullRange) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+        }
+        if (offset < 0 || uOffset < 0 || vOffset < 0) {
+            throw new IllegalArgumentException("Negative plane offset");
+        }
+        int rowBytes = format == Format.YUV420 ? width : width * PACKED_BYTES;
+        if (stride < rowBytes) {
+            throw new IllegalArgumentException("Stride " + stride + " is shorter than a row of " + rowBytes + " bytes");
+        }
+        if (format == Format.YUV420
+                && (chromaPixelStride < 1 || chromaStride < (chromaWidth(width) - 1) * chromaPixelStride + 1)) {
+            throw new IllegalArgumentException("Chroma stride " + chromaStride + " and pixel stride "
+                    + chromaPixelStride + " do not fit " + chromaWidth(width) + " samples");
+        }
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.offset = offset;
+        this.stride = stride;
+        this.uOffset = uOffset;
+        this.vOffset = vOffset;
+        this.chromaStride = chromaStride;
+        this.chromaPixelStride = chromaPixelStride;
+        this.fullRange = fullRange;
+    }
+
+    /**
+     * Creates the layout of a tightly packed frame of four bytes per pixel starting at index 0.
+     *
+     * @param format RGBA or BGRA
+     * @param width the width
+     * @param height the height
+     * @return the layout
+     */
+    public static FrameLayout packed(Format format, int width, int height) {
+        return packed(format, width, height, 0, width * PACKED_BYTES);
+    }
+
+    /**
+     * Creates the layout of a frame of four bytes per pixel.
+     *
+     * @param format RGBA or BGRA
+     * @param width the width
+     * @param height the height
+     * @param offset the index of the first byte of the first pixel
+     * @param stride the bytes from one row to the next, at least 4 * width
+     * @return the layout
+     */
+    public static FrameLayout packed(Format format, int width, int height, int offset, int stride) {
+        if (format == Format.YUV420) {
+            throw new IllegalArgumentException("Not a packed format: " + format);
+        }
+        return new FrameLayout(format, width, height, offset, stride, 0, 0, 0, 0, false);
+    }
+
+    /**
+     * Creates the layout of a contiguous I420 frame starting at index 0: the Y plane, then the U
+     * plane, then the V plane, with no padding.
+     *
+     * @param width the width
+     * @param height the height
+     * @return the layout
+     */
+    public static FrameLayout i420(int width, int height) {
+        int chromaWidth = chromaWidth(width);
+        int uOffset = width * height;
+        int vOffset = uOffset + chromaWidth * chromaWidth(height);
+        return yuv420(width, height, 0, width, uOffset, vOffset, chromaWidth, 1, false);
+    }
+
+    /**
+     * Creates the layout of a contiguous NV12 frame starting at index 0: the Y plane, then one plane
+     * of interleaved U and V samples, with no padding.
+     *
+     * @param width the width
+     * @param height the height
+     * @return the layout
+     */
+    public static FrameLayout nv12(int width, int height) {
+        int uvOffset = width * height;
+        return yuv420(width, height, 0, width, uvOffset, uvOffset + 1, chromaWidth(width) * 2, 2, false);
+    }
+
+    /**
+     * Creates the layout of a contiguous NV21 frame starting at index 0: the Y plane, then one plane
+     * of interleaved V and U samples, with no padding.
+     *
+     * @param width the width
+     * @param height the height
+     * @return the layout
+     */
+    public static FrameLayout nv21(int width, int height) {
+        int vuOffset = width * height;
+        return yuv420(width, height, 0, width, vuOffset + 1, vuOffset, chromaWidth(width) * 2, 2, false);
+    }
+
+    /**
+     * Creates the layout of any YUV 4:2:0 frame, planar or semi-planar. NV12 is uOffset = vOffset - 1
+     * with a chroma pixel stride of 2, YV12 a V plane before the U plane.
+     *
+     * @param width the width
+     * @param height the height
+     * @param yOffset the index of the first Y sample
+     * @param yStride the bytes from one Y row to the next
+     * @param uOffset the index of the first U sample
+     * @param vOffset the index of the first V sample
+     * @param chromaStride the bytes from one U or V row to the next
+     * @param chromaPixelStride the bytes from one U or V sample to the next in a row, 1 for planar
+     *            and 2 for interleaved chroma
+     * @param fullRange true for samples from 0 to 255 as in JPEG, false for limited range video
+     * @return the layout
+     */
+    public static FrameLayout yuv420(int width, int height, int yOffset, int yStride, int uOffset, int vOffset,
+            int chromaStride, int chromaPixelStride, boolean fullRange) {
+        return new FrameLayout(Format.YUV420, width, height, yOffset, yStride, uOffset, vOffset, chromaStride,
+                chromaPixelStride, fullRange);
+    }
+
+    /**
+     * Gets the format.
+     *
+     * @return the format
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Gets the width.
+     *
+     * @return the width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height.
+     *
+     * @return the height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the index of the first pixel, or of the first Y sample.
+     *
+     * @return the offset
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the bytes from one row, or one Y row, to the next.
+     *
+     * @return the stride
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Checks whether YUV samples use the full 0 to 255 range.
+     *
+     * @return true, if full range
+     */
+    public boolean isFullRange() {
+        return fullRange;
+    }
+
+    /**
+     * Gets the number of bytes a buffer needs for this layout, the index after the last byte read.
+     *
+     * @return the frame size
+     */
+    public long getFrameSize() {
+        if (format != Format.YUV420) {
+            return offset + (long) (height - 1) * stride + (long) width * PACKED_BYTES;
+        }
+        long chromaEnd = (long) (chromaWidth(height) - 1) * chromaStride
+                + (long) (chromaWidth(width) - 1) * chromaPixelStride + 1;
+        return Math.max(offset + (long) (height - 1) * stride + width,
+                Math.max(uOffset, vOffset) + chromaEnd);
+    }
+
+    /**
+     * Adds the ARGB values of every pixel of a frame to a histogram.
+     *
+     * @param frame the frame
+     * @param histogram the histogram
+     */
+    void count(ByteBuffer frame, int[][] histogram) {
+        checkFrame(frame);
+        if (format == Format.YUV420) {
+            countYuv(frame, histogram);
+            return;
+        }
+        ByteBuffer data = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int redShift = format == Format.RGBA ? 0 : 16, blueShift = 16 - redShift;
+        int[] alpha = histogram[0], red = histogram[1], green = histogram[2], blue = histogram[3];
+        for (int y = 0, row = offset; y < height; y++, row += stride) {
+            for (int i = row, end = row + width * PACKED_BYTES; i < end; i += PACKED_BYTES) {
+                int pixel = data.getInt(i);
+                alpha[pixel >>> 24]++;
+                red[BYTE_MASK & (pixel >> redShift)]++;
+                green[BYTE_MASK & (pixel >> GREEN_SHIFT)]++;
+                blue[BYTE_MASK & (pixel >> blueShift)]++;
+            }
+        }
+    }
+
+    /**
+     * Adds the ARGB values of every pixel of a YUV frame to a histogram. The chroma contributions are
+     * looked up once per pair of pixels sharing them.
+     *
+     * @param frame the frame
+     * @param histogram the histogram
+     */
+    private void countYuv(ByteBuffer frame, int[][] histogram) {
+        int[][] tables = fullRange ? FULL_RANGE : LIMITED_RANGE;
+        int[] luma = tables[0], vToRed = tables[1], uToGreen = tables[2], vToGreen = tables[3], uToBlue = tables[4];
+        int[] red = histogram[1], green = histogram[2], blue = histogram[3];
+        for (int y = 0; y < height; y++) {
+            int yRow = offset + y * stride;
+            int chromaRow = (y >> 1) * chromaStride;
+            int u = uOffset + chromaRow, v = vOffset + chromaRow;
+            for (int x = 0; x < width; x += 2, u += chromaPixelStride, v += chromaPixelStride) {
+                int uSample = BYTE_MASK & frame.get(u), vSample = BYTE_MASK & frame.get(v);
+                int r = vToRed[vSample], g = uToGreen[uSample] + vToGreen[vSample], b = uToBlue[uSample];
+                for (int i = yRow + x, end = yRow + Math.min(x + 2, width); i < end; i++) {
+                    int l = luma[BYTE_MASK & frame.get(i)];
+                    red[clamp(l + r)]++;
+                    green[clamp(l + g)]++;
+                    blue[clamp(l + b)]++;
+                }
+            }
+        }
+        histogram[0][BYTE_MASK] += width * height;
+    }
+
+    /**
+     * Adds the luma of every pixel of a frame to a histogram. For YUV frames only the Y plane is read,
+     * eight samples at a time; for packed frames luma is the BT.601 weighted sum of red, green and
+     * blue.
+     *
+     * @param frame the frame
+     * @param histogram the histogram, 256 counts
+     */
+    void countLuma(ByteBuffer frame, int[] histogram) {
+        checkFrame(frame);
+        if (histogram.length != COLOR_RANGE) {
+            throw new IllegalArgumentException("Expected " + COLOR_RANGE + " bins, got " + histogram.length);
+        }
+        ByteBuffer data = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (format != Format.YUV420) {
+            int redShift = format == Format.RGBA ? 0 : 16, blueShift = 16 - redShift;
+            for (int y = 0, row = offset; y < height; y++, row += stride) {
+                for (int i = row, end = row + width * PACKED_BYTES; i < end; i += PACKED_BYTES) {
+                    int pixel = data.getInt(i);
+                    histogram[(19595 * (BYTE_MASK & pixel >> redShift) + 38470 * (BYTE_MASK & pixel >> GREEN_SHIFT)
+                            + 7471 * (BYTE_MASK & pixel >> blueShift) + FIXED_HALF) >> FIXED_SHIFT]++;
+                }
+            }
+            return;
+        }
+        for (int y = 0, row = offset; y < height; y++, row += stride) {
+            int i = row, end = row + width;
+            for (; i + 8 <= end; i += 8) {
+                long samples = data.getLong(i);
+                histogram[(int) samples & BYTE_MASK]++;
+                histogram[(int) (samples >>> 8) & BYTE_MASK]++;
+                histogram[(int) (samples >>> 16) & BYTE_MASK]++;
+                histogram[(int) (samples >>> 24) & BYTE_MASK]++;
+                histogram[(int) (samples >>> 32) & BYTE_MASK]++;
+                histogram[(int) (samples >>> 40) & BYTE_MASK]++;
+                histogram[(int) (samples >>> 48) & BYTE_MASK]++;
+                histogram[(int) (samples >>> 56)]++;
+            }
+            for (; i < end; i++) { histogram[BYTE_MASK & data.get(i)]++; }
+        }
+    }
+
+    /**
+     * Checks that a buffer holds a whole frame of this layout.
+     *
+     * @param frame the frame
+     */
+    private void checkFrame(ByteBuffer frame) {
+        if (frame.limit() < getFrameSize()) {
+            throw new IllegalArgumentException("Frame of " + frame.limit() + " bytes is shorter than the "
+                    + getFrameSize() + " bytes of its layout");
+        }
+    }
+
+    /**
+     * Rounds a fixed point component and clamps it to 0 to 255, through a table rather than branches
+     * that random chroma would mispredict.
+     *
+     * @param fixed the component, in fixed point
+     * @return the component
+     */
+    private static int clamp(int fixed) {
+        return CLAMP[CLAMP_ORIGIN + ((fixed + FIXED_HALF) >> FIXED_SHIFT)];
+    }
+
+    /**
+     * Number of chroma samples along a dimension of a 4:2:0 frame.
+     *
+     * @param length the width or height
+     * @return the chroma length
+     */
+    private static int chromaWidth(int length) {
+        return (length + 1) >> 1;
+    }
+
+    /**
+     * Builds the fixed point YUV to RGB tables of a range.
+     *
+     * @param yScale the scale of Y
+     * @param yOrigin the Y of black
+     * @param vRed the V to red coefficient
+     * @param uGreen the U to green coefficient, subtracted
+     * @param vGreen the V to green coefficient, subtracted
+     * @param uBlue the U to blue coefficient
+     * @return the tables
+     */
+    private static int[][] tables(double yScale, int yOrigin, double vRed, double uGreen, double vGreen,
+            double uBlue) {
+        int[][] tables = new int[5][COLOR_RANGE];
+        for (int i = 0; i < COLOR_RANGE; i++) {
+            int chroma = i - 128;
+            tables[0][i] = (int) Math.round(yScale * (i - yOrigin) * (1 << FIXED_SHIFT));
+            tables[1][i] = (int) Math.round(vRed * chroma * (1 << FIXED_SHIFT));
+            tables[2][i] = (int) Math.round(-uGreen * chroma * (1 << FIXED_SHIFT));
+            tables[3][i] = (int) Math.round(-vGreen * chroma * (1 << FIXED_SHIFT));
+            tables[4][i] = (int) Math.round(uBlue * chroma * (1 << FIXED_SHIFT));
+        }
+        return tables;
+    }
+}
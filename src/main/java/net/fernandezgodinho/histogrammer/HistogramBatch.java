@@ -0,0 +1,517 @@
+package net.fernandezgodinho.histogrammer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * The Class HistogramBatch. Calculates the histograms of many image files with a two stage pipeline:
+ * decode threads read files into images and compute threads count them. The stages are joined by
+ * bounded queues, so decoders block when the compute stage falls behind and at most queueCapacity
+ * decoded images wait in memory. A file that fails to decode or count is reported to the listener
+ * with its error and the batch carries on.
+ *
+ * Decoding spends much of its time waiting on I/O, so the decode stage can run on many cheap threads:
+ * on Java 21 and later pass Thread.ofVirtual().factory() to setDecodeThreadFactory along with a high
+ * decode thread count.
+ *
+ * An instance runs one batch at a time; its counters describe the batch in progress or the last one.
+ *
+ * @author Joao Godinho
+ */
+public class HistogramBatch {
+    /** The Constant DEFAULT_QUEUE_CAPACITY. */
+    public final static int DEFAULT_QUEUE_CAPACITY = 16;
+
+    /** End of input marker for the path queue. */
+    private final static Path NO_MORE_PATHS = Paths.get("");
+
+    /** End of input marker for the decoded queue. */
+    private final static Result NO_MORE_IMAGES = new Result(null, null, null);
+
+    /**
+     * The Interface Listener. Receives the result of every file, on the compute threads, so
+     * implementations must be thread safe.
+     */
+    public interface Listener {
+        /**
+         * Called once per file with its histogram or the error that prevented it.
+         *
+         * @param result the result
+         */
+        void onResult(Result result);
+    }
+
+    /**
+     * The Class Result. The histogram of a file, or the error that prevented it.
+     */
+    public static class Result {
+        /** The path. */
+        private final Path path;
+
+        /** The histogram, null on failure. */
+        private final Histogrammer histogram;
+
+        /** The error, null on success. */
+        private final Throwable error;
+
+        /** The decoded image, handed from the decode stage to the compute stage. */
+        private BufferedImage image;
+
+        /**
+         * Instantiates a new result.
+         *
+         * @param path the path
+         * @param histogram the histogram
+         * @param error the error
+         */
+        Result(Path path, Histogrammer histogram, Throwable error) {
+            this.path = path;
+            this.histogram = histogram;
+            this.error = error;
+        }
+
+        /**
+         * Gets the path.
+         *
+         * @return the path
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * Gets the histogram.
+         *
+         * @return the histogram, null if the file failed
+         */
+        public Histogrammer getHistogram() {
+            return histogram;
+        }
+
+        /**
+         * Gets the error.
+         *
+         * @return the error, null if the file succeeded
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * Checks if the file succeeded.
+         *
+         * @return true, if there is a histogram
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /** The decode threads. */
+    private int decodeThreads = 2;
+
+    /** The compute threads. */
+    private int computeThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The queue capacity, for both the path and the decoded image queues. */
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    /** The decode thread factory. */
+    private ThreadFactory decodeThreadFactory = Executors.defaultThreadFactory();
+
+    /** The compute thread factory. */
+    private ThreadFactory computeThreadFactory = Executors.defaultThreadFactory();
+
+    /** The files histogrammed successfully. */
+    private final AtomicLong succeeded = new AtomicLong();
+
+    /** The files that failed. */
+    private final AtomicLong failed = new AtomicLong();
+
+    /** The time spent decoding, summed over decode threads. */
+    private final AtomicLong decodeNanos = new AtomicLong();
+
+    /** The time spent counting, summed over compute threads. */
+    private final AtomicLong computeNanos = new AtomicLong();
+
+    /** The start of the batch. */
+    private volatile long startNanos;
+
+    /** The end of the batch, 0 while it runs. */
+    private volatile long endNanos;
+
+    /**
+     * Processes every regular file of a directory, not recursing into sub-directories. The directory
+     * is listed lazily as the decode stage has room for more files.
+     *
+     * @param directory the directory
+     * @param listener the listener
+     * @throws IOException Signals that the directory could not be listed.
+     * @throws InterruptedException if interrupted while waiting for the batch
+     */
+    public void processDirectory(Path directory, Listener listener) throws IOException, InterruptedException {
+        DirectoryStream.Filter<Path> regularFiles = new DirectoryStream.Filter<Path>() {
+            @Override
+            public boolean accept(Path entry) {
+                return Files.isRegularFile(entry);
+            }
+        };
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, regularFiles)) {
+            process(entries, listener);
+        }
+    }
+
+    /**
+     * Processes every regular file of a directory as processDirectory(Path, Listener) does, handing
+     * each result to a consumer.
+     *
+     * @param directory the directory
+     * @param consumer the consumer, called on the compute threads
+     * @throws IOException Signals that the directory could not be listed.
+     * @throws InterruptedException if interrupted while waiting for the batch
+     */
+    public void processDirectory(Path directory, Consumer<Result> consumer) throws IOException, InterruptedException {
+        processDirectory(directory, listener(consumer));
+    }
+
+    /**
+     * Processes the files of a stream as process(Iterable, Listener) does, handing each result to a
+     * consumer. The stream is consumed lazily and is not closed.
+     *
+     * @param paths the paths
+     * @param consumer the consumer, called on the compute threads
+     * @throws InterruptedException if interrupted while waiting for the batch
+     */
+    public void process(final Stream<Path> paths, Consumer<Result> consumer) throws InterruptedException {
+        process(new Iterable<Path>() {
+            @Override
+            public Iterator<Path> iterator() {
+                return paths.iterator();
+            }
+        }, listener(consumer));
+    }
+
+    /**
+     * Adapts a consumer to a listener.
+     *
+     * @param consumer the consumer
+     * @return the listener
+     */
+    private static Listener listener(final Consumer<Result> consumer) {
+        return new Listener() {
+            @Override
+            public void onResult(Result result) {
+                consumer.accept(result);
+            }
+        };
+    }
+
+    /**
+     * Processes the given files and returns once every one of them has been reported to the listener.
+     * Paths are taken from the iterable as the decode stage has room for them, so it may be lazy. If
+     * the iterable throws, or the calling thread is interrupted, the batch threads are interrupted and
+     * joined before the exception is rethrown, so the listener is never called after this returns.
+     * RuntimeExceptions thrown by the listener are rethrown once every file has been reported; an Error
+     * thrown while counting or by the listener stops the batch the same way and is rethrown at once.
+     *
+     * @param paths the paths
+     * @param listener the listener
+     * @throws InterruptedException if interrupted while waiting for the batch
+     */
+    public void process(Iterable<Path> paths, final Listener listener) throws InterruptedException {
+        final BlockingQueue<Path> pathQueue = new ArrayBlockingQueue<Path>(queueCapacity);
+        final BlockingQueue<Result> imageQueue = new ArrayBlockingQueue<Result>(queueCapacity);
+        final CountDownLatch decoded = new CountDownLatch(decodeThreads);
+        final CountDownLatch computed = new CountDownLatch(computeThreads);
+        final AtomicReference<Throwable> listenerError = new AtomicReference<Throwable>();
+        final Thread caller = Thread.currentThread();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        succeeded.set(0);
+        failed.set(0);
+        decodeNanos.set(0);
+        computeNanos.set(0);
+        endNanos = 0;
+        startNanos = System.nanoTime();
+
+        for (int i = 0; i < decodeThreads; i++) {
+            threads.add(decodeThreadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (Path path = pathQueue.take(); path != NO_MORE_PATHS; path = pathQueue.take()) {
+                            imageQueue.put(decode(path));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        decoded.countDown();
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < computeThreads; i++) {
+            threads.add(computeThreadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (Result item = imageQueue.take(); item != NO_MORE_IMAGES; item = imageQueue.take()) {
+                            Result result = compute(item);
+                            try {
+                                listener.onResult(result);
+                            } catch (RuntimeException e) {
+                                listenerError.compareAndSet(null, e);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Throwable e) {
+                        // no thread may be left to drain the images, so wake the caller to stop the batch
+                        listenerError.set(e);
+                        caller.interrupt();
+                    } finally {
+                        computed.countDown();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) { thread.start(); }
+
+        try {
+            for (Path path : paths) { pathQueue.put(path); }
+            for (int i = 0; i < decodeThreads; i++) { pathQueue.put(NO_MORE_PATHS); }
+            decoded.await();
+            for (int i = 0; i < computeThreads; i++) { imageQueue.put(NO_MORE_IMAGES); }
+            computed.await();
+        } catch (Throwable e) {
+            stop(threads);
+            if (e instanceof InterruptedException && listenerError.get() instanceof Error) {
+                throw (Error) listenerError.get();
+            }
+            throw e;
+        } finally {
+            endNanos = System.nanoTime();
+        }
+        Throwable error = listenerError.get();
+        if (error instanceof Error) {
+            // the interrupt raced the end of the batch
+            Thread.interrupted();
+            throw (Error) error;
+        }
+        if (error != null) {
+            throw (RuntimeException) error;
+        }
+    }
+
+    /**
+     * Interrupts the batch threads and waits for all of them to end, keeping the interrupt status of
+     * the calling thread.
+     *
+     * @param threads the threads
+     */
+    private static void stop(List<Thread> threads) {
+        boolean interrupted = Thread.interrupted();
+        for (Thread thread : threads) { thread.interrupt(); }
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) { Thread.currentThread().interrupt(); }
+    }
+
+    /**
+     * Decodes a file. Errors are caught and returned as a failed result.
+     *
+     * @param path the path
+     * @return the decoded image, or the failure
+     */
+    private Result decode(Path path) {
+        long start = System.nanoTime();
+        try {
+            BufferedImage image = HistogramEvent.read(path);
+            Result result = new Result(path, null, null);
+            result.image = image;
+            return result;
+        } catch (Exception | OutOfMemoryError e) {
+            return new Result(path, null, e);
+        } finally {
+            decodeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Calculates the histogram of a decoded image, passing failed decodes through.
+     *
+     * @param item the decoded image
+     * @return the result
+     */
+    private Result compute(Result item) {
+        if (item.image == null) {
+            failed.incrementAndGet();
+            return item;
+        }
+        long start = System.nanoTime();
+        try {
+            Histogrammer histogram = new Histogrammer(item.image);
+            histogram.calcHistogram();
+            succeeded.incrementAndGet();
+            return new Result(item.path, histogram, null);
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            return new Result(item.path, null, e);
+        } finally {
+            computeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Gets the number of files histogrammed successfully in the current or last batch.
+     *
+     * @return the succeeded count
+     */
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    /**
+     * Gets the number of files that failed in the current or last batch.
+     *
+     * @return the failed count
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Gets the throughput of the current or last batch, counting failed files.
+     *
+     * @return the images per second
+     */
+    public double getImagesPerSecond() {
+        long end = endNanos == 0 ? System.nanoTime() : endNanos;
+        if (end == startNanos) { return 0; }
+        return (succeeded.get() + failed.get()) * 1e9 / (end - startNanos);
+    }
+
+    /**
+     * Gets the time spent decoding, summed over all decode threads. Compared with getComputeNanos it
+     * shows which stage needs more threads.
+     *
+     * @return the decode nanos
+     */
+    public long getDecodeNanos() {
+        return decodeNanos.get();
+    }
+
+    /**
+     * Gets the time spent counting, summed over all compute threads.
+     *
+     * @return the compute nanos
+     */
+    public long getComputeNanos() {
+        return computeNanos.get();
+    }
+
+    /**
+     * Gets the decode threads.
+     *
+     * @return the decode threads
+     */
+    public int getDecodeThreads() {
+        return decodeThreads;
+    }
+
+    /**
+     * Sets the number of decode threads. Defaults to 2.
+     *
+     * @param decodeThreads the decode threads
+     */
+    public void setDecodeThreads(int decodeThreads) {
+        if (decodeThreads < 1) {
+            throw new IllegalArgumentException("Decode threads must be at least 1: " + decodeThreads);
+        }
+        this.decodeThreads = decodeThreads;
+    }
+
+    /**
+     * Gets the compute threads.
+     *
+     * @return the compute threads
+     */
+    public int getComputeThreads() {
+        return computeThreads;
+    }
+
+    /**
+     * Sets the number of compute threads. Defaults to the number of processors.
+     *
+     * @param computeThreads the compute threads
+     */
+    public void setComputeThreads(int computeThreads) {
+        if (computeThreads < 1) {
+            throw new IllegalArgumentException("Compute threads must be at least 1: " + computeThreads);
+        }
+        this.computeThreads = computeThreads;
+    }
+
+    /**
+     * Gets the queue capacity.
+     *
+     * @return the queue capacity
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the capacity of the queues in front of each stage, which bounds the decoded images waiting
+     * to be counted. Defaults to DEFAULT_QUEUE_CAPACITY.
+     *
+     * @param queueCapacity the queue capacity
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets the thread factory of the decode stage.
+     *
+     * @param decodeThreadFactory the decode thread factory
+     */
+    public void setDecodeThreadFactory(ThreadFactory decodeThreadFactory) {
+        this.decodeThreadFactory = decodeThreadFactory;
+    }
+
+    /**
+     * Sets the thread factory of the compute stage.
+     *
+     * @param computeThreadFactory the compute thread factory
+     */
+    public void setComputeThreadFactory(ThreadFactory computeThreadFactory) {
+        this.computeThreadFactory = computeThreadFactory;
+    }
+}
@@ -0,0 +1,425 @@
+package net.fernandezgodinho.histogrammer;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Class HistogramCache. Caches the histograms of image files so repeated requests for the same
+ * file skip ImageIO.read and calcHistogram(). Entries live in a bounded in-memory tier, evicting the
+ * least recently used, in front of an unbounded directory of entry files that survives restarts and
+ * is shared by every cache opened on it.
+ *
+ * A file is identified by its absolute path, size and modification time, so rewriting it misses. With
+ * content hashing on it is identified by a SHA-256 of its bytes and its size instead: copies and
+ * renames of a file then share one entry, at the cost of reading the file on every lookup, which is
+ * still far cheaper than decoding it. Two different files would only share an entry if they had the
+ * same size and SHA-256, which is not known to have happened by accident and would take about 2^128
+ * attempts to bring about on purpose; a cache directory writable by untrusted users is a larger risk
+ * than that, since its entries can simply be rewritten.
+ *
+ * Lookups are safe from any number of threads. Concurrent lookups of the same missing file decode it
+ * once, the others waiting for its result. Histograms are returned as copies, free to modify.
+ *
+ * @author Joao Godinho
+ */
+public class HistogramCache {
+    /** The Constant DEFAULT_MAX_ENTRIES. */
+    public final static int DEFAULT_MAX_ENTRIES = 1024;
+
+    /** The Constant ENTRY_MAGIC. Marks entry files, "HCE1". */
+    private final static int ENTRY_MAGIC = 0x48434531;
+
+    /** The Constant ENTRY_SUFFIX. */
+    private final static String ENTRY_SUFFIX = ".hce";
+
+    /** The Constant HASH_BUFFER_SIZE. */
+    private final static int HASH_BUFFER_SIZE = 1 << 16;
+
+    /** The directory of entry files. */
+    private final Path directory;
+
+    /** The maximum number of entries in memory. */
+    private final int maxEntries;
+
+    /** The in-memory entries by key, in access order. Guarded by itself. */
+    private final LinkedHashMap<String, MergeableHistogram> memory;
+
+    /** The loads in progress by key. */
+    private final ConcurrentMap<String, FutureTask<MergeableHistogram>> loading =
+            new ConcurrentHashMap<String, FutureTask<MergeableHistogram>>();
+
+    /** Whether files are identified by a hash of their content. */
+    private volatile boolean contentHash;
+
+    /** The memory hits. */
+    private final AtomicLong memoryHits = new AtomicLong();
+
+    /** The disk hits. */
+    private final AtomicLong diskHits = new AtomicLong();
+
+    /** The misses. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** The evictions. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Instantiates a new histogram cache keeping DEFAULT_MAX_ENTRIES entries in memory.
+     *
+     * @param directory the directory of entry files, created if missing
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public HistogramCache(Path directory) throws IOException {
+        this(directory, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Instantiates a new histogram cache.
+     *
+     * @param directory the directory of entry files, created if missing
+     * @param maxEntries the maximum number of entries in memory, about 8 KB each
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public HistogramCache(Path directory, final int maxEntries) throws IOException {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Max entries must be positive: " + maxEntries);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxEntries = maxEntries;
+        this.memory = new LinkedHashMap<String, MergeableHistogram>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MergeableHistogram> eldest) {
+                if (size() <= maxEntries) { return false; }
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Gets the histogram of an image file, from memory, from disk or by decoding the file and counting
+     * it, in that order. Histograms decoded are written to both tiers, those read from disk to memory.
+     *
+     * @param file the image file
+     * @return a copy of the histogram
+     * @throws IOException if the file cannot be read or is not an image ImageIO can decode
+     */
+    public MergeableHistogram get(final Path file) throws IOException {
+        final String key = key(file);
+        MergeableHistogram histogram = fromMemory(key);
+        if (histogram != null) {
+            memoryHits.incrementAndGet();
+            return copy(histogram);
+        }
+        FutureTask<MergeableHistogram> task = new FutureTask<MergeableHistogram>(new Callable<MergeableHistogram>() {
+            @Override
+            public MergeableHistogram call() throws IOException {
+                return load(key, file);
+            }
+        });
+        FutureTask<MergeableHistogram> running = loading.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+        } else {
+            memoryHits.incrementAndGet();
+        }
+        try {
+            return copy(running.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for " + file, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) { throw new IOException(cause.getMessage(), cause); }
+            if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+            if (cause instanceof Error) { throw (Error) cause; }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Loads an entry missing from memory, from disk or from the image file.
+     *
+     * @param key the key
+     * @param file the image file
+     * @return the histogram
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private MergeableHistogram load(String key, Path file) throws IOException {
+        // another thread may have finished loading it since the memory lookup
+        MergeableHistogram histogram = fromMemory(key);
+        if (histogram != null) {
+            memoryHits.incrementAndGet();
+            return histogram;
+        }
+        Path entry = entryFile(key);
+        histogram = readEntry(entry, key);
+        if (histogram != null) {
+            diskHits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            BufferedImage image = HistogramEvent.read(file);
+            Histogrammer histogrammer = new Histogrammer(image);
+            histogrammer.calcHistogram();
+            histogram = new MergeableHistogram(histogrammer);
+            writeEntry(entry, key, histogram);
+        }
+        synchronized (memory) {
+            memory.put(key, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Gets an entry from memory, marking it as the most recently used.
+     *
+     * @param key the key
+     * @return the histogram, null if not in memory
+     */
+    private MergeableHistogram fromMemory(String key) {
+        synchronized (memory) {
+            return memory.get(key);
+        }
+    }
+
+    /**
+     * Builds the key of a file from its path, size and modification time, or from its size and the
+     * hash of its content.
+     *
+     * @param file the file
+     * @return the key
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private String key(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (contentHash) {
+            return "sha256:" + sha256(file) + ":" + attributes.size();
+        }
+        return "path:" + file.toAbsolutePath().normalize() + ":" + attributes.size() + ":"
+                + attributes.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * Computes the SHA-256 of the content of a file.
+     *
+     * @param file the file
+     * @return the SHA-256 in lower case hexadecimal
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to implement SHA-256
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Gets the entry file of a key, named after a 64 bit FNV-1a hash of it. The key is stored in the
+     * file too, so two keys with the same hash are told apart.
+     *
+     * @param key the key
+     * @return the entry file
+     */
+    private Path entryFile(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return directory.resolve(String.format("%016x", hash) + ENTRY_SUFFIX);
+    }
+
+    /**
+     * Reads an entry file.
+     *
+     * @param entry the entry file
+     * @param key the key expected in it
+     * @return the histogram, null if the file is missing, holds another key or is damaged
+     */
+    private static MergeableHistogram readEntry(Path entry, String key) {
+        try (InputStream in = Files.newInputStream(entry); DataInputStream data = new DataInputStream(in)) {
+            if (data.readInt() != ENTRY_MAGIC || !key.equals(data.readUTF())) { return null; }
+            int length = data.readInt();
+            // a damaged length must not allocate more than the file could hold
+            if (length < 0 || length > Files.size(entry)) { return null; }
+            byte[] bytes = new byte[length];
+            data.readFully(bytes);
+            return MergeableHistogram.fromBytes(bytes);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            // a damaged entry is decoded again and overwritten
+            return null;
+        }
+    }
+
+    /**
+     * Writes an entry file, to a temporary file first that is then moved over it, so readers never see
+     * a partial entry.
+     *
+     * @param entry the entry file
+     * @param key the key
+     * @param histogram the histogram
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void writeEntry(Path entry, String key, MergeableHistogram histogram) throws IOException {
+        byte[] bytes = histogram.toBytes();
+        Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary); DataOutputStream data = new DataOutputStream(out)) {
+                data.writeInt(ENTRY_MAGIC);
+                data.writeUTF(key);
+                data.writeInt(bytes.length);
+                data.write(bytes);
+            }
+            try {
+                Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Copies a histogram.
+     *
+     * @param histogram the histogram
+     * @return the copy
+     */
+    private static MergeableHistogram copy(MergeableHistogram histogram) {
+        return new MergeableHistogram().merge(histogram);
+    }
+
+    /**
+     * Removes every entry from memory. Entry files are kept.
+     */
+    public void clearMemory() {
+        synchronized (memory) {
+            memory.clear();
+        }
+    }
+
+    /**
+     * Checks whether files are identified by a hash of their content.
+     *
+     * @return true, if content hashing is on
+     */
+    public boolean isContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Sets whether files are identified by a SHA-256 of their content and their size rather than by
+     * their path, size and modification time. Entries made under the other setting are not found.
+     *
+     * @param contentHash true to hash the content
+     */
+    public void setContentHash(boolean contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Gets the maximum number of entries in memory.
+     *
+     * @return the max entries
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Gets the number of entries in memory.
+     *
+     * @return the memory size
+     */
+    public int getMemorySize() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    /**
+     * Gets the number of lookups served from memory, including those that waited for another thread
+     * loading the same file.
+     *
+     * @return the memory hits
+     */
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    /**
+     * Gets the number of lookups served from an entry file.
+     *
+     * @return the disk hits
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * Gets the number of lookups that decoded the image file.
+     *
+     * @return the misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of entries evicted from memory to make room for others.
+     *
+     * @return the evictions
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
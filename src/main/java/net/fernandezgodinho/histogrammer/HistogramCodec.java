@@ -0,0 +1,425 @@
+package net.fernandezgodinho.histogrammer;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The Class HistogramCodec. Versioned binary format for histograms such as Histogrammer.getHistogram().
+ *
+ * An encoded histogram is a 7 byte header followed by the counters, channel after channel:
+ *
+ * <pre>
+ * offset  size  field
+ *      0     2  magic, 'H' 'G'
+ *      2     1  format version, VERSION
+ *      3     1  encoding, Encoding.ordinal(), with LONG_COUNTERS set for long counters
+ *      4     1  channels
+ *      5     2  bins per channel, unsigned little endian
+ *      7        counters
+ * </pre>
+ *
+ * RAW counters are 4 byte little endian ints, 8 byte longs with LONG_COUNTERS, so every histogram of
+ * a given shape has the same size and the record of a 4x256 int histogram is RECORD_SIZE bytes. VARINT
+ * writes each counter as an unsigned LEB128 varint, which suits the many small and empty bins of most
+ * images. DELTA_VARINT writes the zig-zag varint of the difference to the previous bin of the channel,
+ * which suits smooth histograms. Int histograms can be decoded as long ones but not the other way.
+ *
+ * @author Joao Godinho
+ */
+public final class HistogramCodec {
+    /** The Constant VERSION. Current format version. */
+    public final static int VERSION = 1;
+
+    /** The Constant HEADER_SIZE. */
+    public final static int HEADER_SIZE = 7;
+
+    /** The Constant RECORD_SIZE. Size of the RAW counters of an ARGB histogram. */
+    public final static int RECORD_SIZE = 4 * Histogrammer.COLOR_RANGE * 4;
+
+    /** The Constant LONG_COUNTERS. Encoding flag of histograms with long counters. */
+    public final static int LONG_COUNTERS = 0x80;
+
+    /** The Constant MAGIC. 'H' 'G'. */
+    private final static short MAGIC = 0x4748;
+
+    /** The Constant VARINT_MASK. Payload bits of a varint byte. */
+    private final static int VARINT_MASK = 0x7F;
+
+    /** The Constant VARINT_MORE. Continuation bit of a varint byte. */
+    private final static int VARINT_MORE = 0x80;
+
+    /**
+     * The Enum Encoding. How counters are written.
+     */
+    public enum Encoding {
+        /** Fixed width little endian ints. */
+        RAW,
+        /** Unsigned LEB128 varints. */
+        VARINT,
+        /** Zig-zag LEB128 varints of the difference to the previous bin. */
+        DELTA_VARINT
+    }
+
+    /**
+     * Instantiates a new histogram codec.
+     */
+    private HistogramCodec() {
+    }
+
+    /**
+     * Encodes a histogram into a new array.
+     *
+     * @param histogram the histogram, channels of equal length
+     * @param encoding the encoding
+     * @return the encoded histogram
+     */
+    public static byte[] encode(int[][] histogram, Encoding encoding) {
+        ByteBuffer buffer = ByteBuffer.allocate(maxEncodedSize(histogram.length, histogram[0].length));
+        encode(histogram, encoding, buffer);
+        byte[] encoded = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(encoded);
+        return encoded;
+    }
+
+    /**
+     * Encodes a histogram at the position of a buffer, advancing it.
+     *
+     * @param histogram the histogram, channels of equal length
+     * @param encoding the encoding
+     * @param buffer the buffer, with at least maxEncodedSize bytes remaining
+     */
+    public static void encode(int[][] histogram, Encoding encoding, ByteBuffer buffer) {
+        int bins = histogram[0].length;
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        putHeader(buffer, encoding.ordinal(), histogram.length, bins);
+        for (int[] channel : histogram) {
+            checkLength(channel.length, bins);
+            switch (encoding) {
+            case RAW:
+                writeRecord(channel, buffer);
+                break;
+            case VARINT:
+                for (int count : channel) { putVarint(buffer, count); }
+                break;
+            case DELTA_VARINT:
+                for (int i = 0, previous = 0; i < bins; previous = channel[i++]) {
+                    int delta = channel[i] - previous;
+                    putVarint(buffer, (delta << 1) ^ (delta >> 31));
+                }
+                break;
+            }
+        }
+        buffer.order(order);
+    }
+
+    /**
+     * Encodes a histogram with long counters into a new array.
+     *
+     * @param histogram the histogram, channels of equal length
+     * @param encoding the encoding
+     * @return the encoded histogram
+     */
+    public static byte[] encode(long[][] histogram, Encoding encoding) {
+        ByteBuffer buffer = ByteBuffer.allocate(maxEncodedSize(histogram.length, histogram[0].length) * 2);
+        encode(histogram, encoding, buffer);
+        byte[] encoded = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(encoded);
+        return encoded;
+    }
+
+    /**
+     * Encodes a histogram with long counters at the position of a buffer, advancing it.
+     *
+     * @param histogram the histogram, channels of equal length
+     * @param encoding the encoding
+     * @param buffer the buffer, with at least twice maxEncodedSize bytes remaining
+     */
+    public static void encode(long[][] histogram, Encoding encoding, ByteBuffer buffer) {
+        int bins = histogram[0].length;
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        putHeader(buffer, encoding.ordinal() | LONG_COUNTERS, histogram.length, bins);
+        for (long[] channel : histogram) {
+            checkLength(channel.length, bins);
+            switch (encoding) {
+            case RAW:
+                for (long count : channel) { buffer.putLong(count); }
+                break;
+            case VARINT:
+                for (long count : channel) { putVarlong(buffer, count); }
+                break;
+            case DELTA_VARINT:
+                long previous = 0;
+                for (long count : channel) {
+                    long delta = count - previous;
+                    putVarlong(buffer, (delta << 1) ^ (delta >> 63));
+                    previous = count;
+                }
+                break;
+            }
+        }
+        buffer.order(order);
+    }
+
+    /**
+     * Decodes a histogram from an array.
+     *
+     * @param encoded the encoded histogram
+     * @return the histogram
+     */
+    public static int[][] decode(byte[] encoded) {
+        return decode(ByteBuffer.wrap(encoded));
+    }
+
+    /**
+     * Decodes a histogram at the position of a buffer, advancing it past the histogram.
+     *
+     * @param buffer the buffer
+     * @return the histogram
+     */
+    public static int[][] decode(ByteBuffer buffer) {
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        getEncoding(header);
+        int[][] histogram = new int[0xFF & header.get()][0xFFFF & header.getShort()];
+        decode(buffer, histogram);
+        return histogram;
+    }
+
+    /**
+     * Decodes a histogram with int or long counters at the position of a buffer as long counters,
+     * advancing it past the histogram.
+     *
+     * @param buffer the buffer
+     * @return the histogram
+     */
+    public static long[][] decodeLong(ByteBuffer buffer) {
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        getEncoding(header);
+        long[][] histogram = new long[0xFF & header.get()][0xFFFF & header.getShort()];
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            int encoding = getEncoding(buffer);
+            buffer.position(buffer.position() + 3);
+            boolean wide = (encoding & LONG_COUNTERS) != 0;
+            for (long[] channel : histogram) {
+                switch (Encoding.values()[encoding & ~LONG_COUNTERS]) {
+                case RAW:
+                    for (int i = 0; i < channel.length; i++) { channel[i] = wide ? buffer.getLong() : buffer.getInt(); }
+                    break;
+                case VARINT:
+                    for (int i = 0; i < channel.length; i++) {
+                        channel[i] = wide ? getVarlong(buffer) : 0xFFFFFFFFL & getVarint(buffer);
+                    }
+                    break;
+                case DELTA_VARINT:
+                    long previous = 0;
+                    for (int i = 0; i < channel.length; i++) {
+                        long zigzag = wide ? getVarlong(buffer) : 0xFFFFFFFFL & getVarint(buffer);
+                        long delta = (zigzag >>> 1) ^ -(zigzag & 1);
+                        // int deltas wrap around like the int counters they were taken from
+                        channel[i] = previous = wide ? previous + delta : (int) (previous + delta);
+                    }
+                    break;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated histogram", e);
+        } finally {
+            buffer.order(order);
+        }
+        return histogram;
+    }
+
+    /**
+     * Decodes a histogram at the position of a buffer into an existing array of the same shape, without
+     * allocating, advancing the buffer past the histogram.
+     *
+     * @param buffer the buffer
+     * @param histogram the histogram to overwrite
+     */
+    public static void decode(ByteBuffer buffer, int[][] histogram) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            int flags = getEncoding(buffer);
+            if ((flags & LONG_COUNTERS) != 0) {
+                throw new IllegalArgumentException("Histogram has long counters, use decodeLong");
+            }
+            Encoding encoding = Encoding.values()[flags];
+            int channels = 0xFF & buffer.get();
+            int bins = 0xFFFF & buffer.getShort();
+            if (channels != histogram.length || bins != histogram[0].length) {
+                throw new IllegalArgumentException("Encoded histogram is " + channels + "x" + bins + ", expected "
+                        + histogram.length + "x" + histogram[0].length);
+            }
+            for (int[] channel : histogram) {
+                switch (encoding) {
+                case RAW:
+                    readRecord(buffer, channel);
+                    break;
+                case VARINT:
+                    for (int i = 0; i < bins; i++) { channel[i] = getVarint(buffer); }
+                    break;
+                case DELTA_VARINT:
+                    for (int i = 0, previous = 0; i < bins; previous = channel[i++]) {
+                        int zigzag = getVarint(buffer);
+                        channel[i] = previous + ((zigzag >>> 1) ^ -(zigzag & 1));
+                    }
+                    break;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated histogram", e);
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    /**
+     * Largest encoded size of a histogram of the given shape, over all encodings.
+     *
+     * @param channels the channels
+     * @param bins the bins per channel
+     * @return the size in bytes
+     */
+    public static int maxEncodedSize(int channels, int bins) {
+        return HEADER_SIZE + channels * bins * 5;
+    }
+
+    /**
+     * Writes counters as fixed width little endian ints, the record format of HistogramStore.
+     *
+     * @param counters the counters
+     * @param buffer the buffer, little endian
+     */
+    static void writeRecord(int[] counters, ByteBuffer buffer) {
+        for (int count : counters) { buffer.putInt(count); }
+    }
+
+    /**
+     * Reads counters written by writeRecord.
+     *
+     * @param buffer the buffer, little endian
+     * @param counters the counters to overwrite
+     */
+    static void readRecord(ByteBuffer buffer, int[] counters) {
+        for (int i = 0; i < counters.length; i++) { counters[i] = buffer.getInt(); }
+    }
+
+    /**
+     * Writes the header.
+     *
+     * @param buffer the buffer, little endian
+     * @param encoding the encoding and flags
+     * @param channels the channels
+     * @param bins the bins per channel
+     */
+    private static void putHeader(ByteBuffer buffer, int encoding, int channels, int bins) {
+        if (channels > 0xFF || bins > 0xFFFF) {
+            throw new IllegalArgumentException("Histogram of " + channels + "x" + bins + " is too large to encode");
+        }
+        buffer.putShort(MAGIC);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) encoding);
+        buffer.put((byte) channels);
+        buffer.putShort((short) bins);
+    }
+
+    /**
+     * Checks that every channel has the same length.
+     *
+     * @param length the channel length
+     * @param bins the length of the first channel
+     */
+    private static void checkLength(int length, int bins) {
+        if (length != bins) {
+            throw new IllegalArgumentException("Channels of different lengths: " + length + ", " + bins);
+        }
+    }
+
+    /**
+     * Checks the magic and version and reads the encoding and flags, leaving the buffer on the channels.
+     *
+     * @param buffer the buffer, little endian
+     * @return the encoding ordinal, with LONG_COUNTERS if set
+     */
+    private static int getEncoding(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getShort() != MAGIC) {
+            throw new IllegalArgumentException("Not an encoded histogram");
+        }
+        int version = 0xFF & buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported histogram format version " + version);
+        }
+        int encoding = 0xFF & buffer.get();
+        if ((encoding & ~LONG_COUNTERS) >= Encoding.values().length) {
+            throw new IllegalArgumentException("Unknown histogram encoding " + encoding);
+        }
+        return encoding;
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint.
+     *
+     * @param buffer the buffer
+     * @param value the value, taken as unsigned
+     */
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~VARINT_MASK) != 0) {
+            buffer.put((byte) ((value & VARINT_MASK) | VARINT_MORE));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     *
+     * @param buffer the buffer
+     * @return the value
+     */
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & VARINT_MASK) << shift;
+            if ((b & VARINT_MORE) == 0) { return value; }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint of up to 64 bits.
+     *
+     * @param buffer the buffer
+     * @param value the value, taken as unsigned
+     */
+    private static void putVarlong(ByteBuffer buffer, long value) {
+        while ((value & ~VARINT_MASK) != 0) {
+            buffer.put((byte) ((value & VARINT_MASK) | VARINT_MORE));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint of up to 64 bits.
+     *
+     * @param buffer the buffer
+     * @return the value
+     */
+    private static long getVarlong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & VARINT_MASK) << shift;
+            if ((b & VARINT_MORE) == 0) { return value; }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
@@ -0,0 +1,121 @@
+package net.fernandezgodinho.histogrammer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import net.fernandezgodinho.histogrammer.HistogramMetrics.Phase;
+
+/**
+ * The Class HistogramEvent. JDK Flight Recorder event of one phase of a histogram job, which also
+ * feeds HistogramMetrics. Without a recording that enables it and with metrics off, start() returns
+ * a shared event that finish() ignores, so instrumented calls allocate nothing and cost two flag
+ * checks.
+ *
+ * @author Joao Godinho
+ */
+@Name(HistogramEvent.NAME)
+@Label("Histogram Phase")
+@Description("Decoding, counting, percentages or rendering of an image histogram")
+@Category("Histogrammer")
+@StackTrace(false)
+final class HistogramEvent extends Event {
+    /** The Constant NAME. */
+    static final String NAME = "net.fernandezgodinho.histogrammer.Histogram";
+
+    /** The phase. */
+    @Label("Phase")
+    String phase;
+
+    /** The image type, a BufferedImage TYPE_ constant, TYPE_CUSTOM for raw frames. */
+    @Label("Image Type")
+    int imageType;
+
+    /** The width. */
+    @Label("Width")
+    int width;
+
+    /** The height. */
+    @Label("Height")
+    int height;
+
+    /** The pixels. */
+    @Label("Pixels")
+    long pixels;
+
+    /** The counting kernel, or the format of raw frames. */
+    @Label("Kernel")
+    String kernel;
+
+    /** The Constant DISABLED. Returned by start() when neither JFR nor metrics want the phase. */
+    private static final HistogramEvent DISABLED = new HistogramEvent();
+
+    /** The start time for HistogramMetrics. */
+    private transient long metricsStart;
+
+    /**
+     * Starts timing a phase.
+     *
+     * @return the event
+     */
+    static HistogramEvent start() {
+        if (!DISABLED.isEnabled() && !HistogramMetrics.isEnabled()) { return DISABLED; }
+        HistogramEvent event = new HistogramEvent();
+        event.begin();
+        event.metricsStart = HistogramMetrics.start();
+        return event;
+    }
+
+    /**
+     * Ends a phase, recording it in HistogramMetrics and committing the event if a recording wants it.
+     *
+     * @param phase the phase
+     * @param imageType the image type
+     * @param width the width
+     * @param height the height
+     * @param pixels the pixels processed
+     * @param kernel the kernel, may be null
+     */
+    void finish(Phase phase, int imageType, int width, int height, long pixels, String kernel) {
+        if (this == DISABLED) { return; }
+        end();
+        HistogramMetrics.record(phase, metricsStart, pixels);
+        if (shouldCommit()) {
+            this.phase = phase.name();
+            this.imageType = imageType;
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+            this.kernel = kernel;
+            commit();
+        }
+    }
+
+    /**
+     * Decodes an image file with ImageIO as a DECODE phase. Failed decodes are not recorded.
+     *
+     * @param path the path
+     * @return the image
+     * @throws IOException if the file cannot be read or no ImageReader can decode it
+     */
+    static BufferedImage read(Path path) throws IOException {
+        HistogramEvent event = start();
+        BufferedImage image = ImageIO.read(path.toFile());
+        if (image == null) {
+            throw new IIOException("No ImageReader for " + path);
+        }
+        event.finish(Phase.DECODE, image.getType(), image.getWidth(), image.getHeight(),
+                (long) image.getWidth() * image.getHeight(), null);
+        return image;
+    }
+}
@@ -0,0 +1,703 @@
+package net.fernandezgodinho.histogrammer;
+
+import static net.fernandezgodinho.histogrammer.Histogrammer.COLOR_RANGE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The Class HistogramIndex. In-process similarity index over image histograms, for finding near
+ * duplicate images by top-k and radius queries.
+ *
+ * Each histogram is reduced to a vector of its red, green and blue channels quantised to a power of
+ * two number of bins, value * bins / 256, each channel normalised to sum 1, and stored as floats in a
+ * single array. Distances are averaged over the three channels:
+ *
+ * <pre>
+ * metric          per channel                    range
+ * L1              sum |a - b|                    0 to 2
+ * CHI_SQUARE      sum (a - b)^2 / (a + b)        0 to 2
+ * INTERSECTION    1 - sum min(a, b)              0 to 1
+ * BHATTACHARYYA   sqrt(1 - sum sqrt(a * b))      0 to 1
+ * </pre>
+ *
+ * Queries are pruned with pivots. A few histograms far apart from each other are picked as pivots and
+ * the L1 distance of every vector to each pivot is stored, vectors sorted by their distance to the
+ * first. By the triangle inequality |d(q, p) - d(x, p)| is a lower bound of the L1 distance between
+ * the query q and a vector x, and every metric above is bounded below by a function of the L1
+ * distance, so vectors are visited outwards from the query's distance to the first pivot and the scan
+ * stops once that bound exceeds the current k-th distance or the radius. Vectors whose bound over all
+ * pivots is too large are skipped without computing their distance. How much is pruned depends on how
+ * clustered the histograms are; queries are always exact.
+ *
+ * Histograms may be added between queries, the pivot table being rebuilt on the next query; adding
+ * histograms while queries run is not supported.
+ *
+ * @author Joao Godinho
+ */
+public class HistogramIndex {
+    /** The Constant DEFAULT_BINS. */
+    public final static int DEFAULT_BINS = 16;
+
+    /** The Constant DEFAULT_PIVOTS. */
+    public final static int DEFAULT_PIVOTS = 8;
+
+    /** The Constant CHANNELS. Red, green and blue. */
+    private final static int CHANNELS = 3;
+
+    /** The Constant SLACK. Allowance for float rounding in the lower bounds. */
+    private final static double SLACK = 1e-5;
+
+    /**
+     * The Enum Metric. Distance between normalised histograms, each with a lower bound in terms of the
+     * L1 distance.
+     */
+    public enum Metric {
+        /** Sum of absolute differences. */
+        L1 {
+            @Override
+            double distance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+                double sum = 0;
+                for (int i = 0; i < length; i++) { sum += Math.abs(a[aOffset + i] - b[bOffset + i]); }
+                return sum / CHANNELS;
+            }
+
+            @Override
+            double lowerBound(double l1) {
+                return l1;
+            }
+        },
+        /** Symmetric chi-square, at least half the square of L1. */
+        CHI_SQUARE {
+            @Override
+            double distance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+                double sum = 0;
+                for (int i = 0; i < length; i++) {
+                    double x = a[aOffset + i], y = b[bOffset + i];
+                    if (x + y > 0) { sum += (x - y) * (x - y) / (x + y); }
+                }
+                return sum / CHANNELS;
+            }
+
+            @Override
+            double lowerBound(double l1) {
+                return l1 * l1 / 2;
+            }
+        },
+        /** One minus the histogram intersection, half of L1. */
+        INTERSECTION {
+            @Override
+            double distance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+                double sum = 0;
+                for (int i = 0; i < length; i++) { sum += Math.min(a[aOffset + i], b[bOffset + i]); }
+                return (CHANNELS - sum) / CHANNELS;
+            }
+
+            @Override
+            double lowerBound(double l1) {
+                return l1 / 2;
+            }
+        },
+        /** Hellinger form of the Bhattacharyya distance, at least L1 / (2 * sqrt(2)). */
+        BHATTACHARYYA {
+            @Override
+            double distance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+                int bins = length / CHANNELS;
+                double sum = 0;
+                for (int c = 0; c < length; c += bins) {
+                    double coefficient = 0;
+                    for (int i = c; i < c + bins; i++) { coefficient += Math.sqrt((double) a[aOffset + i] * b[bOffset + i]); }
+                    sum += Math.sqrt(Math.max(0, 1 - coefficient));
+                }
+                return sum / CHANNELS;
+            }
+
+            @Override
+            double lowerBound(double l1) {
+                return l1 / (2 * Math.sqrt(2));
+            }
+        };
+
+        /**
+         * Distance between two vectors.
+         *
+         * @param a the first vector array
+         * @param aOffset the offset of the first vector
+         * @param b the second vector array
+         * @param bOffset the offset of the second vector
+         * @param length the vector length, 3 channels of bins
+         * @return the distance
+         */
+        abstract double distance(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+        /**
+         * Lower bound of the distance given a lower bound of the L1 distance.
+         *
+         * @param l1 the L1 lower bound
+         * @return the lower bound
+         */
+        abstract double lowerBound(double l1);
+    }
+
+    /**
+     * The Class Match. A histogram found by a query.
+     */
+    public static final class Match {
+        /** The id. */
+        private final int id;
+
+        /** The distance. */
+        private final double distance;
+
+        /**
+         * Instantiates a new match.
+         *
+         * @param id the id
+         * @param distance the distance
+         */
+        Match(int id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        /**
+         * Gets the id returned by add.
+         *
+         * @return the id
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Gets the distance to the query.
+         *
+         * @return the distance
+         */
+        public double getDistance() {
+            return distance;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return id + ":" + distance;
+        }
+    }
+
+    /** The Constant BY_DISTANCE. Orders matches by distance, then id. */
+    private final static Comparator<Match> BY_DISTANCE = new Comparator<Match>() {
+        @Override
+        public int compare(Match a, Match b) {
+            int order = Double.compare(a.distance, b.distance);
+            return order != 0 ? order : Integer.compare(a.id, b.id);
+        }
+    };
+
+    /** The bins per channel. */
+    private final int bins;
+
+    /** The shift from 8 bit values to bins. */
+    private final int shift;
+
+    /** The vector length. */
+    private final int length;
+
+    /** The number of pivots to pick. */
+    private final int pivotCount;
+
+    /** The vectors, in pivot order once built. */
+    private float[] vectors;
+
+    /** The id of the vector at each position. */
+    private int[] ids;
+
+    /** The number of vectors. */
+    private int size;
+
+    /** Whether the pivot table covers every vector. */
+    private boolean built;
+
+    /** The number of pivots picked. */
+    private int pivotsUsed;
+
+    /** The pivot vectors. */
+    private float[] pivots;
+
+    /** The L1 distance of the vector at each position to each pivot, sorted by the first. */
+    private float[] pivotDistances;
+
+    /**
+     * Instantiates a new index with the default bins and pivots.
+     */
+    public HistogramIndex() {
+        this(DEFAULT_BINS, DEFAULT_PIVOTS);
+    }
+
+    /**
+     * Instantiates a new index.
+     *
+     * @param bins the bins per channel, a power of two from 1 to 256
+     * @param pivots the number of pivots, at least 1
+     */
+    public HistogramIndex(int bins, int pivots) {
+        if (bins < 1 || bins > COLOR_RANGE || Integer.bitCount(bins) != 1) {
+            throw new IllegalArgumentException("Bins must be a power of two from 1 to 256: " + bins);
+        }
+        if (pivots < 1) {
+            throw new IllegalArgumentException("At least one pivot is needed: " + pivots);
+        }
+        this.bins = bins;
+        this.shift = Integer.numberOfTrailingZeros(COLOR_RANGE / bins);
+        this.length = CHANNELS * bins;
+        this.pivotCount = pivots;
+        this.vectors = new float[16 * length];
+        this.ids = new int[16];
+    }
+
+    /**
+     * Adds a histogram.
+     *
+     * @param histogram the histogram, int[4][256] as returned by Histogrammer.getHistogram()
+     * @return the id of the histogram, the number of histograms added before it
+     */
+    public synchronized int add(int[][] histogram) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * size);
+            vectors = Arrays.copyOf(vectors, 2 * size * length);
+        }
+        normalise(histogram, vectors, size * length);
+        ids[size] = size;
+        built = false;
+        return size++;
+    }
+
+    /**
+     * Finds the k histograms closest to a query.
+     *
+     * @param histogram the query histogram, int[4][256]
+     * @param k the number of matches
+     * @param metric the metric
+     * @return up to k matches, closest first
+     */
+    public List<Match> topK(int[][] histogram, int k, Metric metric) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        build();
+        return search(histogram, k, Double.POSITIVE_INFINITY, metric);
+    }
+
+    /**
+     * Finds every histogram within a distance of a query.
+     *
+     * @param histogram the query histogram, int[4][256]
+     * @param radius the largest distance
+     * @param metric the metric
+     * @return the matches, closest first
+     */
+    public List<Match> radius(int[][] histogram, double radius, Metric metric) {
+        if (!(radius >= 0)) {
+            throw new IllegalArgumentException("Radius must not be negative: " + radius);
+        }
+        build();
+        return search(histogram, Integer.MAX_VALUE, radius, metric);
+    }
+
+    /**
+     * Runs top-k queries in parallel.
+     *
+     * @param histograms the query histograms
+     * @param k the number of matches per query
+     * @param metric the metric
+     * @param pool the pool
+     * @return the matches of each query, in query order
+     */
+    public List<List<Match>> topK(List<int[][]> histograms, int k, Metric metric, ForkJoinPool pool) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        return batch(histograms, k, Double.POSITIVE_INFINITY, metric, pool);
+    }
+
+    /**
+     * Runs radius queries in parallel.
+     *
+     * @param histograms the query histograms
+     * @param radius the largest distance
+     * @param metric the metric
+     * @param pool the pool
+     * @return the matches of each query, in query order
+     */
+    public List<List<Match>> radius(List<int[][]> histograms, double radius, Metric metric, ForkJoinPool pool) {
+        if (!(radius >= 0)) {
+            throw new IllegalArgumentException("Radius must not be negative: " + radius);
+        }
+        return batch(histograms, Integer.MAX_VALUE, radius, metric, pool);
+    }
+
+    /**
+     * Gets the number of histograms.
+     *
+     * @return the size
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the bins per channel.
+     *
+     * @return the bins
+     */
+    public int getBins() {
+        return bins;
+    }
+
+    /**
+     * Runs queries in parallel, one task per query.
+     *
+     * @param histograms the query histograms
+     * @param k the most matches per query
+     * @param radius the largest distance
+     * @param metric the metric
+     * @param pool the pool
+     * @return the matches of each query
+     */
+    private List<List<Match>> batch(List<int[][]> histograms, int k, double radius, Metric metric, ForkJoinPool pool) {
+        build();
+        int[][][] queries = histograms.toArray(new int[histograms.size()][][]);
+        List<Match>[] results = newResults(queries.length);
+        pool.invoke(new QueryTask(queries, results, 0, queries.length, k, radius, metric));
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Allocates the result lists of a batch.
+     *
+     * @param size the number of queries
+     * @return the array
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static List<Match>[] newResults(int size) {
+        return new List[size];
+    }
+
+    /**
+     * Picks the pivots and sorts the vectors by distance to the first, if histograms were added since
+     * the last build. Pivots are picked farthest first, each the vector farthest from those already
+     * picked.
+     */
+    private synchronized void build() {
+        if (built) { return; }
+        built = true;
+        pivotsUsed = Math.min(pivotCount, size);
+        pivots = new float[pivotsUsed * length];
+        float[] distances = new float[size * pivotsUsed];
+        double[] nearestPivot = new double[size];
+        Arrays.fill(nearestPivot, Double.POSITIVE_INFINITY);
+        int pivot = farthest(0, nearestPivot);
+        for (int p = 0; p < pivotsUsed; p++) {
+            System.arraycopy(vectors, pivot * length, pivots, p * length, length);
+            for (int i = 0; i < size; i++) {
+                double distance = Metric.L1.distance(vectors, i * length, pivots, p * length, length);
+                distances[i * pivotsUsed + p] = (float) distance;
+                nearestPivot[i] = Math.min(nearestPivot[i], distance);
+            }
+            pivot = farthest(pivot, nearestPivot);
+        }
+
+        // distances are not negative, so their float bits sort like the floats
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = (long) Float.floatToIntBits(distances[i * pivotsUsed]) << 32 | i;
+        }
+        Arrays.sort(order);
+        float[] sortedVectors = new float[vectors.length];
+        int[] sortedIds = new int[ids.length];
+        pivotDistances = new float[size * pivotsUsed];
+        for (int position = 0; position < size; position++) {
+            int i = (int) order[position];
+            System.arraycopy(vectors, i * length, sortedVectors, position * length, length);
+            System.arraycopy(distances, i * pivotsUsed, pivotDistances, position * pivotsUsed, pivotsUsed);
+            sortedIds[position] = ids[i];
+        }
+        vectors = sortedVectors;
+        ids = sortedIds;
+    }
+
+    /**
+     * Finds the vector farthest from the pivots picked so far.
+     *
+     * @param fallback the position returned when no vector is farther than 0
+     * @param nearestPivot the distance of each vector to its nearest pivot
+     * @return the position
+     */
+    private int farthest(int fallback, double[] nearestPivot) {
+        int farthest = fallback;
+        double distance = 0;
+        for (int i = 0; i < size; i++) {
+            if (nearestPivot[i] > distance) {
+                distance = nearestPivot[i];
+                farthest = i;
+            }
+        }
+        return farthest;
+    }
+
+    /**
+     * Runs a query against the built index.
+     *
+     * @param histogram the query histogram
+     * @param k the most matches
+     * @param radius the largest distance
+     * @param metric the metric
+     * @return the matches, closest first
+     */
+    private List<Match> search(int[][] histogram, int k, double radius, Metric metric) {
+        float[] query = new float[length];
+        normalise(histogram, query, 0);
+        Candidates candidates = new Candidates(k, radius);
+        if (size == 0) { return candidates.toList(); }
+
+        double[] queryDistances = new double[pivotsUsed];
+        for (int p = 0; p < pivotsUsed; p++) {
+            queryDistances[p] = Metric.L1.distance(query, 0, pivots, p * length, length);
+        }
+        int above = firstAtLeast(queryDistances[0]), below = above - 1;
+        while (below >= 0 || above < size) {
+            boolean up = below < 0 || (above < size
+                    && pivotDistances[above * pivotsUsed] - queryDistances[0]
+                    <= queryDistances[0] - pivotDistances[below * pivotsUsed]);
+            int position = up ? above++ : below--;
+            int offset = position * pivotsUsed;
+            double bound = Math.abs(pivotDistances[offset] - queryDistances[0]);
+            if (metric.lowerBound(bound) - SLACK > candidates.threshold()) {
+                // vectors further along this side are even farther from the first pivot
+                if (up) { above = size; } else { below = -1; }
+                continue;
+            }
+            for (int p = 1; p < pivotsUsed; p++) {
+                bound = Math.max(bound, Math.abs(pivotDistances[offset + p] - queryDistances[p]));
+            }
+            if (metric.lowerBound(bound) - SLACK > candidates.threshold()) { continue; }
+            candidates.offer(ids[position], metric.distance(query, 0, vectors, position * length, length));
+        }
+        return candidates.toList();
+    }
+
+    /**
+     * Finds the first position whose distance to the first pivot is at least a value.
+     *
+     * @param distance the distance
+     * @return the position, size if there is none
+     */
+    private int firstAtLeast(double distance) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (pivotDistances[middle * pivotsUsed] < distance) { low = middle + 1; } else { high = middle; }
+        }
+        return low;
+    }
+
+    /**
+     * Quantises and normalises the red, green and blue channels of a histogram into a vector.
+     *
+     * @param histogram the histogram
+     * @param vector the vector array
+     * @param offset the vector offset
+     */
+    private void normalise(int[][] histogram, float[] vector, int offset) {
+        if (histogram.length != 4) {
+            throw new IllegalArgumentException("Expected 4 channels, got " + histogram.length);
+        }
+        for (int c = 0; c < CHANNELS; c++) {
+            int[] channel = histogram[c + 1];
+            if (channel.length != COLOR_RANGE) {
+                throw new IllegalArgumentException("Expected " + COLOR_RANGE + " bins, got " + channel.length);
+            }
+            long[] counts = new long[bins];
+            long total = 0;
+            for (int v = 0; v < COLOR_RANGE; v++) {
+                counts[v >> shift] += channel[v];
+                total += channel[v];
+            }
+            for (int b = 0; b < bins; b++) {
+                vector[offset + c * bins + b] = total == 0 ? 0 : (float) ((double) counts[b] / total);
+            }
+        }
+    }
+
+    /**
+     * The Class Candidates. Max-heap of the best matches so far, bounded by k and the radius.
+     */
+    private static class Candidates {
+        /** The most matches kept. */
+        private final int k;
+
+        /** The largest distance kept. */
+        private final double radius;
+
+        /** The distances, a max-heap. */
+        private double[] distances = new double[16];
+
+        /** The ids, in heap order. */
+        private int[] ids = new int[16];
+
+        /** The number of matches. */
+        private int count;
+
+        /**
+         * Instantiates new candidates.
+         *
+         * @param k the most matches kept
+         * @param radius the largest distance kept
+         */
+        Candidates(int k, double radius) {
+            this.k = k;
+            this.radius = radius;
+        }
+
+        /**
+         * The distance a vector must not exceed to be a match.
+         *
+         * @return the threshold
+         */
+        double threshold() {
+            return count == k ? distances[0] : radius;
+        }
+
+        /**
+         * Offers a vector.
+         *
+         * @param id the id
+         * @param distance the distance
+         */
+        void offer(int id, double distance) {
+            if (distance > radius) { return; }
+            if (count == k) {
+                if (distance >= distances[0]) { return; }
+                siftDown(id, distance);
+                return;
+            }
+            if (count == distances.length) {
+                distances = Arrays.copyOf(distances, 2 * count);
+                ids = Arrays.copyOf(ids, 2 * count);
+            }
+            int i = count++;
+            while (i > 0 && distances[(i - 1) >>> 1] < distance) {
+                int parent = (i - 1) >>> 1;
+                distances[i] = distances[parent];
+                ids[i] = ids[parent];
+                i = parent;
+            }
+            distances[i] = distance;
+            ids[i] = id;
+        }
+
+        /**
+         * Replaces the root with a new match and restores the heap.
+         *
+         * @param id the id
+         * @param distance the distance
+         */
+        private void siftDown(int id, double distance) {
+            int i = 0;
+            while (2 * i + 1 < count) {
+                int child = 2 * i + 1;
+                if (child + 1 < count && distances[child + 1] > distances[child]) { child++; }
+                if (distances[child] <= distance) { break; }
+                distances[i] = distances[child];
+                ids[i] = ids[child];
+                i = child;
+            }
+            distances[i] = distance;
+            ids[i] = id;
+        }
+
+        /**
+         * The matches, closest first.
+         *
+         * @return the matches
+         */
+        List<Match> toList() {
+            List<Match> matches = new ArrayList<Match>(count);
+            for (int i = 0; i < count; i++) { matches.add(new Match(ids[i], distances[i])); }
+            Collections.sort(matches, BY_DISTANCE);
+            return matches;
+        }
+    }
+
+    /**
+     * The Class QueryTask. Runs a range of queries, splitting it in two while it has more than one.
+     */
+    private class QueryTask extends RecursiveAction {
+        /** The Constant serialVersionUID. */
+        private static final long serialVersionUID = 1L;
+
+        /** The queries. */
+        private final int[][][] queries;
+
+        /** The results. */
+        private final List<Match>[] results;
+
+        /** The first query. */
+        private final int from;
+
+        /** The query after the last. */
+        private final int to;
+
+        /** The most matches per query. */
+        private final int k;
+
+        /** The largest distance. */
+        private final double radius;
+
+        /** The metric. */
+        private final Metric metric;
+
+        /**
+         * Instantiates a new query task.
+         *
+         * @param queries the queries
+         * @param results the results
+         * @param from the first query
+         * @param to the query after the last
+         * @param k the most matches per query
+         * @param radius the largest distance
+         * @param metric the metric
+         */
+        QueryTask(int[][][] queries, List<Match>[] results, int from, int to, int k, double radius, Metric metric) {
+            this.queries = queries;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.k = k;
+            this.radius = radius;
+            this.metric = metric;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.concurrent.RecursiveAction#compute()
+         */
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                results[from] = search(queries[from], k, radius, metric);
+                return;
+            }
+            if (to == from) { return; }
+            int middle = (from + to) >>> 1;
+            invokeAll(new QueryTask(queries, results, from, middle, k, radius, metric),
+                    new QueryTask(queries, results, middle, to, k, radius, metric));
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package net.fernandezgodinho.histogrammer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Class HistogramMetrics. Process wide counters and latency histograms of the phases of a
+ * histogram job: decoding with ImageIO, counting, deriving percentages and rendering. Metrics are off
+ * by default, leaving each instrumented call with a single volatile read; once enabled each call adds
+ * two System.nanoTime() calls and a few uncontended LongAdder increments. They are meant to be polled
+ * by a monitoring thread.
+ *
+ * Latencies are kept in power of two buckets of nanoseconds: bucket i counts the calls that took at
+ * least 2^i and less than 2^(i + 1) nanoseconds, bucket 0 also those under a nanosecond.
+ *
+ * The same phases are emitted as net.fernandezgodinho.histogrammer.Histogram JDK Flight Recorder
+ * events whenever a recording enables them, whether metrics are on or not.
+ *
+ * @author Joao Godinho
+ */
+public final class HistogramMetrics {
+    /**
+     * The Enum Phase.
+     */
+    public enum Phase {
+        /**
+         * ImageIO decoding of a whole image file by HistogramBatch or HistogramCache, or of each region
+         * TiledHistogramReader reads.
+         */
+        DECODE,
+
+        /**
+         * Counting the pixels of an image, a region, a raster or a raw frame: calcHistogram() on the
+         * calling thread or a pool, its joint, masked, alpha weighted and luma variants, accumulate and
+         * each region TiledHistogramReader reads.
+         */
+        COUNT,
+
+        /** getPercentageHistogram() when the percentages are recalculated. */
+        PERCENTAGE,
+
+        /** getHistogramAsImage(int) and getHistogramAsImage(int, BufferedImage). */
+        RENDER
+    }
+
+    /** The Constant LATENCY_BUCKETS. */
+    public final static int LATENCY_BUCKETS = Long.SIZE;
+
+    /** The Constant NOT_TIMED. Start time of calls made while metrics were off. */
+    private final static long NOT_TIMED = Long.MIN_VALUE;
+
+    /** The Constant NANOS_PER_SECOND. */
+    private final static double NANOS_PER_SECOND = 1e9;
+
+    /** The metrics of each phase. */
+    private final static PhaseMetrics[] PHASES = new PhaseMetrics[Phase.values().length];
+
+    static {
+        for (int i = 0; i < PHASES.length; i++) { PHASES[i] = new PhaseMetrics(); }
+    }
+
+    /** Whether metrics are recorded. */
+    private static volatile boolean enabled;
+
+    /**
+     * Instantiates a new histogram metrics.
+     */
+    private HistogramMetrics() {
+    }
+
+    /**
+     * Checks if metrics are recorded.
+     *
+     * @return true, if enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns metrics on or off. Counts recorded so far are kept; calls already running when metrics are
+     * turned on are not recorded.
+     *
+     * @param enabled true to record metrics
+     */
+    public static void setEnabled(boolean enabled) {
+        HistogramMetrics.enabled = enabled;
+    }
+
+    /**
+     * Clears every counter and latency histogram.
+     */
+    public static void reset() {
+        for (PhaseMetrics metrics : PHASES) { metrics.reset(); }
+    }
+
+    /**
+     * Gets the number of calls of a phase.
+     *
+     * @param phase the phase
+     * @return the count
+     */
+    public static long getCount(Phase phase) {
+        return PHASES[phase.ordinal()].calls.sum();
+    }
+
+    /**
+     * Gets the pixels processed by a phase: those of the images decoded and counted, those of the
+     * histograms turned into percentages and those of the images rendered.
+     *
+     * @param phase the phase
+     * @return the pixels
+     */
+    public static long getPixels(Phase phase) {
+        return PHASES[phase.ordinal()].pixels.sum();
+    }
+
+    /**
+     * Gets the time spent in a phase, summed over all its calls.
+     *
+     * @param phase the phase
+     * @return the total nanoseconds
+     */
+    public static long getTotalNanos(Phase phase) {
+        return PHASES[phase.ordinal()].nanos.sum();
+    }
+
+    /**
+     * Gets the pixels per second of a phase, over the time spent in it.
+     *
+     * @param phase the phase
+     * @return the pixels per second, 0 if it was never called
+     */
+    public static double getPixelsPerSecond(Phase phase) {
+        long nanos = getTotalNanos(phase);
+        return nanos == 0 ? 0 : getPixels(phase) * NANOS_PER_SECOND / nanos;
+    }
+
+    /**
+     * Gets the latency histogram of a phase.
+     *
+     * @param phase the phase
+     * @return the calls in each of the LATENCY_BUCKETS power of two buckets
+     */
+    public static long[] getLatencyHistogram(Phase phase) {
+        AtomicLongArray buckets = PHASES[phase.ordinal()].latencies;
+        long[] counts = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < LATENCY_BUCKETS; i++) { counts[i] = buckets.get(i); }
+        return counts;
+    }
+
+    /**
+     * Gets an upper bound of a latency percentile of a phase, the end of the bucket holding it. It is
+     * at most twice the actual latency.
+     *
+     * @param phase the phase
+     * @param percentile the percentile, 0 to 100
+     * @return the latency in nanoseconds, 0 if the phase was never called
+     */
+    public static long getLatencyPercentile(Phase phase, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        long[] counts = getLatencyHistogram(phase);
+        long total = 0;
+        for (long count : counts) { total += count; }
+        if (total == 0) { return 0; }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) { return i == LATENCY_BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1; }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Starts timing a call.
+     *
+     * @return the start time, to give to record
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Records a call that started at the given time, unless metrics were off when it started.
+     *
+     * @param phase the phase
+     * @param start the start time given by start()
+     * @param pixels the pixels processed
+     */
+    static void record(Phase phase, long start, long pixels) {
+        if (start == NOT_TIMED) { return; }
+        long nanos = Math.max(0, System.nanoTime() - start);
+        PhaseMetrics metrics = PHASES[phase.ordinal()];
+        metrics.calls.increment();
+        metrics.pixels.add(pixels);
+        metrics.nanos.add(nanos);
+        metrics.latencies.incrementAndGet(nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * The Class PhaseMetrics. Counters of one phase.
+     */
+    private static class PhaseMetrics {
+        /** The calls. */
+        final LongAdder calls = new LongAdder();
+
+        /** The pixels. */
+        final LongAdder pixels = new LongAdder();
+
+        /** The nanoseconds. */
+        final LongAdder nanos = new LongAdder();
+
+        /** The latency buckets. */
+        final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS);
+
+        /**
+         * Clears the counters.
+         */
+        void reset() {
+            calls.reset();
+            pixels.reset();
+            nanos.reset();
+            for (int i = 0; i < LATENCY_BUCKETS; i++) { latencies.set(i, 0); }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package net.fernandezgodinho.histogrammer;
+
+/**
+ * The Class HistogramStatistics. Statistics of each channel of a histogram, derived in a single pass
+ * over the bins: the cumulative counts, mean, variance, entropy and the smallest and largest values
+ * present. Percentiles are found by binary search on the cumulative counts, in O(log bins).
+ *
+ * Values are bin indices, 0 to 255 for Histogrammer. Everything is computed from the exact counts;
+ * mean, variance and entropy are doubles and nothing is rounded to whole percentages.
+ *
+ * @author Joao Godinho
+ */
+public class HistogramStatistics {
+    /** The Constant LOG_2. */
+    private final static double LOG_2 = Math.log(2);
+
+    /** The cumulative counts of each channel, entry v counting the values up to and including v. */
+    private long[][] cumulative;
+
+    /** The mean of each channel. */
+    private double[] mean;
+
+    /** The variance of each channel. */
+    private double[] variance;
+
+    /** The entropy of each channel, in bits. */
+    private double[] entropy;
+
+    /** The smallest value present in each channel, -1 if empty. */
+    private int[] min;
+
+    /** The largest value present in each channel, -1 if empty. */
+    private int[] max;
+
+    /**
+     * Instantiates the statistics of a histogram.
+     *
+     * @param histogram the histogram, one array of counts per channel, all of the same length
+     */
+    public HistogramStatistics(int[][] histogram) {
+        compute(histogram);
+    }
+
+    /**
+     * Recomputes the statistics of a histogram, reusing the arrays when it has the same shape.
+     *
+     * @param histogram the histogram
+     */
+    void compute(int[][] histogram) {
+        int channels = histogram.length, bins = histogram[0].length;
+        if (cumulative == null || cumulative.length != channels || cumulative[0].length != bins) {
+            cumulative = new long[channels][bins];
+            mean = new double[channels];
+            variance = new double[channels];
+            entropy = new double[channels];
+            min = new int[channels];
+            max = new int[channels];
+        }
+        for (int c = 0; c < channels; c++) {
+            int[] counts = histogram[c];
+            long[] running = cumulative[c];
+            long total = 0, sum = 0;
+            double sumOfSquares = 0, countLogCount = 0;
+            int first = -1, last = -1;
+            for (int v = 0; v < bins; v++) {
+                long count = counts[v];
+                total += count;
+                running[v] = total;
+                if (count == 0) { continue; }
+                if (first < 0) { first = v; }
+                last = v;
+                sum += count * v;
+                sumOfSquares += (double) count * v * v;
+                countLogCount += count * Math.log(count);
+            }
+            min[c] = first;
+            max[c] = last;
+            if (total == 0) {
+                mean[c] = variance[c] = entropy[c] = Double.NaN;
+                continue;
+            }
+            mean[c] = (double) sum / total;
+            variance[c] = Math.max(0, sumOfSquares / total - mean[c] * mean[c]);
+            // -sum p log p with p = count / total, rearranged so one pass suffices
+            entropy[c] = Math.max(0, (Math.log(total) - countLogCount / total) / LOG_2);
+        }
+    }
+
+    /**
+     * Gets the number of values counted in a channel.
+     *
+     * @param channel the channel
+     * @return the total
+     */
+    public long getTotal(int channel) {
+        long[] running = cumulative[channel];
+        return running[running.length - 1];
+    }
+
+    /**
+     * Gets the cumulative count of a value, the number of values up to and including it.
+     *
+     * @param channel the channel
+     * @param value the value
+     * @return the cumulative count
+     */
+    public long getCumulative(int channel, int value) {
+        return cumulative[channel][value];
+    }
+
+    /**
+     * Gets the cumulative distribution at a value, the fraction of values up to and including it.
+     *
+     * @param channel the channel
+     * @param value the value
+     * @return the fraction from 0 to 1, NaN if the channel is empty
+     */
+    public double getCdf(int channel, int value) {
+        return (double) cumulative[channel][value] / getTotal(channel);
+    }
+
+    /**
+     * Gets a percentile, the smallest value whose cumulative count reaches the given percentage of the
+     * total (nearest rank).
+     *
+     * @param channel the channel
+     * @param percentile the percentile, 0 to 100
+     * @return the value, -1 if the channel is empty
+     */
+    public int getPercentile(int channel, double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be from 0 to 100: " + percentile);
+        }
+        long[] running = cumulative[channel];
+        long total = running[running.length - 1];
+        if (total == 0) { return -1; }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        int low = 0, high = running.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (running[middle] < rank) { low = middle + 1; } else { high = middle; }
+        }
+        return low;
+    }
+
+    /**
+     * Gets the median, the 50th percentile.
+     *
+     * @param channel the channel
+     * @return the median, -1 if the channel is empty
+     */
+    public int getMedian(int channel) {
+        return getPercentile(channel, 50);
+    }
+
+    /**
+     * Gets the mean.
+     *
+     * @param channel the channel
+     * @return the mean, NaN if the channel is empty
+     */
+    public double getMean(int channel) {
+        return mean[channel];
+    }
+
+    /**
+     * Gets the population variance.
+     *
+     * @param channel the channel
+     * @return the variance, NaN if the channel is empty
+     */
+    public double getVariance(int channel) {
+        return variance[channel];
+    }
+
+    /**
+     * Gets the population standard deviation.
+     *
+     * @param channel the channel
+     * @return the standard deviation, NaN if the channel is empty
+     */
+    public double getStandardDeviation(int channel) {
+        return Math.sqrt(variance[channel]);
+    }
+
+    /**
+     * Gets the Shannon entropy.
+     *
+     * @param channel the channel
+     * @return the entropy in bits, NaN if the channel is empty
+     */
+    public double getEntropy(int channel) {
+        return entropy[channel];
+    }
+
+    /**
+     * Gets the smallest value present.
+     *
+     * @param channel the channel
+     * @return the value, -1 if the channel is empty
+     */
+    public int getMin(int channel) {
+        return min[channel];
+    }
+
+    /**
+     * Gets the largest value present.
+     *
+     * @param channel the channel
+     * @return the value, -1 if the channel is empty
+     */
+    public int getMax(int channel) {
+        return max[channel];
+    }
+}
@@ -0,0 +1,320 @@
+package net.fernandezgodinho.histogrammer;
+
+import static net.fernandezgodinho.histogrammer.Histogrammer.COLOR_RANGE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Class HistogramStore. Append-only store of ARGB histograms in memory-mapped segment files.
+ *
+ * Each histogram is a fixed width record of HistogramCodec.RECORD_SIZE bytes, the RAW counters of
+ * channel 0 (alpha) to 3 (blue) as little endian ints, so record N is found by arithmetic and read
+ * straight from the page cache. Segments are files named segment-00000.hst, segment-00001.hst, ... in
+ * the store directory, each holding up to recordsPerSegment records after a header of SEGMENT_HEADER
+ * bytes:
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic, 'H' 'S' 'T' '1'
+ *      4     4  format version, HistogramCodec.VERSION
+ *      8     4  record size
+ *     12     4  records per segment
+ *     16     4  committed records
+ * </pre>
+ *
+ * The committed count is written after the record, so a crash during an append leaves the previous
+ * histograms intact and the partial record is overwritten by the next append. Appends are serialised;
+ * reads are lock free and may run concurrently with appends. Once the store is closed appends, reads
+ * and flushes throw IllegalStateException; views returned by get before closing stay readable.
+ *
+ * @author Joao Godinho
+ */
+public class HistogramStore implements Closeable {
+    /** The Constant DEFAULT_RECORDS_PER_SEGMENT. 64 MB segments. */
+    public final static int DEFAULT_RECORDS_PER_SEGMENT = 1 << 14;
+
+    /** The Constant SEGMENT_HEADER. */
+    public final static int SEGMENT_HEADER = 64;
+
+    /** The Constant MAGIC. 'H' 'S' 'T' '1' read little endian. */
+    private final static int MAGIC = 0x31545348;
+
+    /** The Constant COUNT_OFFSET. Offset of the committed records in the segment header. */
+    private final static int COUNT_OFFSET = 16;
+
+    /** The directory. */
+    private final Path directory;
+
+    /** The records per segment. */
+    private final int recordsPerSegment;
+
+    /** The mapped segments, in order. */
+    private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+    /** The segment channels, in order. */
+    private final List<FileChannel> channels = new ArrayList<FileChannel>();
+
+    /** The mapped segments published to readers, replaced when a segment is added. */
+    private volatile MappedByteBuffer[] mapped = new MappedByteBuffer[0];
+
+    /** The number of histograms, published after each append. */
+    private volatile long size;
+
+    /** Whether the store was closed. */
+    private volatile boolean closed;
+
+    /**
+     * Opens a store with the default segment size, creating the directory if needed.
+     *
+     * @param directory the directory
+     * @throws IOException Signals that the segments could not be opened or are corrupt.
+     */
+    public HistogramStore(Path directory) throws IOException {
+        this(directory, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    /**
+     * Opens a store, creating the directory if needed. Existing segments must have been written with
+     * the same records per segment.
+     *
+     * @param directory the directory
+     * @param recordsPerSegment the records per segment
+     * @throws IOException Signals that the segments could not be opened or are corrupt.
+     */
+    public HistogramStore(Path directory, int recordsPerSegment) throws IOException {
+        if (recordsPerSegment < 1 || recordsPerSegment > (Integer.MAX_VALUE - SEGMENT_HEADER) / HistogramCodec.RECORD_SIZE) {
+            throw new IllegalArgumentException("Invalid records per segment: " + recordsPerSegment);
+        }
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+        Files.createDirectories(directory);
+        long records = 0;
+        try {
+            for (int i = 0; Files.exists(segmentPath(i)); i++) {
+                MappedByteBuffer segment = map(i, false);
+                int count = segment.getInt(COUNT_OFFSET);
+                records += count;
+                if (count < recordsPerSegment && Files.exists(segmentPath(i + 1))) {
+                    throw new IOException("Segment " + segmentPath(i) + " is not full but is followed by another");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        this.size = records;
+    }
+
+    /**
+     * Appends a histogram.
+     *
+     * @param histogram the histogram, int[4][256] as returned by Histogrammer.getHistogram()
+     * @return the index of the histogram
+     * @throws IOException Signals that a new segment could not be created.
+     */
+    public synchronized long append(int[][] histogram) throws IOException {
+        checkOpen();
+        if (histogram.length != 4) {
+            throw new IllegalArgumentException("Expected 4 channels, got " + histogram.length);
+        }
+        for (int[] channel : histogram) {
+            if (channel.length != COLOR_RANGE) {
+                throw new IllegalArgumentException("Expected " + COLOR_RANGE + " bins, got " + channel.length);
+            }
+        }
+        long index = size;
+        int segmentIndex = (int) (index / recordsPerSegment);
+        int record = (int) (index % recordsPerSegment);
+        if (segmentIndex == segments.size()) {
+            map(segmentIndex, true);
+        }
+        ByteBuffer segment = segments.get(segmentIndex).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        segment.position(recordOffset(record));
+        for (int[] channel : histogram) {
+            HistogramCodec.writeRecord(channel, segment);
+        }
+        segment.putInt(COUNT_OFFSET, record + 1);
+        size = index + 1;
+        return index;
+    }
+
+    /**
+     * Gets a histogram as a view of the mapped record, without copying it to the heap. The count of
+     * channel c (0 alpha to 3 blue) and bin b is at c * 256 + b.
+     *
+     * @param index the index
+     * @return the record as a read only int buffer of 1024 counters
+     */
+    public IntBuffer get(long index) {
+        checkIndex(index);
+        MappedByteBuffer[] mapped = this.mapped;
+        ByteBuffer record = mapped[(int) (index / recordsPerSegment)].asReadOnlyBuffer();
+        int offset = recordOffset((int) (index % recordsPerSegment));
+        record.limit(offset + HistogramCodec.RECORD_SIZE);
+        record.position(offset);
+        return record.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * Gets a single count without creating a view.
+     *
+     * @param index the index
+     * @param channel the channel, 0 alpha to 3 blue
+     * @param bin the bin
+     * @return the count
+     */
+    public int getCount(long index, int channel, int bin) {
+        checkIndex(index);
+        if (channel < 0 || channel >= 4 || bin < 0 || bin >= COLOR_RANGE) {
+            throw new IndexOutOfBoundsException("No bin " + channel + ", " + bin);
+        }
+        // the mapped segments are little endian and absolute reads do not touch their position
+        MappedByteBuffer segment = mapped[(int) (index / recordsPerSegment)];
+        int offset = recordOffset((int) (index % recordsPerSegment)) + (channel * COLOR_RANGE + bin) * 4;
+        return segment.getInt(offset);
+    }
+
+    /**
+     * Copies a histogram into an existing array.
+     *
+     * @param index the index
+     * @param histogram the histogram to overwrite, int[4][256]
+     */
+    public void read(long index, int[][] histogram) {
+        IntBuffer record = get(index);
+        for (int[] channel : histogram) {
+            record.get(channel);
+        }
+    }
+
+    /**
+     * Gets the number of histograms.
+     *
+     * @return the size
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Forces the appended histograms to disk.
+     */
+    public synchronized void flush() {
+        checkOpen();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Closes the segment files. The mappings are released by the garbage collector once no view
+     * returned by get is reachable. Closing a closed store does nothing.
+     *
+     * @throws IOException Signals that a file could not be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        IOException failure = null;
+        for (FileChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        channels.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Maps a segment, writing its header if it is new.
+     *
+     * @param index the segment index
+     * @param create whether to create the segment
+     * @return the mapped segment
+     * @throws IOException Signals that the segment could not be mapped or is corrupt.
+     */
+    private MappedByteBuffer map(int index, boolean create) throws IOException {
+        Path path = segmentPath(index);
+        FileChannel channel = create
+                ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channels.add(channel);
+        long length = recordOffset(recordsPerSegment);
+        if (!create && channel.size() != length) {
+            throw new IOException("Segment " + path + " has " + channel.size() + " bytes, expected " + length);
+        }
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        if (create) {
+            segment.putInt(0, MAGIC);
+            segment.putInt(4, HistogramCodec.VERSION);
+            segment.putInt(8, HistogramCodec.RECORD_SIZE);
+            segment.putInt(12, recordsPerSegment);
+            segment.putInt(COUNT_OFFSET, 0);
+        } else if (segment.getInt(0) != MAGIC || segment.getInt(4) != HistogramCodec.VERSION
+                || segment.getInt(8) != HistogramCodec.RECORD_SIZE || segment.getInt(12) != recordsPerSegment
+                || segment.getInt(COUNT_OFFSET) < 0 || segment.getInt(COUNT_OFFSET) > recordsPerSegment) {
+            throw new IOException("Segment " + path + " is not a histogram store segment of " + recordsPerSegment
+                    + " records");
+        }
+        segments.add(segment);
+        mapped = segments.toArray(new MappedByteBuffer[segments.size()]);
+        return segment;
+    }
+
+    /**
+     * Gets the path of a segment.
+     *
+     * @param index the segment index
+     * @return the path
+     */
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("segment-%05d.hst", index));
+    }
+
+    /**
+     * Gets the offset of a record in its segment.
+     *
+     * @param record the record within the segment
+     * @return the offset
+     */
+    private static int recordOffset(int record) {
+        return SEGMENT_HEADER + record * HistogramCodec.RECORD_SIZE;
+    }
+
+    /**
+     * Checks that a histogram exists.
+     *
+     * @param index the index
+     */
+    private void checkIndex(long index) {
+        checkOpen();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No histogram " + index + " in a store of " + size);
+        }
+    }
+
+    /**
+     * Checks that the store was not closed.
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The histogram store " + directory + " is closed");
+        }
+    }
+}
@@ -1,7 +1,16 @@
 package net.fernandezgodinho.histogrammer;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import net.fernandezgodinho.histogrammer.HistogramMetrics.Phase;
 
 /**
  * The Class Histogrammer. Simple class to calculate an image histogram.
@@ -10,7 +19,7 @@ import java.util.Arrays;
  */
 public class Histogrammer {
     /** The Constant OPAQUE. ARGB*/
-    private final static int OPAQUE = 0xFF000000;
+    final static int OPAQUE = 0xFF000000;
     
     /** The Constant RED_COLOR. ARGB */
     private final static int RED_COLOR = 0x00FF0000;
@@ -22,22 +31,34 @@ public class Histogrammer {
     private final static int BLUE_COLOR = 0x000000FF;
     
     /** The Constant COLOR_RANGE. */
-    private final static int COLOR_RANGE = 256;
+    final static int COLOR_RANGE = 256;
     
     /** The Constant BYTE_MASK. */
-    private final static int BYTE_MASK = 0xFF;
+    final static int BYTE_MASK = 0xFF;
     
     /** The Constant ALPHA_SHIFT. */
-    private final static int ALPHA_SHIFT = 24;
+    final static int ALPHA_SHIFT = 24;
     
     /** The Constant RED_SHIFT. */
-    private final static int RED_SHIFT = 16;
+    final static int RED_SHIFT = 16;
     
     /** The Constant GREEN_SHIFT. */
-    private final static int GREEN_SHIFT = 8;
+    final static int GREEN_SHIFT = 8;
     
     /** The Constant BLUE_SHIFT. */
-    private final static int BLUE_SHIFT = 0;
+    final static int BLUE_SHIFT = 0;
+    
+    /** The Constant BACKGROUND_COLOR. ARGB grey behind the histogram lines. */
+    private final static int BACKGROUND_COLOR = OPAQUE | 
+            (RED_COLOR - (100 << RED_SHIFT)) |
+            (GREEN_COLOR - (100 << GREEN_SHIFT)) | 
+            (BLUE_COLOR - (100 << BLUE_SHIFT));
+    
+    /** The Constant DEFAULT_PARALLEL_THRESHOLD. Images with fewer pixels are counted sequentially. */
+    public final static long DEFAULT_PARALLEL_THRESHOLD = 1 << 20;
+    
+    /** The Constant MIN_BAND_PIXELS. Smallest number of pixels counted by a single parallel task. */
+    private final static int MIN_BAND_PIXELS = 1 << 16;
     
     /** The image. */
     private BufferedImage image;
@@ -48,6 +69,18 @@ public class Histogrammer {
     /** The img height. */
     private int imgHeight;
     
+    /** The kernel used to count the image pixels, picked once for the image type. */
+    private HistogramKernel kernel;
+    
+    /** The layout of the raw frames counted, null when counting an image. */
+    private FrameLayout frameLayout;
+    
+    /** The parallel threshold. Minimum number of pixels for calcHistogram(ForkJoinPool) to go parallel. */
+    private long parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    
+    /** The subsampling. Only one pixel in every subsampling by subsampling block was counted. */
+    private int subsampling = 1;
+    
     /**
      * The histogram. First dimension represents ARGB values, second dimension represents
      * range of colors.
@@ -60,6 +93,15 @@ public class Histogrammer {
      */
     private int[][] percentageHistogram;
     
+    /** Whether the percentage histogram matches the current histogram. */
+    private boolean percentageValid;
+    
+    /** The statistics of the histogram. */
+    private HistogramStatistics statistics;
+    
+    /** Whether the statistics match the current histogram. */
+    private boolean statisticsValid;
+    
     /**
      * Instantiates a new histogrammer. Receives a BufferedImage, sets image width and height
      * and initializes histogram array to 0.
@@ -70,23 +112,298 @@ public class Histogrammer {
         this.image = image;
         this.imgWidth = this.image.getWidth();
         this.imgHeight = this.image.getHeight();
+        this.kernel = HistogramKernel.forImage(this.image);
         for (int[] color : histogram) { Arrays.fill(color, 0); }
     }
     
+    /**
+     * Instantiates a new histogrammer without an image, for histograms accumulated piece by piece from
+     * tiles of an image with the given width and height.
+     *
+     * @param imgWidth the img width
+     * @param imgHeight the img height
+     */
+    Histogrammer(int imgWidth, int imgHeight) {
+        this.imgWidth = imgWidth;
+        this.imgHeight = imgHeight;
+    }
+    
+    /**
+     * Instantiates a new histogrammer of raw frames held in ByteBuffers, such as RGBA or YUV 4:2:0
+     * frames in memory-mapped files, with the given layout. Percentages are relative to the size of
+     * one frame.
+     *
+     * @param frameLayout the frame layout
+     */
+    public Histogrammer(FrameLayout frameLayout) {
+        this(frameLayout.getWidth(), frameLayout.getHeight());
+        this.frameLayout = frameLayout;
+    }
+    
     /**
      * Calculates the histogram of the image given in the constructor. For each pixel, gets its
-     * ARGB value and increments the corresponding histogram array position.
+     * ARGB value and increments the corresponding histogram array position. Common image types are
+     * read straight from their raster, any other type goes through the image ColorModel like getRGB.
      */
     public void calcHistogram() {
-        for (int h = 0; h < imgHeight; h++) {
-            for (int w = 0; w < imgWidth; w++) {
-                int pixel = image.getRGB(w, h);
-                histogram[0][BYTE_MASK & (pixel >> ALPHA_SHIFT)]++; // ALPHA
-                histogram[1][BYTE_MASK & (pixel >> RED_SHIFT)]++;   // RED
-                histogram[2][BYTE_MASK & (pixel >> GREEN_SHIFT)]++; // GREEN
-                histogram[3][BYTE_MASK & (pixel >> BLUE_SHIFT)]++;  // BLUE
-            }
+        checkImage();
+        HistogramEvent event = HistogramEvent.start();
+        kernel.count(image.getRaster(), image.getColorModel(), 0, 0, imgWidth, imgHeight, histogram);
+        histogramChanged();
+        finish(event, Phase.COUNT, imgWidth, imgHeight);
+    }
+    
+    /**
+     * Calculates the histogram of the image given in the constructor and adds its pixels to joint
+     * histograms, in a single pass. Each row is read once into a buffer and counted into the channel
+     * histograms and every joint histogram from there, so the channel histograms are the same as
+     * calcHistogram() gives.
+     *
+     * @param joints the joint histograms to add to
+     */
+    public void calcHistogram(JointHistogram... joints) {
+        checkImage();
+        HistogramEvent event = HistogramEvent.start();
+        Raster raster = image.getRaster();
+        int[] row = new int[imgWidth];
+        for (int y = 0; y < imgHeight; y++) {
+            kernel.read(raster, image.getColorModel(), 0, y, imgWidth, 1, row);
+            for (int pixel : row) { HistogramKernel.fold(histogram, pixel, 1); }
+            for (JointHistogram joint : joints) { joint.add(row, imgWidth); }
+        }
+        histogramChanged();
+        finish(event, Phase.COUNT, imgWidth, imgHeight);
+    }
+    
+    /**
+     * Calculates the histogram of the pixels of the image selected by a bitmask, without copying them
+     * out. Pixel x of row y is selected by bit x % 64 of word y * ((width + 63) / 64) + x / 64, each row
+     * starting on a new word. Words that are 0 are skipped without reading their 64 pixels, and runs
+     * of words that are all ones are counted like calcHistogram() counts a whole image. Percentages
+     * stay relative to the size of the whole image.
+     *
+     * @param mask the mask, at least (width + 63) / 64 * height words
+     */
+    public void calcMaskedHistogram(long[] mask) {
+        checkImage();
+        HistogramEvent event = HistogramEvent.start();
+        MaskCounter.count(kernel, image.getRaster(), image.getColorModel(), mask, histogram);
+        histogramChanged();
+        finish(event, Phase.COUNT, imgWidth, imgHeight);
+    }
+    
+    /**
+     * Calculates the histogram of the pixels of the image where the first band of a mask raster is not
+     * 0, such as the raster of a TYPE_BYTE_BINARY image. One bit per pixel rasters are turned into
+     * words eight pixels at a time and counted as calcMaskedHistogram(long[]) counts.
+     *
+     * @param mask the mask, at least as large as the image, its top left corner over the image's
+     */
+    public void calcMaskedHistogram(Raster mask) {
+        checkImage();
+        HistogramEvent event = HistogramEvent.start();
+        MaskCounter.count(kernel, image.getRaster(), image.getColorModel(), mask, histogram);
+        histogramChanged();
+        finish(event, Phase.COUNT, imgWidth, imgHeight);
+    }
+    
+    /**
+     * Calculates the histogram of the image as calcHistogram() does and, in the same pass, a histogram
+     * where each pixel weighs its alpha as a fraction, alpha / 255, so fully transparent pixels do not
+     * count and half transparent ones count half. Images without alpha weigh every pixel 1.
+     *
+     * @return the alpha weighted histogram, double[4][256] with the same channels as the histogram
+     */
+    public double[][] calcAlphaWeightedHistogram() {
+        checkImage();
+        HistogramEvent event = HistogramEvent.start();
+        long[][] sums = new long[4][COLOR_RANGE];
+        MaskCounter.countWeighted(kernel, image.getRaster(), image.getColorModel(), histogram, sums);
+        histogramChanged();
+        finish(event, Phase.COUNT, imgWidth, imgHeight);
+        double[][] weighted = new double[4][COLOR_RANGE];
+        for (int c = 0; c < 4; c++) {
+            for (int v = 0; v < COLOR_RANGE; v++) { weighted[c][v] = sums[c][v] / (double) BYTE_MASK; }
         }
+        return weighted;
+    }
+    
+    /**
+     * Calculates the histogram of the image given in the constructor on the given pool. The image is
+     * split into bands of rows, each band is counted into its own histogram and the partial histograms
+     * are summed once every band is done, so the result is identical to calcHistogram(). Images with
+     * fewer pixels than the parallel threshold are counted sequentially on the calling thread.
+     *
+     * @param pool the pool
+     */
+    public void calcHistogram(ForkJoinPool pool) {
+        checkImage();
+        if ((long) imgWidth * imgHeight < parallelThreshold) {
+            calcHistogram();
+            return;
+        }
+        HistogramEvent event = HistogramEvent.start();
+        int[][] partial = pool.invoke(new BandTask(0, imgHeight, rowsPerBand(pool)));
+        for (int i = 0; i < histogram.length; i++) {
+            for (int j = 0; j < COLOR_RANGE; j++) { histogram[i][j] += partial[i][j]; }
+        }
+        histogramChanged();
+        finish(event, Phase.COUNT, imgWidth, imgHeight);
+    }
+    
+    /**
+     * Adds the pixels of a raw frame laid out as given in the constructor to the histogram. They are
+     * read straight from the buffer, which is neither copied nor changed, not even its position.
+     * Packed frames are counted as stored; YUV frames are converted to RGB as FrameLayout describes
+     * and count as opaque.
+     *
+     * @param frame the frame, at least FrameLayout.getFrameSize() bytes up to its limit
+     */
+    public void calcHistogram(ByteBuffer frame) {
+        checkFrameLayout();
+        HistogramEvent event = HistogramEvent.start();
+        frameLayout.count(frame, histogram);
+        histogramChanged();
+        finish(event, Phase.COUNT, imgWidth, imgHeight);
+    }
+    
+    /**
+     * Adds the luma of every pixel of a raw frame to a luma histogram, leaving the ARGB histogram as it
+     * is. For YUV frames this reads the Y plane alone, eight samples at a time, and is several times
+     * faster than calcHistogram(ByteBuffer); for packed frames luma is computed from red, green and
+     * blue with the BT.601 weights in 16 bit fixed point, (19595 R + 38470 G + 7471 B + 32768) >> 16.
+     *
+     * @param frame the frame, at least FrameLayout.getFrameSize() bytes up to its limit
+     * @param luma the luma histogram to add to, 256 counts
+     */
+    public void calcLumaHistogram(ByteBuffer frame, int[] luma) {
+        checkFrameLayout();
+        HistogramEvent event = HistogramEvent.start();
+        frameLayout.countLuma(frame, luma);
+        finish(event, Phase.COUNT, imgWidth, imgHeight);
+    }
+    
+    /**
+     * Points the histogrammer at a new image and clears the histogram, reusing its arrays. Together
+     * with calcHistogram() and getHistogramAsImage(int, BufferedImage) this lets one instance process a
+     * stream of frames without allocating per frame.
+     *
+     * @param image the image
+     */
+    public void reset(BufferedImage image) {
+        this.image = image;
+        this.imgWidth = image.getWidth();
+        this.imgHeight = image.getHeight();
+        this.kernel = HistogramKernel.forImage(image);
+        this.frameLayout = null;
+        reset();
+    }
+    
+    /**
+     * Clears the histogram in place, keeping the image, for example when new pixels were written into
+     * the same image.
+     */
+    public void reset() {
+        for (int[] color : histogram) { Arrays.fill(color, 0); }
+        subsampling = 1;
+        histogramChanged();
+    }
+    
+    /**
+     * Adds the pixels of a raster to the histogram. The raster must be laid out like the raster of the
+     * image the histogrammer was created with or last reset to, such as a child raster of it or the
+     * raster of another frame of the same type; it is read with that image's ColorModel. Percentages
+     * stay relative to the size of that image.
+     *
+     * @param raster the raster
+     */
+    public void accumulate(Raster raster) {
+        checkImage();
+        HistogramEvent event = HistogramEvent.start();
+        HistogramKernel rasterKernel = kernel.supports(raster) ? kernel : HistogramKernel.GENERIC;
+        rasterKernel.count(raster, image.getColorModel(), raster.getMinX(), raster.getMinY(),
+                raster.getWidth(), raster.getHeight(), histogram);
+        histogramChanged();
+        event.finish(Phase.COUNT, image.getType(), raster.getWidth(), raster.getHeight(),
+                (long) raster.getWidth() * raster.getHeight(), rasterKernel.name());
+    }
+    
+    /**
+     * Adds the top left width by height pixels of a tile to the histogram.
+     *
+     * @param tile the tile
+     * @param width the width to count
+     * @param height the height to count
+     */
+    void accumulate(BufferedImage tile, int width, int height) {
+        HistogramEvent event = HistogramEvent.start();
+        HistogramKernel tileKernel = HistogramKernel.forImage(tile);
+        tileKernel.count(tile.getRaster(), tile.getColorModel(), 0, 0, width, height, histogram);
+        histogramChanged();
+        event.finish(Phase.COUNT, tile.getType(), width, height, (long) width * height, tileKernel.name());
+    }
+    
+    /**
+     * Scales counts of a subsampled image back up to the full image size. Each count is multiplied
+     * by the ratio of image pixels to sampled pixels and rounded.
+     *
+     * @param subsampling the subsampling period used
+     * @param sampledPixels the number of pixels counted
+     */
+    void scaleSubsampled(int subsampling, long sampledPixels) {
+        this.subsampling = subsampling;
+        if (sampledPixels == 0) { return; }
+        double ratio = (double) imgWidth * imgHeight / sampledPixels;
+        for (int[] color : histogram) {
+            for (int i = 0; i < COLOR_RANGE; i++) { color[i] = (int) Math.round(color[i] * ratio); }
+        }
+        histogramChanged();
+    }
+    
+    /**
+     * Gets the subsampling. 1 for exact histograms, otherwise the period in both directions of the
+     * pixels that were counted and scaled up to the image size.
+     *
+     * @return the subsampling
+     */
+    public int getSubsampling() {
+        return subsampling;
+    }
+    
+    /**
+     * Gets the parallel threshold.
+     *
+     * @return the minimum number of pixels for calcHistogram(ForkJoinPool) to run in parallel
+     */
+    public long getParallelThreshold() {
+        return parallelThreshold;
+    }
+    
+    /**
+     * Sets the parallel threshold. Defaults to DEFAULT_PARALLEL_THRESHOLD.
+     *
+     * @param parallelThreshold the minimum number of pixels for calcHistogram(ForkJoinPool) to run in parallel
+     */
+    public void setParallelThreshold(long parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+    
+    /**
+     * Gets the image the histogram is calculated from, null for histograms read from tiles.
+     *
+     * @return the image
+     */
+    BufferedImage getImage() {
+        return image;
+    }
+    
+    /**
+     * Gets the number of pixels of the image, which the percentages are relative to.
+     *
+     * @return the pixel count
+     */
+    long getPixelCount() {
+        return (long) imgWidth * imgHeight;
     }
     
     /**
@@ -100,78 +417,321 @@ public class Histogrammer {
     
     /**
      * Gets the percentage histogram. Creates a percentage histogram on the first call, returns the already
-     * calculated percentage histogram on subsequent calls.
+     * calculated percentage histogram on subsequent calls until the histogram changes. It is then
+     * recalculated into the same arrays.
      *
      * @return the percentage histogram
      */
     public int[][] getPercentageHistogram() {
         if (percentageHistogram == null) {
             percentageHistogram = new int[4][COLOR_RANGE];
+        }
+        if (!percentageValid) {
+            HistogramEvent event = HistogramEvent.start();
+            long pixels = getPixelCount();
             for (int i = 0; i < COLOR_RANGE; i++) {
-                percentageHistogram[0][i] = (int) Math.round(histogram[0][i] * 100.0 / (imgHeight * imgWidth));
-                percentageHistogram[1][i] = (int) Math.round(histogram[1][i] * 100.0 / (imgHeight * imgWidth));
-                percentageHistogram[2][i] = (int) Math.round(histogram[2][i] * 100.0 / (imgHeight * imgWidth));
-                percentageHistogram[3][i] = (int) Math.round(histogram[3][i] * 100.0 / (imgHeight * imgWidth));
-            }    
+                percentageHistogram[0][i] = (int) Math.round(histogram[0][i] * 100.0 / pixels);
+                percentageHistogram[1][i] = (int) Math.round(histogram[1][i] * 100.0 / pixels);
+                percentageHistogram[2][i] = (int) Math.round(histogram[2][i] * 100.0 / pixels);
+                percentageHistogram[3][i] = (int) Math.round(histogram[3][i] * 100.0 / pixels);
+            }
+            percentageValid = true;
+            finish(event, Phase.PERCENTAGE, imgWidth, imgHeight);
         }
         return percentageHistogram;
     }
     
+    /**
+     * Gets the statistics of each channel of the histogram. They are derived on the first call and
+     * returned from then on until the histogram changes, when they are derived again into the same
+     * object.
+     *
+     * @return the statistics
+     */
+    public HistogramStatistics getStatistics() {
+        if (statistics == null) {
+            statistics = new HistogramStatistics(histogram);
+        } else if (!statisticsValid) {
+            statistics.compute(histogram);
+        }
+        statisticsValid = true;
+        return statistics;
+    }
+    
+    /**
+     * Gets the global equalisation lookup table of the histogram. In each colour channel value v maps
+     * to its cumulative count, less that of the smallest value present, scaled to 0 to 255, so the
+     * values in the image spread over the whole range in proportion to how often they occur. Alpha
+     * maps to itself.
+     *
+     * @return the table, int[4][256] like the histogram
+     */
+    public int[][] getEqualizationLut() {
+        return Equalizer.equalization(histogram);
+    }
+    
+    /**
+     * Gets the contrast stretch lookup table of the histogram. In each colour channel the values below
+     * the clip percentile become 0, those above the complementary percentile 255 and those between
+     * are spread linearly over 0 to 255. Alpha maps to itself.
+     *
+     * @param clipPercentile the percentile clipped at each end, from 0 to less than 50, 0 stretching
+     *            from the smallest to the largest value present
+     * @return the table, int[4][256] like the histogram
+     */
+    public int[][] getStretchLut(double clipPercentile) {
+        return Equalizer.stretch(getStatistics(), clipPercentile);
+    }
+    
+    /**
+     * Maps every pixel of the image through a lookup table, in place. TYPE_INT_ARGB, TYPE_INT_RGB,
+     * TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR images are rewritten straight in their DataBuffer, split into
+     * bands of rows on the pool when they have at least the parallel threshold of pixels; any other
+     * type goes through getRGB and setRGB on the calling thread. The histogram is left as it was,
+     * reset() and calcHistogram() give the histogram of the result.
+     *
+     * @param lut the table, int[4][256] of values from 0 to 255 for alpha, red, green and blue
+     * @param pool the pool, null to run on the calling thread
+     */
+    public void applyLut(int[][] lut, ForkJoinPool pool) {
+        checkImage();
+        Equalizer.check(lut);
+        ForkJoinPool bandPool = applyPool(pool);
+        Equalizer.apply(image, kernel, lut, bandPool, rowsPerBand(bandPool));
+    }
+    
+    /**
+     * Equalises the image in place with the global equalisation table of the histogram, which must
+     * have been calculated.
+     *
+     * @param pool the pool, null to run on the calling thread
+     * @see #getEqualizationLut()
+     * @see #applyLut(int[][], ForkJoinPool)
+     */
+    public void equalize(ForkJoinPool pool) {
+        applyLut(getEqualizationLut(), pool);
+    }
+    
+    /**
+     * Stretches the contrast of the image in place with the stretch table of the histogram, which must
+     * have been calculated.
+     *
+     * @param clipPercentile the percentile clipped at each end, from 0 to less than 50
+     * @param pool the pool, null to run on the calling thread
+     * @see #getStretchLut(double)
+     * @see #applyLut(int[][], ForkJoinPool)
+     */
+    public void stretch(double clipPercentile, ForkJoinPool pool) {
+        applyLut(getStretchLut(clipPercentile), pool);
+    }
+    
+    /**
+     * Equalises the image in place with contrast limited adaptive histogram equalisation (CLAHE). The
+     * image is split into a grid of tiles, each tile gets its own equalisation table from its own
+     * histogram clipped at clipLimit times the mean bin count, and every pixel is mapped through the
+     * tables of the four nearest tiles, interpolated bilinearly. Tile histograms and the mapping are
+     * both split across the pool like applyLut. Alpha is left as it is and so is the histogram, which
+     * is not used.
+     *
+     * @param tilesX the tiles across, 8 is common
+     * @param tilesY the tiles down, 8 is common
+     * @param clipLimit the clip limit relative to the mean bin count, 2 to 4 is common, 0 or less for
+     *            no limit
+     * @param pool the pool, null to run on the calling thread
+     */
+    public void equalizeAdaptive(int tilesX, int tilesY, double clipLimit, ForkJoinPool pool) {
+        checkImage();
+        ForkJoinPool bandPool = applyPool(pool);
+        Equalizer.equalizeAdaptive(image, kernel, tilesX, tilesY, clipLimit, bandPool, rowsPerBand(bandPool));
+    }
+    
+    /**
+     * Gets the pool to rewrite the image on, null if it is below the parallel threshold.
+     *
+     * @param pool the pool
+     * @return the pool or null
+     */
+    private ForkJoinPool applyPool(ForkJoinPool pool) {
+        return (long) imgWidth * imgHeight < parallelThreshold ? null : pool;
+    }
+    
+    /**
+     * Gets the rows per band to split the image into on a pool, as calcHistogram(ForkJoinPool) does.
+     *
+     * @param pool the pool, null for a single band of every row
+     * @return the rows per band
+     */
+    private int rowsPerBand(ForkJoinPool pool) {
+        if (pool == null) { return Math.max(1, imgHeight); }
+        return Math.max(Math.max(1, MIN_BAND_PIXELS / imgWidth), imgHeight / (pool.getParallelism() * 4));
+    }
+    
+    /**
+     * Invalidates everything derived from the histogram. Called whenever the histogram changes.
+     */
+    private void histogramChanged() {
+        percentageValid = false;
+        statisticsValid = false;
+    }
+    
+    /**
+     * Checks that the histogrammer was created for raw frames.
+     */
+    private void checkFrameLayout() {
+        if (frameLayout == null) {
+            throw new IllegalStateException("The histogram was not created for raw frames");
+        }
+    }
+    
+    /**
+     * Checks that there is an image to calculate the histogram of.
+     */
+    private void checkImage() {
+        if (image == null) {
+            throw new IllegalStateException("The histogram was not created from an image");
+        }
+    }
+    
     /**
      * Gets the histogram as image.
      *
+     * @param scale the scale
      * @return the histogram as image
      */
     public BufferedImage getHistogramAsImage(int scale) {
+        return getHistogramAsImage(scale,
+                new BufferedImage(COLOR_RANGE * scale, 100/*%*/ * scale, BufferedImage.TYPE_INT_ARGB));
+    }
+    
+    /**
+     * Renders the histogram into the given image, which must be a TYPE_INT_ARGB image of 256 * scale by
+     * 100 * scale pixels. Every pixel is overwritten, so the same image can be reused for each frame
+     * without allocating. Pixels are written straight into the image raster: the background is filled
+     * grey row by row and each percentage line is then drawn over it, combining the colors of the
+     * channels that land on the same pixel.
+     *
+     * @param scale the scale
+     * @param image the image to render into
+     * @return the image
+     */
+    public BufferedImage getHistogramAsImage(int scale, BufferedImage image) {
         int width = COLOR_RANGE * scale;
         int height = 100/*%*/ * scale;
-        BufferedImage image = new BufferedImage(COLOR_RANGE * scale, 100/*%*/ * scale, BufferedImage.TYPE_INT_ARGB);
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB || !HistogramKernel.INT_ARGB.supports(image.getRaster())
+                || image.getWidth() != width || image.getHeight() != height) {
+            throw new IllegalArgumentException("Expected a " + width + "x" + height + " TYPE_INT_ARGB image");
+        }
+        HistogramEvent event = HistogramEvent.start();
+        WritableRaster raster = image.getRaster();
+        int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+        int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        int origin = HistogramKernel.offset(raster, 0, 0, stride, 1);
         int[][] histogram = getPercentageHistogram();
-        int[] colorArr = new int[scale];
         
-        for (int i = 0, correctY, currPixel; i < COLOR_RANGE; i++) {
-            // OPAQUE
-            correctY = (100 - histogram[0][i]) * scale;
-            if (correctY == 100 * scale) { correctY--; }
-            currPixel = image.getRGB(i * scale, correctY);
-            Arrays.fill(colorArr, OPAQUE | currPixel);
-            image.setRGB(i * scale, correctY, scale, 1, colorArr, 0, scale);
-            // RED
-            correctY = (100 - histogram[1][i]) * scale;
-            if (correctY == 100 * scale) { correctY--; }
-            currPixel = image.getRGB(i * scale, correctY);
-            Arrays.fill(colorArr, OPAQUE | RED_COLOR | currPixel);
-            image.setRGB(i * scale, correctY, scale, 1, colorArr, 0, scale);
-            // GREEN
-            correctY = (100 - histogram[2][i]) * scale;
-            if (correctY == 100 * scale) { correctY--; }
-            currPixel = image.getRGB(i * scale, correctY);
-            Arrays.fill(colorArr, OPAQUE | GREEN_COLOR | currPixel);
-            image.setRGB(i * scale, correctY, scale, 1, colorArr, 0, scale);
-            // BLUE
-            correctY = (100 - histogram[3][i]) * scale;
-            if (correctY == 100 * scale) { correctY--; }
-            currPixel = image.getRGB(i * scale, correctY);
-            Arrays.fill(colorArr, OPAQUE | BLUE_COLOR | currPixel);
-            image.setRGB(i * scale, correctY, scale, 1, colorArr, 0, scale);
+        // Fill with grey
+        for (int h = 0, row = origin; h < height; h++, row += stride) {
+            Arrays.fill(data, row, row + width, BACKGROUND_COLOR);
         }
         
-        // Fill the rest with grey
-        for (int h = 0; h < height; h++) {
-            for (int w = 0, currPixel; w < width; w++) {
-                currPixel = image.getRGB(w, h);
-                if (currPixel == 0) {
-                    image.setRGB(w, h, OPAQUE | 
-                            (RED_COLOR - (100 << RED_SHIFT)) |
-                            (GREEN_COLOR - (100 << GREEN_SHIFT)) | 
-                            (BLUE_COLOR - (100 << BLUE_SHIFT)));
-                }
-            }
+        for (int i = 0, y0, y1, y2, y3; i < COLOR_RANGE; i++) {
+            y0 = lineY(histogram[0][i], scale); // OPAQUE
+            y1 = lineY(histogram[1][i], scale); // RED
+            y2 = lineY(histogram[2][i], scale); // GREEN
+            y3 = lineY(histogram[3][i], scale); // BLUE
+            int from = origin + i * scale;
+            Arrays.fill(data, from + y0 * stride, from + y0 * stride + scale, OPAQUE
+                    | (y0 == y1 ? RED_COLOR : 0) | (y0 == y2 ? GREEN_COLOR : 0) | (y0 == y3 ? BLUE_COLOR : 0));
+            Arrays.fill(data, from + y1 * stride, from + y1 * stride + scale, OPAQUE
+                    | RED_COLOR | (y1 == y2 ? GREEN_COLOR : 0) | (y1 == y3 ? BLUE_COLOR : 0));
+            Arrays.fill(data, from + y2 * stride, from + y2 * stride + scale, OPAQUE
+                    | (y2 == y1 ? RED_COLOR : 0) | GREEN_COLOR | (y2 == y3 ? BLUE_COLOR : 0));
+            Arrays.fill(data, from + y3 * stride, from + y3 * stride + scale, OPAQUE
+                    | (y3 == y1 ? RED_COLOR : 0) | (y3 == y2 ? GREEN_COLOR : 0) | BLUE_COLOR);
         }
+        finish(event, Phase.RENDER, width, height);
         return image;
     }
     
+    /**
+     * Ends an instrumented phase, describing the image or frames being histogrammed.
+     *
+     * @param event the event started with the phase
+     * @param phase the phase
+     * @param width the width of the pixels processed
+     * @param height the height of the pixels processed
+     */
+    private void finish(HistogramEvent event, Phase phase, int width, int height) {
+        String source = image != null ? kernel.name() : frameLayout != null ? frameLayout.getFormat().name() : null;
+        event.finish(phase, image != null ? image.getType() : BufferedImage.TYPE_CUSTOM, width, height,
+                (long) width * height, source);
+    }
+    
+    /**
+     * Row of the line of a percentage. 100% is drawn on the top row and 0% on the bottom one.
+     *
+     * @param percentage the percentage
+     * @param scale the scale
+     * @return the row
+     */
+    private static int lineY(int percentage, int scale) {
+        int correctY = (100 - percentage) * scale;
+        if (correctY == 100 * scale) { correctY--; }
+        return correctY;
+    }
+    
     public BufferedImage getHistogramAsImage() {
         return this.getHistogramAsImage(1);
     }
+    
+    /**
+     * The Class BandTask. Counts a band of rows into its own histogram, splitting it in two while it
+     * has more rows than a single band.
+     */
+    private class BandTask extends RecursiveTask<int[][]> {
+        /** The Constant serialVersionUID. */
+        private static final long serialVersionUID = 1L;
+        
+        /** The first row. */
+        private final int fromRow;
+        
+        /** The row after the last. */
+        private final int toRow;
+        
+        /** The rows per band. */
+        private final int rowsPerBand;
+        
+        /**
+         * Instantiates a new band task.
+         *
+         * @param fromRow the first row
+         * @param toRow the row after the last
+         * @param rowsPerBand the rows per band
+         */
+        BandTask(int fromRow, int toRow, int rowsPerBand) {
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.rowsPerBand = rowsPerBand;
+        }
+        
+        /* (non-Javadoc)
+         * @see java.util.concurrent.RecursiveTask#compute()
+         */
+        @Override
+        protected int[][] compute() {
+            if (toRow - fromRow <= rowsPerBand) {
+                int[][] partial = new int[4][COLOR_RANGE];
+                kernel.count(image.getRaster(), image.getColorModel(), 0, fromRow, imgWidth, toRow - fromRow, partial);
+                return partial;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            BandTask upper = new BandTask(fromRow, middle, rowsPerBand);
+            upper.fork();
+            int[][] partial = new BandTask(middle, toRow, rowsPerBand).compute();
+            int[][] upperPartial = upper.join();
+            for (int i = 0; i < partial.length; i++) {
+                for (int j = 0; j < COLOR_RANGE; j++) { partial[i][j] += upperPartial[i][j]; }
+            }
+            return partial;
+        }
+    }
 }
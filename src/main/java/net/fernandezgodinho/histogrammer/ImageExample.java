@@ -1,6 +1,5 @@
 package net.fernandezgodinho.histogrammer;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 
@@ -9,9 +8,7 @@ import javax.imageio.ImageIO;
 public class ImageExample {
 
     public static void main(String[] args) throws IOException {
-        BufferedImage image = ImageIO.read(new File("res/image.jpg"));
-        Histogrammer histo = new Histogrammer(image);
-        histo.calcHistogram();
+        Histogrammer histo = new TiledHistogramReader().read(new File("res/image.jpg"));
         ImageIO.write(histo.getHistogramAsImage(2), "png", new File("res/histogram.png"));
     }
 }
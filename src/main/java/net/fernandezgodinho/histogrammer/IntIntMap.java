@@ -0,0 +1,152 @@
+package net.fernandezgodinho.histogrammer;
+
+import java.util.Arrays;
+
+/**
+ * The Class IntIntMap. Open addressing hash map from non-negative int keys to int counts, with
+ * linear probing and no boxing. Slots are iterated by index from 0 to capacity(), empty slots having
+ * the key -1.
+ *
+ * @author Joao Godinho
+ */
+class IntIntMap {
+    /** The Constant EMPTY. Key of empty slots. */
+    private final static int EMPTY = -1;
+
+    /** The Constant MIN_CAPACITY. */
+    private final static int MIN_CAPACITY = 16;
+
+    /** The keys. */
+    private int[] keys;
+
+    /** The values. */
+    private int[] values;
+
+    /** The capacity minus one, capacities being powers of two. */
+    private int mask;
+
+    /** The number of keys. */
+    private int size;
+
+    /**
+     * Instantiates a new empty map.
+     */
+    IntIntMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Adds to the value of a key, inserting it with value 0 first if absent.
+     *
+     * @param key the key, not negative
+     * @param delta the amount to add
+     */
+    void add(int key, int delta) {
+        int slot = slot(key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            values[slot] = delta;
+            // keep the load at most one half so probes stay short
+            if (++size > (mask + 1) >> 1) { grow(); }
+        } else {
+            values[slot] += delta;
+        }
+    }
+
+    /**
+     * Gets the value of a key.
+     *
+     * @param key the key
+     * @return the value, 0 if absent
+     */
+    int get(int key) {
+        int slot = slot(key);
+        return keys[slot] == EMPTY ? 0 : values[slot];
+    }
+
+    /**
+     * Gets the number of keys.
+     *
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of slots.
+     *
+     * @return the capacity
+     */
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Gets the key of a slot.
+     *
+     * @param slot the slot
+     * @return the key, -1 for an empty slot
+     */
+    int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Gets the value of a slot.
+     *
+     * @param slot the slot
+     * @return the value
+     */
+    int valueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Removes every key, keeping the capacity.
+     */
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Finds the slot of a key, or the empty slot where it would go.
+     *
+     * @param key the key
+     * @return the slot
+     */
+    private int slot(int key) {
+        int hash = key * 0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) { slot = (slot + 1) & mask; }
+        return slot;
+    }
+
+    /**
+     * Doubles the capacity, reinserting every key.
+     */
+    private void grow() {
+        int[] oldKeys = keys, oldValues = values;
+        allocate(2 * (mask + 1));
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Allocates empty slots.
+     *
+     * @param capacity the capacity, a power of two
+     */
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+}
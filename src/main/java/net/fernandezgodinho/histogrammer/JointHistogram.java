@@ -0,0 +1,284 @@
+package net.fernandezgodinho.histogrammer;
+
+import static net.fernandezgodinho.histogrammer.Histogrammer.BYTE_MASK;
+import static net.fernandezgodinho.histogrammer.Histogrammer.COLOR_RANGE;
+import static net.fernandezgodinho.histogrammer.Histogrammer.GREEN_SHIFT;
+import static net.fernandezgodinho.histogrammer.Histogrammer.RED_SHIFT;
+
+import java.util.Arrays;
+
+/**
+ * The Class JointHistogram. Three dimensional histogram of quantised colours, such as 8x8x8 RGB or
+ * HxSxV bins, filled by Histogrammer.calcHistogram(JointHistogram) in the same pass over the pixels as
+ * the 1D channel histograms. Alpha is ignored, every pixel is counted.
+ *
+ * RGB components are quantised to value * bins / 256. HSV components are computed as
+ * java.awt.Color.RGBtoHSB does and quantised to (int) (component * bins), hue 1.0 and saturation or
+ * brightness 1.0 falling in the last bin.
+ *
+ * Up to DENSE_CELLS cells are counted in a plain array. Larger histograms, such as 64x64x64, are
+ * stored sparsely in an open addressing int to int map holding only the cells that occur, which for
+ * photographs are a small fraction of the whole.
+ *
+ * @author Joao Godinho
+ */
+public class JointHistogram {
+    /** The Constant DENSE_CELLS. Largest number of cells stored in a plain array. */
+    public final static int DENSE_CELLS = 1 << 15;
+
+    /**
+     * The Enum Space. Colour space of the three dimensions.
+     */
+    public enum Space {
+        /** Red, green, blue. */
+        RGB,
+        /** Hue, saturation, value as in java.awt.Color.RGBtoHSB. */
+        HSV
+    }
+
+    /**
+     * The Interface Visitor. Receives the cells of a histogram.
+     */
+    public interface Visitor {
+        /**
+         * Called for each cell with a count other than 0.
+         *
+         * @param bin0 the bin of the first component, red or hue
+         * @param bin1 the bin of the second component, green or saturation
+         * @param bin2 the bin of the third component, blue or value
+         * @param count the count
+         */
+        void cell(int bin0, int bin1, int bin2, int count);
+    }
+
+    /** The colour space. */
+    private final Space space;
+
+    /** The bins of each component. */
+    private final int bins0, bins1, bins2;
+
+    /** The dense counts, null when sparse. */
+    private final int[] dense;
+
+    /** The sparse counts, null when dense. */
+    private final IntIntMap sparse;
+
+    /** The number of pixels counted. */
+    private long total;
+
+    /**
+     * Instantiates a new joint histogram with the same number of bins for each component.
+     *
+     * @param space the colour space
+     * @param bins the bins per component, 1 to 256
+     */
+    public JointHistogram(Space space, int bins) {
+        this(space, bins, bins, bins);
+    }
+
+    /**
+     * Instantiates a new joint histogram.
+     *
+     * @param space the colour space
+     * @param bins0 the bins of red or hue, 1 to 256
+     * @param bins1 the bins of green or saturation, 1 to 256
+     * @param bins2 the bins of blue or value, 1 to 256
+     */
+    public JointHistogram(Space space, int bins0, int bins1, int bins2) {
+        for (int bins : new int[] { bins0, bins1, bins2 }) {
+            if (bins < 1 || bins > COLOR_RANGE) {
+                throw new IllegalArgumentException("Bins must be from 1 to 256: " + bins);
+            }
+        }
+        this.space = space;
+        this.bins0 = bins0;
+        this.bins1 = bins1;
+        this.bins2 = bins2;
+        int cells = bins0 * bins1 * bins2;
+        this.dense = cells <= DENSE_CELLS ? new int[cells] : null;
+        this.sparse = cells <= DENSE_CELLS ? null : new IntIntMap();
+    }
+
+    /**
+     * Gets a count.
+     *
+     * @param bin0 the bin of red or hue
+     * @param bin1 the bin of green or saturation
+     * @param bin2 the bin of blue or value
+     * @return the count
+     */
+    public int getCount(int bin0, int bin1, int bin2) {
+        if (bin0 < 0 || bin0 >= bins0 || bin1 < 0 || bin1 >= bins1 || bin2 < 0 || bin2 >= bins2) {
+            throw new IndexOutOfBoundsException("No cell " + bin0 + ", " + bin1 + ", " + bin2);
+        }
+        int cell = (bin0 * bins1 + bin1) * bins2 + bin2;
+        return dense != null ? dense[cell] : sparse.get(cell);
+    }
+
+    /**
+     * Visits every cell with a count other than 0, in no particular order.
+     *
+     * @param visitor the visitor
+     */
+    public void visit(Visitor visitor) {
+        if (dense != null) {
+            for (int cell = 0; cell < dense.length; cell++) {
+                if (dense[cell] != 0) { visit(visitor, cell, dense[cell]); }
+            }
+        } else {
+            for (int slot = 0; slot < sparse.capacity(); slot++) {
+                if (sparse.keyAt(slot) >= 0) { visit(visitor, sparse.keyAt(slot), sparse.valueAt(slot)); }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of cells with a count other than 0.
+     *
+     * @return the number of cells
+     */
+    public int getOccupiedCells() {
+        if (sparse != null) { return sparse.size(); }
+        int occupied = 0;
+        for (int count : dense) {
+            if (count != 0) { occupied++; }
+        }
+        return occupied;
+    }
+
+    /**
+     * Gets the number of pixels counted.
+     *
+     * @return the total
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Checks if the counts are stored sparsely.
+     *
+     * @return true, if sparse
+     */
+    public boolean isSparse() {
+        return sparse != null;
+    }
+
+    /**
+     * Gets the colour space.
+     *
+     * @return the space
+     */
+    public Space getSpace() {
+        return space;
+    }
+
+    /**
+     * Gets the bins of a component.
+     *
+     * @param component the component, 0 to 2
+     * @return the bins
+     */
+    public int getBins(int component) {
+        switch (component) {
+        case 0: return bins0;
+        case 1: return bins1;
+        case 2: return bins2;
+        default: throw new IndexOutOfBoundsException("No component " + component);
+        }
+    }
+
+    /**
+     * Clears the counts.
+     */
+    public void clear() {
+        if (dense != null) { Arrays.fill(dense, 0); } else { sparse.clear(); }
+        total = 0;
+    }
+
+    /**
+     * Counts ARGB pixels. Runs of pixels falling in the same cell are added at once.
+     *
+     * @param argb the pixels
+     * @param length the number of pixels
+     */
+    void add(int[] argb, int length) {
+        int run = 0, runCell = -1;
+        for (int i = 0; i < length; i++) {
+            int cell = cell(argb[i]);
+            if (cell != runCell) {
+                if (run > 0) { increment(runCell, run); }
+                runCell = cell;
+                run = 0;
+            }
+            run++;
+        }
+        if (run > 0) { increment(runCell, run); }
+        total += length;
+    }
+
+    /**
+     * Cell of an ARGB pixel.
+     *
+     * @param pixel the pixel
+     * @return the cell
+     */
+    private int cell(int pixel) {
+        int r = BYTE_MASK & (pixel >> RED_SHIFT), g = BYTE_MASK & (pixel >> GREEN_SHIFT), b = BYTE_MASK & pixel;
+        if (space == Space.RGB) {
+            return ((r * bins0 >> 8) * bins1 + (g * bins1 >> 8)) * bins2 + (b * bins2 >> 8);
+        }
+        // the arithmetic of Color.RGBtoHSB, without its array
+        int max = Math.max(r, Math.max(g, b)), min = Math.min(r, Math.min(g, b));
+        float brightness = max / 255.0f;
+        float saturation = max != 0 ? (float) (max - min) / max : 0;
+        float hue = 0;
+        if (saturation != 0) {
+            float redc = (float) (max - r) / (max - min);
+            float greenc = (float) (max - g) / (max - min);
+            float bluec = (float) (max - b) / (max - min);
+            if (r == max) {
+                hue = bluec - greenc;
+            } else if (g == max) {
+                hue = 2.0f + redc - bluec;
+            } else {
+                hue = 4.0f + greenc - redc;
+            }
+            hue = hue / 6.0f;
+            if (hue < 0) { hue = hue + 1.0f; }
+        }
+        return (bin(hue, bins0) * bins1 + bin(saturation, bins1)) * bins2 + bin(brightness, bins2);
+    }
+
+    /**
+     * Bin of a component from 0 to 1.
+     *
+     * @param component the component
+     * @param bins the bins
+     * @return the bin
+     */
+    private static int bin(float component, int bins) {
+        return Math.min(bins - 1, (int) (component * bins));
+    }
+
+    /**
+     * Adds to the count of a cell.
+     *
+     * @param cell the cell
+     * @param count the count
+     */
+    private void increment(int cell, int count) {
+        if (dense != null) { dense[cell] += count; } else { sparse.add(cell, count); }
+    }
+
+    /**
+     * Passes a cell to a visitor.
+     *
+     * @param visitor the visitor
+     * @param cell the cell
+     * @param count the count
+     */
+    private void visit(Visitor visitor, int cell, int count) {
+        visitor.cell(cell / (bins1 * bins2), cell / bins2 % bins1, cell % bins2, count);
+    }
+}
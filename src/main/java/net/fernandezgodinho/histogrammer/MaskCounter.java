@@ -0,0 +1,213 @@
+package net.fernandezgodinho.histogrammer;
+
+import static net.fernandezgodinho.histogrammer.Histogrammer.ALPHA_SHIFT;
+import static net.fernandezgodinho.histogrammer.Histogrammer.BYTE_MASK;
+import static net.fernandezgodinho.histogrammer.Histogrammer.COLOR_RANGE;
+import static net.fernandezgodinho.histogrammer.Histogrammer.GREEN_SHIFT;
+import static net.fernandezgodinho.histogrammer.Histogrammer.RED_SHIFT;
+
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+
+/**
+ * The Class MaskCounter. Counts the pixels of an image selected by a bitmask, and alpha weighted
+ * histograms, on top of the HistogramKernel of the image.
+ *
+ * Masks are bitsets with one bit per pixel, pixel x of a row being bit x % 64 of word x / 64 of that
+ * row, and every row starting on a new word. Words that are 0 are skipped without reading a pixel,
+ * runs of words that are all ones are counted by the kernel in one call, and the pixels of other
+ * words are read by the kernel and counted bit by bit.
+ *
+ * @author Joao Godinho
+ */
+final class MaskCounter {
+    /** The Constant WORD_BITS. */
+    final static int WORD_BITS = Long.SIZE;
+
+    /**
+     * Instantiates a new mask counter.
+     */
+    private MaskCounter() {
+    }
+
+    /**
+     * Gets the number of mask words of each row.
+     *
+     * @param width the width
+     * @return the words per row
+     */
+    static int rowWords(int width) {
+        return (width + WORD_BITS - 1) / WORD_BITS;
+    }
+
+    /**
+     * Counts the pixels of an image selected by a bitset mask.
+     *
+     * @param kernel the kernel of the image
+     * @param raster the raster of the image
+     * @param colorModel the color model of the image
+     * @param mask the mask, rowWords(width) words per row
+     * @param histogram the histogram
+     */
+    static void count(HistogramKernel kernel, Raster raster, ColorModel colorModel, long[] mask,
+            int[][] histogram) {
+        int width = raster.getWidth(), height = raster.getHeight(), words = rowWords(width);
+        if (mask.length < (long) words * height) {
+            throw new IllegalArgumentException("Mask of " + mask.length + " words is shorter than the "
+                    + (long) words * height + " words of a " + width + "x" + height + " image");
+        }
+        int[] pixels = new int[WORD_BITS];
+        for (int y = 0; y < height; y++) {
+            countRow(kernel, raster, colorModel, y, mask, y * words, pixels, histogram);
+        }
+    }
+
+    /**
+     * Counts the pixels of an image selected by the non-zero samples of the first band of a mask
+     * raster. Binary rasters of one bit per pixel, like those of TYPE_BYTE_BINARY images, are read a
+     * byte of eight pixels at a time; any other raster through getSamples.
+     *
+     * @param kernel the kernel of the image
+     * @param raster the raster of the image
+     * @param colorModel the color model of the image
+     * @param mask the mask, at least as large as the image
+     * @param histogram the histogram
+     */
+    static void count(HistogramKernel kernel, Raster raster, ColorModel colorModel, Raster mask,
+            int[][] histogram) {
+        int width = raster.getWidth(), height = raster.getHeight(), words = rowWords(width);
+        if (mask.getWidth() < width || mask.getHeight() < height) {
+            throw new IllegalArgumentException("Mask of " + mask.getWidth() + "x" + mask.getHeight()
+                    + " is smaller than the " + width + "x" + height + " image");
+        }
+        long[] row = new long[words];
+        int[] samples = null;
+        int[] pixels = new int[WORD_BITS];
+        for (int y = 0; y < height; y++) {
+            if (!readBinaryRow(mask, y, width, row)) {
+                if (samples == null) { samples = new int[width]; }
+                mask.getSamples(mask.getMinX(), mask.getMinY() + y, width, 1, 0, samples);
+                for (int k = 0; k < words; k++) { row[k] = 0; }
+                for (int x = 0; x < width; x++) {
+                    if (samples[x] != 0) { row[x / WORD_BITS] |= 1L << x; }
+                }
+            }
+            countRow(kernel, raster, colorModel, y, row, 0, pixels, histogram);
+        }
+    }
+
+    /**
+     * Counts the pixels of a row selected by its mask words.
+     *
+     * @param kernel the kernel
+     * @param raster the raster
+     * @param colorModel the color model
+     * @param y the row
+     * @param mask the mask
+     * @param from the index of the first word of the row
+     * @param pixels a buffer of WORD_BITS pixels
+     * @param histogram the histogram
+     */
+    private static void countRow(HistogramKernel kernel, Raster raster, ColorModel colorModel, int y, long[] mask,
+            int from, int[] pixels, int[][] histogram) {
+        int width = raster.getWidth(), minX = raster.getMinX(), row = raster.getMinY() + y;
+        int runStart = -1;
+        for (int k = 0, x = 0; x < width; k++, x += WORD_BITS) {
+            int length = Math.min(WORD_BITS, width - x);
+            long word = mask[from + k];
+            if (length < WORD_BITS) { word &= (1L << length) - 1; }
+            if (word == -1L || (length < WORD_BITS && word == (1L << length) - 1)) {
+                if (runStart < 0) { runStart = x; }
+                continue;
+            }
+            if (runStart >= 0) {
+                kernel.count(raster, colorModel, minX + runStart, row, x - runStart, 1, histogram);
+                runStart = -1;
+            }
+            if (word == 0) { continue; }
+            kernel.read(raster, colorModel, minX + x, row, length, 1, pixels);
+            while (word != 0) {
+                HistogramKernel.fold(histogram, pixels[Long.numberOfTrailingZeros(word)], 1);
+                word &= word - 1;
+            }
+        }
+        if (runStart >= 0) {
+            kernel.count(raster, colorModel, minX + runStart, row, width - runStart, 1, histogram);
+        }
+    }
+
+    /**
+     * Reads a row of a one bit per pixel raster into mask words, when its pixels start on a byte.
+     *
+     * @param mask the mask raster
+     * @param y the row, from the top of the raster
+     * @param width the pixels to read
+     * @param row the words
+     * @return true, if read, false if the raster is not of that kind
+     */
+    private static boolean readBinaryRow(Raster mask, int y, int width, long[] row) {
+        if (!(mask.getSampleModel() instanceof MultiPixelPackedSampleModel)
+                || !(mask.getDataBuffer() instanceof DataBufferByte)) {
+            return false;
+        }
+        MultiPixelPackedSampleModel sampleModel = (MultiPixelPackedSampleModel) mask.getSampleModel();
+        int x = mask.getMinX() - mask.getSampleModelTranslateX();
+        if (sampleModel.getPixelBitStride() != 1 || sampleModel.getBitOffset(x) != 0) { return false; }
+        byte[] data = ((DataBufferByte) mask.getDataBuffer()).getData();
+        int start = mask.getDataBuffer().getOffset()
+                + sampleModel.getOffset(x, mask.getMinY() - mask.getSampleModelTranslateY() + y);
+        int bytes = (width + 7) / 8;
+        for (int k = 0; k < row.length; k++) {
+            long word = 0;
+            for (int b = 0, i = k * 8; b < 8 && i < bytes; b++, i++) {
+                // the leftmost pixel is the most significant bit of its byte
+                word |= (long) (Integer.reverse(BYTE_MASK & data[start + i]) >>> 24) << (8 * b);
+            }
+            row[k] = word;
+        }
+        return true;
+    }
+
+    /**
+     * Counts the pixels of an image into a histogram and their alpha into an alpha weighted one, in the
+     * same pass. Each pixel adds its alpha, 0 to 255, to its bin of every channel of the weighted
+     * histogram; dividing by 255 gives fractional weights.
+     *
+     * @param kernel the kernel of the image
+     * @param raster the raster of the image
+     * @param colorModel the color model of the image
+     * @param histogram the histogram
+     * @param weighted the alpha sums, long[4][256]
+     */
+    static void countWeighted(HistogramKernel kernel, Raster raster, ColorModel colorModel, int[][] histogram,
+            long[][] weighted) {
+        int width = raster.getWidth(), height = raster.getHeight();
+        if (!colorModel.hasAlpha()) {
+            // every pixel is opaque and weighs the whole 255
+            int[][] counts = new int[4][COLOR_RANGE];
+            kernel.count(raster, colorModel, raster.getMinX(), raster.getMinY(), width, height, counts);
+            for (int c = 0; c < 4; c++) {
+                for (int v = 0; v < COLOR_RANGE; v++) {
+                    histogram[c][v] += counts[c][v];
+                    weighted[c][v] += (long) counts[c][v] * BYTE_MASK;
+                }
+            }
+            return;
+        }
+        long[] alpha = weighted[0], red = weighted[1], green = weighted[2], blue = weighted[3];
+        int[] pixels = new int[width];
+        for (int y = 0; y < height; y++) {
+            kernel.read(raster, colorModel, raster.getMinX(), raster.getMinY() + y, width, 1, pixels);
+            for (int pixel : pixels) {
+                HistogramKernel.fold(histogram, pixel, 1);
+                int a = pixel >>> ALPHA_SHIFT;
+                alpha[a] += a;
+                red[BYTE_MASK & (pixel >> RED_SHIFT)] += a;
+                green[BYTE_MASK & (pixel >> GREEN_SHIFT)] += a;
+                blue[BYTE_MASK & pixel] += a;
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package net.fernandezgodinho.histogrammer;
+
+import static net.fernandezgodinho.histogrammer.Histogrammer.COLOR_RANGE;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import net.fernandezgodinho.histogrammer.HistogramCodec.Encoding;
+
+/**
+ * The Class MergeableHistogram. ARGB histogram with long counters and the number of pixels counted,
+ * for aggregating histograms of many images, or of parts of one image computed on different workers,
+ * without overflowing. Histograms are combined with merge and subtract and shipped between JVMs with
+ * toBytes and fromBytes.
+ *
+ * A histogram made from a Histogrammer holds exactly its counts and pixel count, and as long as they
+ * fit an int toHistogram() and getPercentageHistogram() return what Histogrammer.getHistogram() and
+ * Histogrammer.getPercentageHistogram() would for the same pixels.
+ *
+ * @author Joao Godinho
+ */
+public final class MergeableHistogram {
+    /** The Constant REDUCE_LEAF. Most histograms merged sequentially by one reduce task. */
+    private final static int REDUCE_LEAF = 16;
+
+    /** The counts, first dimension ARGB, second the color value. */
+    private final long[][] counts = new long[4][COLOR_RANGE];
+
+    /** The number of pixels counted. */
+    private long totalPixels;
+
+    /**
+     * Instantiates a new empty histogram.
+     */
+    public MergeableHistogram() {
+    }
+
+    /**
+     * Instantiates a new histogram with the counts and pixel count of a histogrammer.
+     *
+     * @param histogrammer the histogrammer
+     */
+    public MergeableHistogram(Histogrammer histogrammer) {
+        this(histogrammer.getHistogram(), histogrammer.getPixelCount());
+    }
+
+    /**
+     * Instantiates a new histogram from int counts.
+     *
+     * @param histogram the histogram, int[4][256]
+     * @param totalPixels the number of pixels counted
+     */
+    public MergeableHistogram(int[][] histogram, long totalPixels) {
+        merge(histogram, totalPixels);
+    }
+
+    /**
+     * Adds another histogram to this one.
+     *
+     * @param other the other histogram
+     * @return this histogram
+     */
+    public MergeableHistogram merge(MergeableHistogram other) {
+        for (int c = 0; c < 4; c++) {
+            for (int v = 0; v < COLOR_RANGE; v++) { counts[c][v] += other.counts[c][v]; }
+        }
+        totalPixels += other.totalPixels;
+        return this;
+    }
+
+    /**
+     * Adds int counts to this histogram. The shape is checked before any count is changed, so a
+     * rejected histogram leaves this one as it was.
+     *
+     * @param histogram the histogram, int[4][256]
+     * @param pixels the number of pixels counted
+     * @return this histogram
+     * @throws IllegalArgumentException if the histogram is not int[4][256]
+     */
+    public MergeableHistogram merge(int[][] histogram, long pixels) {
+        checkShape(histogram.length, histogram.length > 0 ? histogram[0].length : 0);
+        for (int c = 1; c < 4; c++) { checkShape(4, histogram[c].length); }
+        for (int c = 0; c < 4; c++) {
+            for (int v = 0; v < COLOR_RANGE; v++) { counts[c][v] += histogram[c][v]; }
+        }
+        totalPixels += pixels;
+        return this;
+    }
+
+    /**
+     * Removes another histogram, such as an earlier partial, from this one. All counts are checked
+     * before any is changed, so a rejected subtraction leaves this histogram as it was.
+     *
+     * @param other the other histogram
+     * @return this histogram
+     * @throws IllegalArgumentException if the pixel count or any count would go negative
+     */
+    public MergeableHistogram subtract(MergeableHistogram other) {
+        if (other.totalPixels > totalPixels) {
+            throw new IllegalArgumentException("Cannot subtract " + other.totalPixels + " pixels from " + totalPixels);
+        }
+        for (int c = 0; c < 4; c++) {
+            for (int v = 0; v < COLOR_RANGE; v++) {
+                if (other.counts[c][v] > counts[c][v]) {
+                    throw new IllegalArgumentException("Count " + c + ", " + v + " would go negative");
+                }
+            }
+        }
+        for (int c = 0; c < 4; c++) {
+            for (int v = 0; v < COLOR_RANGE; v++) { counts[c][v] -= other.counts[c][v]; }
+        }
+        totalPixels -= other.totalPixels;
+        return this;
+    }
+
+    /**
+     * Gets a count.
+     *
+     * @param channel the channel, 0 alpha to 3 blue
+     * @param value the color value
+     * @return the count
+     */
+    public long getCount(int channel, int value) {
+        return counts[channel][value];
+    }
+
+    /**
+     * Gets the counts. The arrays are the ones merged into, not copies.
+     *
+     * @return the counts, long[4][256]
+     */
+    public long[][] getCounts() {
+        return counts;
+    }
+
+    /**
+     * Gets the total pixels.
+     *
+     * @return the number of pixels counted
+     */
+    public long getTotalPixels() {
+        return totalPixels;
+    }
+
+    /**
+     * Gets the counts as ints, as in Histogrammer.getHistogram().
+     *
+     * @return the histogram, int[4][256]
+     * @throws ArithmeticException if a count does not fit an int
+     */
+    public int[][] toHistogram() {
+        int[][] histogram = new int[4][COLOR_RANGE];
+        for (int c = 0; c < 4; c++) {
+            for (int v = 0; v < COLOR_RANGE; v++) {
+                if (counts[c][v] > Integer.MAX_VALUE) {
+                    throw new ArithmeticException("Count " + c + ", " + v + " overflows an int: " + counts[c][v]);
+                }
+                histogram[c][v] = (int) counts[c][v];
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Gets the percentage histogram, rounded as in Histogrammer.getPercentageHistogram().
+     *
+     * @return the percentage histogram, all 0 if no pixels were counted
+     */
+    public int[][] getPercentageHistogram() {
+        int[][] percentages = new int[4][COLOR_RANGE];
+        if (totalPixels == 0) { return percentages; }
+        for (int c = 0; c < 4; c++) {
+            for (int v = 0; v < COLOR_RANGE; v++) {
+                percentages[c][v] = (int) Math.round(counts[c][v] * 100.0 / totalPixels);
+            }
+        }
+        return percentages;
+    }
+
+    /**
+     * Encodes the histogram compactly: the pixel count as a long followed by the counts in the
+     * HistogramCodec DELTA_VARINT encoding.
+     *
+     * @return the bytes
+     */
+    public byte[] toBytes() {
+        byte[] encoded = HistogramCodec.encode(counts, Encoding.DELTA_VARINT);
+        return ByteBuffer.allocate(8 + encoded.length).putLong(totalPixels).put(encoded).array();
+    }
+
+    /**
+     * Decodes a histogram written by toBytes.
+     *
+     * @param bytes the bytes
+     * @return the histogram
+     */
+    public static MergeableHistogram fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.remaining() < 8) {
+            throw new IllegalArgumentException("Not an encoded histogram");
+        }
+        MergeableHistogram histogram = new MergeableHistogram();
+        histogram.totalPixels = buffer.getLong();
+        long[][] counts = HistogramCodec.decodeLong(buffer);
+        checkShape(counts.length, counts[0].length);
+        for (int c = 0; c < 4; c++) {
+            System.arraycopy(counts[c], 0, histogram.counts[c], 0, COLOR_RANGE);
+        }
+        return histogram;
+    }
+
+    /**
+     * Merges histograms into a new one, as a balanced tree of merges on the given pool. The partials
+     * are not modified.
+     *
+     * @param partials the partials
+     * @param pool the pool
+     * @return the merged histogram
+     */
+    public static MergeableHistogram reduce(List<MergeableHistogram> partials, ForkJoinPool pool) {
+        MergeableHistogram[] array = partials.toArray(new MergeableHistogram[partials.size()]);
+        return pool.invoke(new ReduceTask(array, 0, array.length));
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof MergeableHistogram)) { return false; }
+        MergeableHistogram other = (MergeableHistogram) object;
+        return totalPixels == other.totalPixels && Arrays.deepEquals(counts, other.counts);
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.deepHashCode(counts) + (int) (totalPixels ^ (totalPixels >>> 32));
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "MergeableHistogram[" + totalPixels + " pixels]";
+    }
+
+    /**
+     * Checks the shape of a histogram.
+     *
+     * @param channels the channels
+     * @param bins the bins per channel
+     */
+    private static void checkShape(int channels, int bins) {
+        if (channels != 4 || bins != COLOR_RANGE) {
+            throw new IllegalArgumentException("Expected a 4x" + COLOR_RANGE + " histogram, got " + channels + "x" + bins);
+        }
+    }
+
+    /**
+     * The Class ReduceTask. Merges a range of histograms, splitting it in two while it has more than
+     * REDUCE_LEAF.
+     */
+    private static class ReduceTask extends RecursiveTask<MergeableHistogram> {
+        /** The Constant serialVersionUID. */
+        private static final long serialVersionUID = 1L;
+
+        /** The partials. */
+        private final MergeableHistogram[] partials;
+
+        /** The first partial. */
+        private final int from;
+
+        /** The partial after the last. */
+        private final int to;
+
+        /**
+         * Instantiates a new reduce task.
+         *
+         * @param partials the partials
+         * @param from the first partial
+         * @param to the partial after the last
+         */
+        ReduceTask(MergeableHistogram[] partials, int from, int to) {
+            this.partials = partials;
+            this.from = from;
+            this.to = to;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.concurrent.RecursiveTask#compute()
+         */
+        @Override
+        protected MergeableHistogram compute() {
+            if (to - from <= REDUCE_LEAF) {
+                MergeableHistogram merged = new MergeableHistogram();
+                for (int i = from; i < to; i++) { merged.merge(partials[i]); }
+                return merged;
+            }
+            int middle = (from + to) >>> 1;
+            ReduceTask lower = new ReduceTask(partials, from, middle);
+            lower.fork();
+            MergeableHistogram merged = new ReduceTask(partials, middle, to).compute();
+            return lower.join().merge(merged);
+        }
+    }
+}
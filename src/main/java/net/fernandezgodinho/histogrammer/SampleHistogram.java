@@ -0,0 +1,354 @@
+package net.fernandezgodinho.histogrammer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.util.Arrays;
+
+/**
+ * The Class SampleHistogram. Histogram of the native sample values of every band of a raster, with
+ * a configurable number of bins, for high bit depth images such as 16 bit TIFFs and float rasters
+ * where Histogrammer's conversion to 8 bit sRGB would be slow and lose precision. Samples are counted
+ * as stored: no ColorModel is applied, so the bands of an indexed image are palette indices and those
+ * of a 16 bit RGB image are its 16 bit components.
+ *
+ * Each band covers a range of sample values split into equal bins, bin (value - min) * bins / (max -
+ * min), values outside the range falling into the first or last bin and NaN not being counted.
+ * Integer bands default to their whole range, 0 to 2^bits or -32768 to 32768 for signed shorts, and
+ * float bands to 0 to 1. Bands of up to 16 bits are binned through a lookup table, so they cost one
+ * load per sample whatever the bin count.
+ *
+ * Counts are kept in a single int array of bands * bins, 256 KB per band at 65536 bins.
+ *
+ * @author Joao Godinho
+ */
+public class SampleHistogram {
+    /** The Constant MAX_BINS. */
+    public final static int MAX_BINS = 1 << 16;
+
+    /** The Constant LUT_BITS. Widest integer samples binned through a lookup table. */
+    private final static int LUT_BITS = 16;
+
+    /** The Constant SHORT_ORIGIN. Smallest signed short sample. */
+    private final static int SHORT_ORIGIN = Short.MIN_VALUE;
+
+    /** The raster. */
+    private final Raster raster;
+
+    /** The data type of the samples. */
+    private final int dataType;
+
+    /** The number of bands. */
+    private final int bands;
+
+    /** The bins per band. */
+    private final int bins;
+
+    /** The counts, bins of band 0 followed by those of band 1 and so on. */
+    private final int[] counts;
+
+    /** The smallest value of the range of each band. */
+    private final double[] min;
+
+    /** The end of the range of each band, exclusive. */
+    private final double[] max;
+
+    /** The sample to bin table of each band binned through one, null until built. */
+    private final int[][] luts;
+
+    /**
+     * Instantiates a new sample histogram of the raster of an image.
+     *
+     * @param image the image
+     * @param bins the bins per band, 1 to 65536
+     */
+    public SampleHistogram(BufferedImage image, int bins) {
+        this(image.getRaster(), bins);
+    }
+
+    /**
+     * Instantiates a new sample histogram of a raster.
+     *
+     * @param raster the raster
+     * @param bins the bins per band, 1 to 65536
+     */
+    public SampleHistogram(Raster raster, int bins) {
+        if (bins < 1 || bins > MAX_BINS) {
+            throw new IllegalArgumentException("Bins must be from 1 to " + MAX_BINS + ": " + bins);
+        }
+        this.raster = raster;
+        this.dataType = raster.getSampleModel().getDataType();
+        this.bands = raster.getNumBands();
+        this.bins = bins;
+        this.counts = new int[bands * bins];
+        this.min = new double[bands];
+        this.max = new double[bands];
+        this.luts = new int[bands][];
+        for (int b = 0; b < bands; b++) {
+            switch (dataType) {
+            case DataBuffer.TYPE_FLOAT:
+            case DataBuffer.TYPE_DOUBLE:
+                max[b] = 1;
+                break;
+            case DataBuffer.TYPE_SHORT:
+                min[b] = SHORT_ORIGIN;
+                max[b] = -SHORT_ORIGIN;
+                break;
+            case DataBuffer.TYPE_BYTE:
+            case DataBuffer.TYPE_USHORT:
+            case DataBuffer.TYPE_INT:
+                max[b] = Math.pow(2, raster.getSampleModel().getSampleSize(b));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported data type " + dataType);
+            }
+        }
+    }
+
+    /**
+     * Sets the range of sample values of every band.
+     *
+     * @param min the smallest value
+     * @param max the end of the range, exclusive
+     */
+    public void setRange(double min, double max) {
+        for (int b = 0; b < bands; b++) { setRange(b, min, max); }
+    }
+
+    /**
+     * Sets the range of sample values of a band, for example 0 to 4096 for 12 bit samples stored in
+     * 16 bits. Counts made before are not changed.
+     *
+     * @param band the band
+     * @param min the smallest value
+     * @param max the end of the range, exclusive
+     */
+    public void setRange(int band, double min, double max) {
+        if (!(min < max) || Double.isInfinite(max - min)) {
+            throw new IllegalArgumentException("Invalid range " + min + " to " + max);
+        }
+        this.min[band] = min;
+        this.max[band] = max;
+        luts[band] = null;
+    }
+
+    /**
+     * Counts every sample of the raster, adding to the current counts. Rasters with a
+     * ComponentSampleModel, interleaved or banked, are read straight from their DataBuffer, any other
+     * through Raster.getSamples one row at a time.
+     */
+    public void calcHistogram() {
+        int width = raster.getWidth();
+        int[] intRow = new int[width];
+        double[] doubleRow = null;
+        for (int b = 0; b < bands; b++) {
+            int[] lut = lut(b);
+            int base = b * bins;
+            if (lut != null) {
+                int origin = dataType == DataBuffer.TYPE_SHORT ? SHORT_ORIGIN : 0;
+                for (int y = raster.getMinY(), end = y + raster.getHeight(); y < end; y++) {
+                    readRow(b, y, intRow);
+                    for (int i = 0; i < width; i++) { counts[base + lut[intRow[i] - origin]]++; }
+                }
+            } else {
+                if (doubleRow == null) { doubleRow = new double[width]; }
+                double scale = bins / (max[b] - min[b]);
+                for (int y = raster.getMinY(), end = y + raster.getHeight(); y < end; y++) {
+                    readRow(b, y, intRow, doubleRow);
+                    for (int i = 0; i < width; i++) {
+                        double value = doubleRow[i];
+                        if (value != value) { continue; }
+                        int bin = (int) ((value - min[b]) * scale);
+                        counts[base + (bin < 0 || value < min[b] ? 0 : bin >= bins ? bins - 1 : bin)]++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Clears the counts.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+    }
+
+    /**
+     * Gets a count.
+     *
+     * @param band the band
+     * @param bin the bin
+     * @return the count
+     */
+    public int getCount(int band, int bin) {
+        if (bin < 0 || bin >= bins) {
+            throw new IndexOutOfBoundsException("No bin " + bin);
+        }
+        return counts[band * bins + bin];
+    }
+
+    /**
+     * Gets a copy of the counts.
+     *
+     * @return the counts, int[bands][bins]
+     */
+    public int[][] getHistogram() {
+        int[][] histogram = new int[bands][];
+        for (int b = 0; b < bands; b++) { histogram[b] = Arrays.copyOfRange(counts, b * bins, (b + 1) * bins); }
+        return histogram;
+    }
+
+    /**
+     * Gets the number of bands.
+     *
+     * @return the bands
+     */
+    public int getBands() {
+        return bands;
+    }
+
+    /**
+     * Gets the bins per band.
+     *
+     * @return the bins
+     */
+    public int getBins() {
+        return bins;
+    }
+
+    /**
+     * Gets the smallest value of the range of a band.
+     *
+     * @param band the band
+     * @return the smallest value
+     */
+    public double getMin(int band) {
+        return min[band];
+    }
+
+    /**
+     * Gets the end of the range of a band.
+     *
+     * @param band the band
+     * @return the end of the range, exclusive
+     */
+    public double getMax(int band) {
+        return max[band];
+    }
+
+    /**
+     * Gets the sample to bin table of a band, building it if needed.
+     *
+     * @param band the band
+     * @return the table indexed by sample minus the smallest sample, null if the band is not binned
+     *         through one
+     */
+    private int[] lut(int band) {
+        if (dataType == DataBuffer.TYPE_FLOAT || dataType == DataBuffer.TYPE_DOUBLE) { return null; }
+        int bits = dataType == DataBuffer.TYPE_SHORT ? 16 : raster.getSampleModel().getSampleSize(band);
+        if (bits > LUT_BITS) { return null; }
+        if (luts[band] == null) {
+            int origin = dataType == DataBuffer.TYPE_SHORT ? SHORT_ORIGIN : 0;
+            int[] lut = new int[1 << bits];
+            for (int i = 0; i < lut.length; i++) {
+                double value = i + origin;
+                int bin = (int) Math.floor((value - min[band]) * bins / (max[band] - min[band]));
+                lut[i] = bin < 0 ? 0 : bin >= bins ? bins - 1 : bin;
+            }
+            luts[band] = lut;
+        }
+        return luts[band];
+    }
+
+    /**
+     * Reads the integer samples of a band in a row.
+     *
+     * @param band the band
+     * @param y the row
+     * @param row the samples
+     */
+    private void readRow(int band, int y, int[] row) {
+        SampleModel sampleModel = raster.getSampleModel();
+        if (!(sampleModel instanceof ComponentSampleModel)) {
+            raster.getSamples(raster.getMinX(), y, row.length, 1, band, row);
+            return;
+        }
+        ComponentSampleModel component = (ComponentSampleModel) sampleModel;
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        int bank = component.getBankIndices()[band];
+        int pixelStride = component.getPixelStride();
+        int i = offset(component, band, y);
+        switch (dataType) {
+        case DataBuffer.TYPE_BYTE:
+            byte[] bytes = ((DataBufferByte) dataBuffer).getData(bank);
+            for (int x = 0; x < row.length; x++, i += pixelStride) { row[x] = bytes[i] & 0xFF; }
+            break;
+        case DataBuffer.TYPE_USHORT:
+            short[] ushorts = ((DataBufferUShort) dataBuffer).getData(bank);
+            for (int x = 0; x < row.length; x++, i += pixelStride) { row[x] = ushorts[i] & 0xFFFF; }
+            break;
+        case DataBuffer.TYPE_SHORT:
+            short[] shorts = ((DataBufferShort) dataBuffer).getData(bank);
+            for (int x = 0; x < row.length; x++, i += pixelStride) { row[x] = shorts[i]; }
+            break;
+        default:
+            int[] ints = ((DataBufferInt) dataBuffer).getData(bank);
+            for (int x = 0; x < row.length; x++, i += pixelStride) { row[x] = ints[i]; }
+            break;
+        }
+    }
+
+    /**
+     * Reads the samples of a band in a row as doubles, integer samples taken as unsigned.
+     *
+     * @param band the band
+     * @param y the row
+     * @param intRow a buffer for integer samples
+     * @param row the samples
+     */
+    private void readRow(int band, int y, int[] intRow, double[] row) {
+        SampleModel sampleModel = raster.getSampleModel();
+        if (dataType != DataBuffer.TYPE_FLOAT && dataType != DataBuffer.TYPE_DOUBLE) {
+            readRow(band, y, intRow);
+            for (int x = 0; x < row.length; x++) { row[x] = intRow[x] & 0xFFFFFFFFL; }
+        } else if (!(sampleModel instanceof ComponentSampleModel)) {
+            raster.getSamples(raster.getMinX(), y, row.length, 1, band, row);
+        } else {
+            ComponentSampleModel component = (ComponentSampleModel) sampleModel;
+            DataBuffer dataBuffer = raster.getDataBuffer();
+            int bank = component.getBankIndices()[band];
+            int pixelStride = component.getPixelStride();
+            int i = offset(component, band, y);
+            if (dataType == DataBuffer.TYPE_FLOAT) {
+                float[] floats = ((DataBufferFloat) dataBuffer).getData(bank);
+                for (int x = 0; x < row.length; x++, i += pixelStride) { row[x] = floats[i]; }
+            } else {
+                double[] doubles = ((DataBufferDouble) dataBuffer).getData(bank);
+                for (int x = 0; x < row.length; x++, i += pixelStride) { row[x] = doubles[i]; }
+            }
+        }
+    }
+
+    /**
+     * Index in its bank of the first sample of a band in a row.
+     *
+     * @param sampleModel the sample model
+     * @param band the band
+     * @param y the row
+     * @return the index
+     */
+    private int offset(ComponentSampleModel sampleModel, int band, int y) {
+        int bank = sampleModel.getBankIndices()[band];
+        return raster.getDataBuffer().getOffsets()[bank]
+                + sampleModel.getOffset(raster.getMinX() - raster.getSampleModelTranslateX(),
+                        y - raster.getSampleModelTranslateY(), band);
+    }
+}
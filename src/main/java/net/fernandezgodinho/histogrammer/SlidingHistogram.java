@@ -0,0 +1,287 @@
+package net.fernandezgodinho.histogrammer;
+
+import static net.fernandezgodinho.histogrammer.Histogrammer.COLOR_RANGE;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+
+/**
+ * The Class SlidingHistogram. Histogram of a rectangular window of an image, kept up to date
+ * incrementally as the window moves or the image changes. Rows and columns entering the window are
+ * added and those leaving it are subtracted (Huang's sliding window), so each move costs work
+ * proportional to the pixels that changed rather than to the window area. The window grows, shrinks
+ * and slides in all four directions, so a serpentine scan covers a whole image with one column or
+ * row of work per step. The histogram uses the same int[4][256] ARGB layout as
+ * Histogrammer.getHistogram().
+ *
+ * @author Joao Godinho
+ */
+public class SlidingHistogram {
+    /** The image. */
+    private final BufferedImage image;
+
+    /** The kernel used to read the image pixels. */
+    private final HistogramKernel kernel;
+
+    /** The window. */
+    private final Rectangle window;
+
+    /** The histogram of the window. */
+    private final int[][] histogram = new int[4][COLOR_RANGE];
+
+    /** ARGB values of the pixels being added or removed, grown as needed. */
+    private int[] pixels = new int[0];
+
+    /** ARGB values of the pixels being replaced by update, grown as needed. */
+    private int[] previous = new int[0];
+
+    /**
+     * Instantiates a new sliding histogram over the source image of a histogrammer, counting the
+     * initial window.
+     *
+     * @param source the source histogrammer
+     * @param window the initial window, within the image
+     */
+    public SlidingHistogram(Histogrammer source, Rectangle window) {
+        this.image = source.getImage();
+        if (image == null) {
+            throw new IllegalStateException("The histogram was not created from an image");
+        }
+        if (window.isEmpty() || !new Rectangle(image.getWidth(), image.getHeight()).contains(window)) {
+            throw new IndexOutOfBoundsException("Window " + window + " outside of the image");
+        }
+        this.kernel = HistogramKernel.forImage(image);
+        this.window = new Rectangle(window);
+        kernel.count(image.getRaster(), image.getColorModel(), window.x, window.y, window.width, window.height,
+                histogram);
+    }
+
+    /**
+     * Adds rows below the window, growing it downwards.
+     *
+     * @param rows the number of rows
+     */
+    public void addRows(int rows) {
+        checkInside(window.x, window.y + window.height, window.width, rows);
+        add(window.x, window.y + window.height, window.width, rows, 1);
+        window.height += rows;
+    }
+
+    /**
+     * Removes rows from the top of the window, shrinking it downwards.
+     *
+     * @param rows the number of rows
+     */
+    public void removeRows(int rows) {
+        checkRemovable(rows, window.height);
+        add(window.x, window.y, window.width, rows, -1);
+        window.y += rows;
+        window.height -= rows;
+    }
+
+    /**
+     * Adds rows above the window, growing it upwards.
+     *
+     * @param rows the number of rows
+     */
+    public void addRowsAbove(int rows) {
+        checkInside(window.x, window.y - rows, window.width, rows);
+        add(window.x, window.y - rows, window.width, rows, 1);
+        window.y -= rows;
+        window.height += rows;
+    }
+
+    /**
+     * Removes rows from the bottom of the window, shrinking it upwards.
+     *
+     * @param rows the number of rows
+     */
+    public void removeRowsBelow(int rows) {
+        checkRemovable(rows, window.height);
+        add(window.x, window.y + window.height - rows, window.width, rows, -1);
+        window.height -= rows;
+    }
+
+    /**
+     * Adds the column to the right of the window, growing it rightwards.
+     */
+    public void addColumn() {
+        checkInside(window.x + window.width, window.y, 1, window.height);
+        add(window.x + window.width, window.y, 1, window.height, 1);
+        window.width++;
+    }
+
+    /**
+     * Removes the leftmost column of the window, shrinking it rightwards.
+     */
+    public void removeColumn() {
+        checkRemovable(1, window.width);
+        add(window.x, window.y, 1, window.height, -1);
+        window.x++;
+        window.width--;
+    }
+
+    /**
+     * Adds the column to the left of the window, growing it leftwards.
+     */
+    public void addColumnLeft() {
+        checkInside(window.x - 1, window.y, 1, window.height);
+        add(window.x - 1, window.y, 1, window.height, 1);
+        window.x--;
+        window.width++;
+    }
+
+    /**
+     * Removes the rightmost column of the window, shrinking it leftwards.
+     */
+    public void removeColumnRight() {
+        checkRemovable(1, window.width);
+        add(window.x + window.width - 1, window.y, 1, window.height, -1);
+        window.width--;
+    }
+
+    /**
+     * Moves the window one column to the right.
+     */
+    public void slideRight() {
+        addColumn();
+        removeColumn();
+    }
+
+    /**
+     * Moves the window one column to the left.
+     */
+    public void slideLeft() {
+        addColumnLeft();
+        removeColumnRight();
+    }
+
+    /**
+     * Moves the window one row down.
+     */
+    public void slideDown() {
+        addRows(1);
+        removeRows(1);
+    }
+
+    /**
+     * Moves the window one row up.
+     */
+    public void slideUp() {
+        addRowsAbove(1);
+        removeRowsBelow(1);
+    }
+
+    /**
+     * Updates the histogram after pixels of the image changed. Both rasters are in image coordinates
+     * and cover the dirty region, laid out like the image raster; before holds the pixels the window
+     * was counted with and after the new ones. Only the part of the region inside the window is read.
+     *
+     * @param dirtyRegion the region that changed
+     * @param before the pixels before the change
+     * @param after the pixels after the change
+     */
+    public void update(Rectangle dirtyRegion, Raster before, Raster after) {
+        Rectangle region = dirtyRegion.intersection(window);
+        if (region.isEmpty()) { return; }
+        int size = region.width * region.height;
+        ColorModel colorModel = image.getColorModel();
+        previous = ensureCapacity(previous, size);
+        pixels = ensureCapacity(pixels, size);
+        kernelFor(before).read(before, colorModel, region.x, region.y, region.width, region.height, previous);
+        kernelFor(after).read(after, colorModel, region.x, region.y, region.width, region.height, pixels);
+        for (int i = 0; i < size; i++) {
+            if (previous[i] != pixels[i]) {
+                HistogramKernel.fold(histogram, previous[i], -1);
+                HistogramKernel.fold(histogram, pixels[i], 1);
+            }
+        }
+    }
+
+    /**
+     * Gets the histogram of the window. The array is updated in place as the window moves.
+     *
+     * @return the histogram
+     */
+    public int[][] getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Gets the window.
+     *
+     * @return a copy of the current window
+     */
+    public Rectangle getWindow() {
+        return new Rectangle(window);
+    }
+
+    /**
+     * Adds or subtracts the pixels of a region of the image.
+     *
+     * @param x the x
+     * @param y the y
+     * @param width the width
+     * @param height the height
+     * @param sign 1 to add, -1 to subtract
+     */
+    private void add(int x, int y, int width, int height, int sign) {
+        // read and fold rather than count, the grey kernels fold over every grey level on each count
+        int size = width * height;
+        pixels = ensureCapacity(pixels, size);
+        kernel.read(image.getRaster(), image.getColorModel(), x, y, width, height, pixels);
+        for (int i = 0; i < size; i++) {
+            HistogramKernel.fold(histogram, pixels[i], sign);
+        }
+    }
+
+    /**
+     * Kernel reading a raster laid out like the image raster.
+     *
+     * @param raster the raster
+     * @return the kernel
+     */
+    private HistogramKernel kernelFor(Raster raster) {
+        return kernel.supports(raster) ? kernel : HistogramKernel.GENERIC;
+    }
+
+    /**
+     * Checks that a region is inside the image.
+     *
+     * @param x the x
+     * @param y the y
+     * @param width the width
+     * @param height the height
+     */
+    private void checkInside(int x, int y, int width, int height) {
+        if (height < 0 || x < 0 || y < 0 || x + width > image.getWidth() || y + height > image.getHeight()) {
+            throw new IndexOutOfBoundsException("Window would leave the " + image.getWidth() + "x"
+                    + image.getHeight() + " image");
+        }
+    }
+
+    /**
+     * Checks that rows or columns can be removed without emptying the window.
+     *
+     * @param count the number to remove
+     * @param size the current window size in that direction
+     */
+    private static void checkRemovable(int count, int size) {
+        if (count < 0 || count >= size) {
+            throw new IllegalArgumentException("Cannot remove " + count + " of the " + size + " in the window");
+        }
+    }
+
+    /**
+     * Returns an array of at least the given size, the same one if large enough.
+     *
+     * @param array the array
+     * @param size the size
+     * @return the array
+     */
+    private static int[] ensureCapacity(int[] array, int size) {
+        return array.length >= size ? array : new int[size];
+    }
+}
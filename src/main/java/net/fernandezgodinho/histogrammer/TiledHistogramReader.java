@@ -0,0 +1,262 @@
+package net.fernandezgodinho.histogrammer;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+import net.fernandezgodinho.histogrammer.HistogramMetrics.Phase;
+
+/**
+ * The Class TiledHistogramReader. Calculates the histogram of an image straight from its ImageReader,
+ * one region at a time, without decoding the whole image into memory. Each region is read into the
+ * same destination image, counted and overwritten by the next one, so the pixel memory in use is
+ * bounded by the tile budget rather than by the image size.
+ *
+ * Regions follow the tiles of tiled images (TIFF) and are full width strips otherwise. Formats that
+ * can only be decoded sequentially (JPEG, PNG) decode the rows above each strip again, trading time
+ * for memory.
+ *
+ * For previews the reader can also produce approximate histograms, asking the ImageReader to decode
+ * only one pixel out of every subsampling by subsampling block and scaling the counts back up. On
+ * photographs each bin of getPercentageHistogram() then stays within one percentage point of the
+ * exact histogram for subsampling periods up to 8; images with detail aligned to the sampling grid
+ * (stripes, dithering) can be off by more.
+ *
+ * Each region is recorded as a DECODE and a COUNT phase of the decoded pixels in HistogramMetrics and
+ * the histogram flight recorder event.
+ *
+ * @author Joao Godinho
+ */
+public class TiledHistogramReader {
+    /** The Constant DEFAULT_TILE_BUDGET. 64 MB of decoded pixels. */
+    public final static long DEFAULT_TILE_BUDGET = 64L << 20;
+
+    /** The tile budget, in bytes of decoded pixels. */
+    private long tileBudget = DEFAULT_TILE_BUDGET;
+
+    /** The subsampling period, 1 to read every pixel. */
+    private int subsampling = 1;
+
+    /** The sample target, the most pixels to count per image, 0 for no limit. */
+    private long sampleTarget;
+
+    /**
+     * Gets the tile budget.
+     *
+     * @return the tile budget in bytes
+     */
+    public long getTileBudget() {
+        return tileBudget;
+    }
+
+    /**
+     * Sets the tile budget, the most bytes of decoded pixels held at once. A single tile, or a single
+     * pixel for untiled images, is always read even if it does not fit the budget.
+     *
+     * @param tileBudget the tile budget in bytes
+     */
+    public void setTileBudget(long tileBudget) {
+        if (tileBudget <= 0) {
+            throw new IllegalArgumentException("Tile budget must be positive: " + tileBudget);
+        }
+        this.tileBudget = tileBudget;
+    }
+
+    /**
+     * Gets the subsampling.
+     *
+     * @return the subsampling period
+     */
+    public int getSubsampling() {
+        return subsampling;
+    }
+
+    /**
+     * Sets the subsampling period. With a period above 1 only one pixel in every period by period
+     * block is decoded and counted, and the histogram is an approximation. Defaults to 1, exact.
+     *
+     * @param subsampling the subsampling period
+     */
+    public void setSubsampling(int subsampling) {
+        if (subsampling < 1) {
+            throw new IllegalArgumentException("Subsampling must be at least 1: " + subsampling);
+        }
+        this.subsampling = subsampling;
+    }
+
+    /**
+     * Gets the sample target.
+     *
+     * @return the sample target, 0 for no limit
+     */
+    public long getSampleTarget() {
+        return sampleTarget;
+    }
+
+    /**
+     * Sets the sample target, the most pixels to count per image. The subsampling period is raised
+     * for each image as needed to stay under it; the period actually used is reported by
+     * Histogrammer.getSubsampling(). Defaults to 0, no limit.
+     *
+     * @param sampleTarget the sample target, 0 for no limit
+     */
+    public void setSampleTarget(long sampleTarget) {
+        if (sampleTarget < 0) {
+            throw new IllegalArgumentException("Sample target must not be negative: " + sampleTarget);
+        }
+        this.sampleTarget = sampleTarget;
+    }
+
+    /**
+     * Reads the histogram of the first image in a file.
+     *
+     * @param file the file
+     * @return the histogram
+     * @throws IOException Signals that the file could not be read or has no suitable reader.
+     */
+    public Histogrammer read(File file) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IIOException("Can't create an ImageInputStream for " + file);
+        }
+        try {
+            return read(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads the histogram of the first image in a stream. The stream is not closed.
+     *
+     * @param input the input
+     * @return the histogram
+     * @throws IOException Signals that the stream could not be read or has no suitable reader.
+     */
+    public Histogrammer read(ImageInputStream input) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IIOException("No ImageReader for the image");
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            return read(reader, 0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Reads the histogram of an image from a reader which already has its input set.
+     *
+     * @param reader the reader
+     * @param imageIndex the image index
+     * @return the histogram
+     * @throws IOException Signals that the image could not be read.
+     */
+    public Histogrammer read(ImageReader reader, int imageIndex) throws IOException {
+        int width = reader.getWidth(imageIndex);
+        int height = reader.getHeight(imageIndex);
+        Histogrammer histogrammer = new Histogrammer(width, height);
+
+        int period = subsampling;
+        if (sampleTarget > 0) {
+            while ((long) ceilDiv(width, period) * ceilDiv(height, period) > sampleTarget) { period++; }
+        }
+
+        int unitWidth = 1, unitHeight = 1;
+        if (reader.isImageTiled(imageIndex)) {
+            unitWidth = reader.getTileWidth(imageIndex);
+            unitHeight = reader.getTileHeight(imageIndex);
+        }
+        // regions start on the sampling grid so every region samples the same pixels a full read would
+        unitWidth = roundUp(unitWidth, period);
+        unitHeight = roundUp(unitHeight, period);
+        long budgetPixels = Math.max(1, tileBudget / bytesPerPixel(reader, imageIndex)) * period * period;
+        int regionWidth = width;
+        if ((long) width * unitHeight > budgetPixels) {
+            regionWidth = (int) Math.min(width, Math.max(1, budgetPixels / unitHeight / unitWidth) * unitWidth);
+        }
+        int regionHeight = (int) Math.min(height,
+                Math.max(1, budgetPixels / regionWidth / unitHeight) * unitHeight);
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(period, period, 0, 0);
+        BufferedImage tile = null;
+        long sampledPixels = 0;
+        for (int y = 0; y < height; y += regionHeight) {
+            for (int x = 0; x < width; x += regionWidth) {
+                int w = Math.min(regionWidth, width - x);
+                int h = Math.min(regionHeight, height - y);
+                param.setSourceRegion(new Rectangle(x, y, w, h));
+                // the first region is the largest, later ones are decoded into its top left corner
+                param.setDestination(tile);
+                int sampledWidth = ceilDiv(w, period), sampledHeight = ceilDiv(h, period);
+                HistogramEvent event = HistogramEvent.start();
+                tile = reader.read(imageIndex, param);
+                event.finish(Phase.DECODE, tile.getType(), sampledWidth, sampledHeight,
+                        (long) sampledWidth * sampledHeight, null);
+                histogrammer.accumulate(tile, sampledWidth, sampledHeight);
+                sampledPixels += (long) sampledWidth * sampledHeight;
+            }
+        }
+        if (period > 1) {
+            histogrammer.scaleSubsampled(period, sampledPixels);
+        }
+        return histogrammer;
+    }
+
+    /**
+     * Estimates the bytes per decoded pixel from the image type the reader decodes to.
+     *
+     * @param reader the reader
+     * @param imageIndex the image index
+     * @return the bytes per pixel
+     * @throws IOException Signals that the image header could not be read.
+     */
+    private static int bytesPerPixel(ImageReader reader, int imageIndex) throws IOException {
+        ImageTypeSpecifier type = reader.getRawImageType(imageIndex);
+        if (type == null) {
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(imageIndex);
+            if (!types.hasNext()) { return 4; }
+            type = types.next();
+        }
+        SampleModel sampleModel = type.getSampleModel(1, 1);
+        int bits = DataBuffer.getDataTypeSize(sampleModel.getDataType()) * sampleModel.getNumDataElements();
+        return Math.max(1, bits / 8);
+    }
+
+    /**
+     * Divides rounding up.
+     *
+     * @param value the value
+     * @param divisor the divisor
+     * @return the quotient rounded up
+     */
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Rounds up to a multiple.
+     *
+     * @param value the value
+     * @param multiple the multiple
+     * @return the value rounded up
+     */
+    private static int roundUp(int value, int multiple) {
+        return ceilDiv(value, multiple) * multiple;
+    }
+}
@@ -0,0 +1,301 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import net.fernandezgodinho.histogrammer.Histogrammer;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The Class EqualizationTest.
+ *
+ * @author Joao Godinho
+ */
+public class EqualizationTest {
+    /** The Constant IMG_WIDTH. */
+    private final static int IMG_WIDTH = 403;
+
+    /** The Constant IMG_HEIGHT. */
+    private final static int IMG_HEIGHT = 651;
+
+    /** The Constant TYPES. */
+    private final static int[] TYPES = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_ARGB_PRE,
+            BufferedImage.TYPE_USHORT_565_RGB, BufferedImage.TYPE_BYTE_GRAY };
+
+    /** The pool. */
+    private static ForkJoinPool pool;
+
+    /**
+     * Creates the pool.
+     */
+    @BeforeClass
+    public static void setUpClass() {
+        pool = new ForkJoinPool(4);
+    }
+
+    /**
+     * Shuts the pool down.
+     */
+    @AfterClass
+    public static void tearDownClass() {
+        pool.shutdown();
+    }
+
+    /**
+     * Test the equalisation table of a channel with a few values.
+     */
+    @Test
+    public void testEqualizationLut() {
+        BufferedImage image = new BufferedImage(4, 1, BufferedImage.TYPE_INT_RGB);
+        int[] values = { 10, 10, 20, 200 };
+        for (int x = 0; x < values.length; x++) { image.setRGB(x, 0, values[x] << 16 | 77 << 8 | x); }
+        Histogrammer histogrammer = new Histogrammer(image);
+        histogrammer.calcHistogram();
+        int[][] lut = histogrammer.getEqualizationLut();
+
+        Assert.assertEquals(0, lut[1][0]);
+        Assert.assertEquals(0, lut[1][10]);
+        Assert.assertEquals(128, lut[1][20]);
+        Assert.assertEquals(128, lut[1][199]);
+        Assert.assertEquals(255, lut[1][200]);
+        Assert.assertEquals(255, lut[1][255]);
+        for (int v = 0; v < 256; v++) {
+            Assert.assertEquals(v, lut[0][v]);
+            Assert.assertEquals(v, lut[2][v]);
+        }
+        Assert.assertEquals(0, lut[3][0]);
+        Assert.assertEquals(255, lut[3][3]);
+    }
+
+    /**
+     * Test the stretch table, with and without clipping.
+     */
+    @Test
+    public void testStretchLut() {
+        BufferedImage image = new BufferedImage(100, 1, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 100; x++) { image.setRGB(x, 0, (50 + x) << 16 | (x == 0 ? 0 : 150) << 8); }
+        Histogrammer histogrammer = new Histogrammer(image);
+        histogrammer.calcHistogram();
+
+        int[][] lut = histogrammer.getStretchLut(0);
+        Assert.assertEquals(0, lut[1][50]);
+        Assert.assertEquals(255, lut[1][149]);
+        Assert.assertEquals(129, lut[1][100]);
+        Assert.assertEquals(0, lut[2][0]);
+        Assert.assertEquals(255, lut[2][150]);
+        Assert.assertEquals(7, lut[3][7]);
+
+        lut = histogrammer.getStretchLut(10);
+        Assert.assertEquals(0, lut[1][59]);
+        Assert.assertEquals(255, lut[1][139]);
+        Assert.assertEquals(32, lut[1][69]);
+        Assert.assertEquals(150, lut[2][150]);
+    }
+
+    /**
+     * Test that tables are applied like getRGB and setRGB would, in parallel and sequentially, on every
+     * image type.
+     */
+    @Test
+    public void testApply() {
+        for (int type : TYPES) {
+            for (long threshold : new long[] { 0, Histogrammer.DEFAULT_PARALLEL_THRESHOLD }) {
+                BufferedImage image = randomImage(type);
+                Histogrammer histogrammer = new Histogrammer(image);
+                histogrammer.setParallelThreshold(threshold);
+                histogrammer.calcHistogram();
+                int[][] lut = histogrammer.getEqualizationLut();
+                for (int v = 0; v < 256; v++) { lut[0][v] = 255 - v; }
+
+                BufferedImage expected = copy(image);
+                for (int y = 0; y < IMG_HEIGHT; y++) {
+                    for (int x = 0; x < IMG_WIDTH; x++) {
+                        int pixel = expected.getRGB(x, y);
+                        expected.setRGB(x, y, lut[0][pixel >>> 24] << 24 | lut[1][0xFF & pixel >> 16] << 16
+                                | lut[2][0xFF & pixel >> 8] << 8 | lut[3][0xFF & pixel]);
+                    }
+                }
+                histogrammer.applyLut(lut, pool);
+                assertPixels(expected, image);
+            }
+        }
+    }
+
+    /**
+     * Test that a single untiled, unclipped tile is the same as global equalisation.
+     */
+    @Test
+    public void testAdaptiveSingleTile() {
+        for (int type : new int[] { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR }) {
+            BufferedImage image = randomImage(type);
+            Histogrammer histogrammer = new Histogrammer(image);
+            histogrammer.calcHistogram();
+            BufferedImage expected = copy(image);
+            histogrammer.equalize(pool);
+            new Histogrammer(expected).equalizeAdaptive(1, 1, 0, pool);
+            assertPixels(expected, image);
+        }
+    }
+
+    /**
+     * Test that CLAHE gives the same result on every type written straight into the DataBuffer as
+     * through setRGB, in parallel or not, and that clipping limits the contrast gained.
+     */
+    @Test
+    public void testAdaptive() {
+        BufferedImage source = randomImage(BufferedImage.TYPE_INT_RGB);
+        BufferedImage expected = copy(source, BufferedImage.TYPE_INT_ARGB_PRE);
+        new Histogrammer(expected).equalizeAdaptive(5, 3, 2.5, pool);
+
+        for (int type : new int[] { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB,
+                BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR }) {
+            for (long threshold : new long[] { 0, Histogrammer.DEFAULT_PARALLEL_THRESHOLD }) {
+                BufferedImage image = copy(source, type);
+                Histogrammer histogrammer = new Histogrammer(image);
+                histogrammer.setParallelThreshold(threshold);
+                histogrammer.equalizeAdaptive(5, 3, 2.5, pool);
+                assertPixels(expected, image);
+            }
+        }
+
+        BufferedImage unclipped = copy(source);
+        new Histogrammer(unclipped).equalizeAdaptive(5, 3, 0, pool);
+        Assert.assertTrue(spread(unclipped) > spread(expected));
+        Assert.assertTrue(spread(expected) > spread(source));
+    }
+
+    /**
+     * Test that a null pool runs on the calling thread, below and above the parallel threshold, with
+     * the same result as the pool.
+     */
+    @Test
+    public void testNullPool() {
+        for (long threshold : new long[] { 0, Histogrammer.DEFAULT_PARALLEL_THRESHOLD }) {
+            BufferedImage image = randomImage(BufferedImage.TYPE_INT_RGB);
+            BufferedImage expected = copy(image);
+            Histogrammer histogrammer = new Histogrammer(image);
+            histogrammer.setParallelThreshold(threshold);
+            histogrammer.calcHistogram();
+            Histogrammer pooled = new Histogrammer(expected);
+            pooled.setParallelThreshold(threshold);
+            pooled.calcHistogram();
+
+            histogrammer.equalize(null);
+            pooled.equalize(pool);
+            assertPixels(expected, image);
+            histogrammer.equalizeAdaptive(4, 3, 2, null);
+            pooled.equalizeAdaptive(4, 3, 2, pool);
+            assertPixels(expected, image);
+        }
+    }
+
+    /**
+     * Test the argument checks.
+     */
+    @Test
+    public void testInvalid() {
+        Histogrammer histogrammer = new Histogrammer(randomImage(BufferedImage.TYPE_INT_RGB));
+        try {
+            histogrammer.applyLut(new int[4][255], pool);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        int[][] lut = new int[4][256];
+        lut[2][9] = 256;
+        try {
+            histogrammer.applyLut(lut, pool);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            histogrammer.getStretchLut(50);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            histogrammer.equalizeAdaptive(IMG_WIDTH + 1, 1, 2, pool);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Asserts that two images have the same getRGB pixels.
+     *
+     * @param expected the expected image
+     * @param actual the actual image
+     */
+    private static void assertPixels(BufferedImage expected, BufferedImage actual) {
+        Assert.assertArrayEquals(expected.getRGB(0, 0, IMG_WIDTH, IMG_HEIGHT, null, 0, IMG_WIDTH),
+                actual.getRGB(0, 0, IMG_WIDTH, IMG_HEIGHT, null, 0, IMG_WIDTH));
+    }
+
+    /**
+     * Mean absolute difference of the green channel between horizontally adjacent pixels.
+     *
+     * @param image the image
+     * @return the spread
+     */
+    private static double spread(BufferedImage image) {
+        long sum = 0;
+        for (int y = 0; y < IMG_HEIGHT; y++) {
+            for (int x = 1; x < IMG_WIDTH; x++) {
+                sum += Math.abs((0xFF & image.getRGB(x, y) >> 8) - (0xFF & image.getRGB(x - 1, y) >> 8));
+            }
+        }
+        return (double) sum / (IMG_HEIGHT * (IMG_WIDTH - 1));
+    }
+
+    /**
+     * Copies an image.
+     *
+     * @param image the image
+     * @return the copy, of the same type
+     */
+    private static BufferedImage copy(BufferedImage image) {
+        return copy(image, image.getType());
+    }
+
+    /**
+     * Copies an image into a new one of the given type.
+     *
+     * @param image the image
+     * @param type the type
+     * @return the copy
+     */
+    private static BufferedImage copy(BufferedImage image, int type) {
+        BufferedImage copy = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, type);
+        copy.setRGB(0, 0, IMG_WIDTH, IMG_HEIGHT, image.getRGB(0, 0, IMG_WIDTH, IMG_HEIGHT, null, 0, IMG_WIDTH), 0,
+                IMG_WIDTH);
+        return copy;
+    }
+
+    /**
+     * Random low contrast image of the given type, darker on the left than on the right.
+     *
+     * @param type the type
+     * @return the image
+     */
+    private static BufferedImage randomImage(int type) {
+        Random random = new Random(type);
+        BufferedImage image = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, type);
+        for (int y = 0; y < IMG_HEIGHT; y++) {
+            for (int x = 0; x < IMG_WIDTH; x++) {
+                int base = 60 + x * 80 / IMG_WIDTH;
+                int pixel = (base + random.nextInt(40)) << 16 | (base + random.nextInt(30)) << 8 | base + random.nextInt(20);
+                image.setRGB(x, y, (type == BufferedImage.TYPE_INT_ARGB_PRE ? 0xFF : 128 + random.nextInt(128)) << 24 | pixel);
+            }
+        }
+        return image;
+    }
+}
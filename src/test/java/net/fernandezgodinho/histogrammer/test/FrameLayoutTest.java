@@ -0,0 +1,235 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import net.fernandezgodinho.histogrammer.FrameLayout;
+import net.fernandezgodinho.histogrammer.FrameLayout.Format;
+import net.fernandezgodinho.histogrammer.Histogrammer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The Class FrameLayoutTest.
+ *
+ * @author Joao Godinho
+ */
+public class FrameLayoutTest {
+    /** The Constant IMG_WIDTH. Odd, so the last chroma sample of a row covers one pixel. */
+    private final static int IMG_WIDTH = 87;
+
+    /** The Constant IMG_HEIGHT. */
+    private final static int IMG_HEIGHT = 61;
+
+    /**
+     * Test RGBA and BGRA frames with padding, in heap and direct buffers, against the same pixels in
+     * an image.
+     */
+    @Test
+    public void testPacked() {
+        Random random = new Random(1);
+        BufferedImage image = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < IMG_HEIGHT; y++) {
+            for (int x = 0; x < IMG_WIDTH; x++) { image.setRGB(x, y, random.nextInt()); }
+        }
+        Histogrammer expected = new Histogrammer(image);
+        expected.calcHistogram();
+
+        int offset = 13, stride = IMG_WIDTH * 4 + 9;
+        for (Format format : new Format[] { Format.RGBA, Format.BGRA }) {
+            for (ByteBuffer frame : new ByteBuffer[] { ByteBuffer.allocate(offset + stride * IMG_HEIGHT),
+                    ByteBuffer.allocateDirect(offset + stride * IMG_HEIGHT) }) {
+                for (int y = 0; y < IMG_HEIGHT; y++) {
+                    for (int x = 0, i = offset + y * stride; x < IMG_WIDTH; x++, i += 4) {
+                        int pixel = image.getRGB(x, y);
+                        int first = format == Format.RGBA ? pixel >> 16 : pixel, third = format == Format.RGBA ? pixel : pixel >> 16;
+                        frame.put(i, (byte) first).put(i + 1, (byte) (pixel >> 8)).put(i + 2, (byte) third)
+                                .put(i + 3, (byte) (pixel >>> 24));
+                    }
+                }
+                frame.position(5);
+                Histogrammer histogrammer = new Histogrammer(FrameLayout.packed(format, IMG_WIDTH, IMG_HEIGHT, offset, stride));
+                histogrammer.calcHistogram(frame);
+                Assert.assertArrayEquals(expected.getHistogram(), histogrammer.getHistogram());
+                Assert.assertEquals(5, frame.position());
+                Assert.assertArrayEquals(expected.getPercentageHistogram(), histogrammer.getPercentageHistogram());
+
+                int[] luma = new int[256];
+                histogrammer.calcLumaHistogram(frame, luma);
+                int[] expectedLuma = new int[256];
+                for (int y = 0; y < IMG_HEIGHT; y++) {
+                    for (int x = 0; x < IMG_WIDTH; x++) {
+                        int pixel = image.getRGB(x, y);
+                        expectedLuma[(19595 * (0xFF & pixel >> 16) + 38470 * (0xFF & pixel >> 8)
+                                + 7471 * (0xFF & pixel) + 32768) >> 16]++;
+                    }
+                }
+                Assert.assertArrayEquals(expectedLuma, luma);
+            }
+        }
+    }
+
+    /**
+     * Test known colours in limited and full range YUV.
+     */
+    @Test
+    public void testYuvColours() {
+        // black, white, grey and red in limited range, then grey in full range
+        assertYuv(16, 128, 128, false, 0, 0, 0);
+        assertYuv(235, 128, 128, false, 255, 255, 255);
+        assertYuv(126, 128, 128, false, 128, 128, 128);
+        assertYuv(82, 90, 240, false, 255, 1, 0);
+        assertYuv(100, 128, 128, true, 100, 100, 100);
+        assertYuv(76, 85, 255, true, 254, 0, 0);
+    }
+
+    /**
+     * Test that I420, NV12, NV21, padded and memory-mapped frames of the same YUV samples give the
+     * same histograms, and that the luma path counts the Y plane.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testYuvLayouts() throws IOException {
+        Random random = new Random(2);
+        int chromaWidth = (IMG_WIDTH + 1) / 2, chromaHeight = (IMG_HEIGHT + 1) / 2;
+        byte[] luma = new byte[IMG_WIDTH * IMG_HEIGHT], u = new byte[chromaWidth * chromaHeight];
+        byte[] v = new byte[u.length];
+        random.nextBytes(luma);
+        random.nextBytes(u);
+        random.nextBytes(v);
+
+        ByteBuffer i420 = ByteBuffer.allocate(luma.length + 2 * u.length);
+        i420.put(luma).put(u).put(v);
+        ByteBuffer nv12 = ByteBuffer.allocateDirect(luma.length + 2 * u.length);
+        ByteBuffer nv21 = ByteBuffer.allocate(luma.length + 2 * u.length);
+        nv12.put(luma);
+        nv21.put(luma);
+        for (int i = 0; i < u.length; i++) {
+            nv12.put(u[i]).put(v[i]);
+            nv21.put(v[i]).put(u[i]);
+        }
+        // YV12 with padded rows: Y stride 100 at offset 7, then V, then U, chroma stride 50
+        int yStride = 100, chromaStride = 50, vOffset = 7 + yStride * IMG_HEIGHT;
+        int uOffset = vOffset + chromaStride * chromaHeight;
+        ByteBuffer yv12 = ByteBuffer.allocate(uOffset + chromaStride * chromaHeight);
+        for (int y = 0; y < IMG_HEIGHT; y++) {
+            for (int x = 0; x < IMG_WIDTH; x++) { yv12.put(7 + y * yStride + x, luma[y * IMG_WIDTH + x]); }
+        }
+        for (int y = 0; y < chromaHeight; y++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                yv12.put(uOffset + y * chromaStride + x, u[y * chromaWidth + x]);
+                yv12.put(vOffset + y * chromaStride + x, v[y * chromaWidth + x]);
+            }
+        }
+
+        Histogrammer expected = new Histogrammer(FrameLayout.i420(IMG_WIDTH, IMG_HEIGHT));
+        expected.calcHistogram(i420);
+        long pixels = 0;
+        for (int count : expected.getHistogram()[2]) { pixels += count; }
+        Assert.assertEquals(IMG_WIDTH * IMG_HEIGHT, pixels);
+        Assert.assertEquals(IMG_WIDTH * IMG_HEIGHT, expected.getHistogram()[0][255]);
+
+        Histogrammer histogrammer = new Histogrammer(FrameLayout.nv12(IMG_WIDTH, IMG_HEIGHT));
+        histogrammer.calcHistogram(nv12);
+        Assert.assertArrayEquals(expected.getHistogram(), histogrammer.getHistogram());
+        histogrammer = new Histogrammer(FrameLayout.nv21(IMG_WIDTH, IMG_HEIGHT));
+        histogrammer.calcHistogram(nv21);
+        Assert.assertArrayEquals(expected.getHistogram(), histogrammer.getHistogram());
+        histogrammer = new Histogrammer(FrameLayout.yuv420(IMG_WIDTH, IMG_HEIGHT, 7, yStride, uOffset, vOffset,
+                chromaStride, 1, false));
+        histogrammer.calcHistogram(yv12);
+        Assert.assertArrayEquals(expected.getHistogram(), histogrammer.getHistogram());
+
+        int[] expectedLuma = new int[256];
+        for (byte sample : luma) { expectedLuma[0xFF & sample]++; }
+        int[] yv12Luma = new int[256];
+        histogrammer.calcLumaHistogram(yv12, yv12Luma);
+        Assert.assertArrayEquals(expectedLuma, yv12Luma);
+
+        File file = File.createTempFile("frames", ".nv12");
+        file.deleteOnExit();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw"); FileChannel channel = out.getChannel()) {
+            nv12.clear();
+            for (int frame = 0; frame < 3; frame++) {
+                channel.write(nv12);
+                nv12.flip();
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            histogrammer = new Histogrammer(FrameLayout.nv12(IMG_WIDTH, IMG_HEIGHT));
+            int[] mappedLuma = new int[256];
+            for (int frame = 0; frame < 3; frame++) {
+                mapped.position(frame * nv12.capacity());
+                ByteBuffer slice = mapped.slice();
+                histogrammer.calcHistogram(slice);
+                histogrammer.calcLumaHistogram(slice, mappedLuma);
+            }
+        }
+        for (int c = 0; c < 4; c++) {
+            for (int i = 0; i < 256; i++) {
+                Assert.assertEquals(3 * expected.getHistogram()[c][i], histogrammer.getHistogram()[c][i]);
+            }
+        }
+    }
+
+    /**
+     * Test invalid layouts and frames that are too short.
+     */
+    @Test
+    public void testInvalid() {
+        try {
+            FrameLayout.packed(Format.RGBA, 10, 10, 0, 39);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            FrameLayout.yuv420(10, 10, 0, 10, 100, 101, 8, 2, false);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        FrameLayout layout = FrameLayout.nv12(10, 10);
+        Assert.assertEquals(150, layout.getFrameSize());
+        try {
+            new Histogrammer(layout).calcHistogram(ByteBuffer.allocate(149));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new Histogrammer(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB)).calcHistogram(ByteBuffer.allocate(400));
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Asserts the colour a frame of a single YUV colour counts as.
+     *
+     * @param y the Y sample
+     * @param u the U sample
+     * @param v the V sample
+     * @param fullRange whether the samples are full range
+     * @param red the expected red
+     * @param green the expected green
+     * @param blue the expected blue
+     */
+    private static void assertYuv(int y, int u, int v, boolean fullRange, int red, int green, int blue) {
+        ByteBuffer frame = ByteBuffer.allocate(6);
+        frame.put(new byte[] { (byte) y, (byte) y, (byte) y, (byte) y, (byte) u, (byte) v });
+        Histogrammer histogrammer = new Histogrammer(FrameLayout.yuv420(2, 2, 0, 2, 4, 5, 1, 1, fullRange));
+        histogrammer.calcHistogram(frame);
+        Assert.assertEquals(4, histogrammer.getHistogram()[1][red]);
+        Assert.assertEquals(4, histogrammer.getHistogram()[2][green]);
+        Assert.assertEquals(4, histogrammer.getHistogram()[3][blue]);
+    }
+}
@@ -0,0 +1,229 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+
+import net.fernandezgodinho.histogrammer.HistogramBatch;
+import net.fernandezgodinho.histogrammer.Histogrammer;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The Class HistogramBatchTest.
+ * 
+ * @author Joao Godinho
+ */
+public class HistogramBatchTest {
+    /** The Constant IMAGES. */
+    private final static int IMAGES = 20;
+    
+    /** The folder holding the images. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    /** The expected histogram of each image file. */
+    private Map<Path, int[][]> expected = new ConcurrentHashMap<Path, int[][]>();
+    
+    /**
+     * Writes random png images and one file that is not an image.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Before
+    public void setUp() throws IOException {
+        Random random = new Random(7);
+        
+        for (int i = 0; i < IMAGES; i++) {
+            BufferedImage image = new BufferedImage(40 + i, 30, BufferedImage.TYPE_INT_RGB);
+            for (int h = 0; h < image.getHeight(); h++) {
+                for (int w = 0; w < image.getWidth(); w++) { image.setRGB(w, h, random.nextInt()); }
+            }
+            File file = folder.newFile("image" + i + ".png");
+            ImageIO.write(image, "png", file);
+            Histogrammer histogram = new Histogrammer(image);
+            histogram.calcHistogram();
+            expected.put(file.toPath(), histogram.getHistogram());
+        }
+        Files.write(folder.newFile("notes.txt").toPath(), "not an image".getBytes("UTF-8"));
+        folder.newFolder("subdirectory");
+    }
+    
+    /**
+     * Test that every file is reported once, with failures reported and not stopping the batch.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testDirectory() throws Exception {
+        final Map<Path, HistogramBatch.Result> results = new ConcurrentHashMap<Path, HistogramBatch.Result>();
+        HistogramBatch batch = new HistogramBatch();
+        batch.setDecodeThreads(3);
+        batch.setComputeThreads(2);
+        batch.setQueueCapacity(2);
+        
+        batch.processDirectory(folder.getRoot().toPath(), new HistogramBatch.Listener() {
+            @Override
+            public void onResult(HistogramBatch.Result result) {
+                results.put(result.getPath(), result);
+            }
+        });
+        
+        Assert.assertEquals(IMAGES + 1, results.size());
+        Assert.assertEquals(IMAGES, batch.getSucceeded());
+        Assert.assertEquals(1, batch.getFailed());
+        Assert.assertTrue(batch.getImagesPerSecond() > 0);
+        for (Map.Entry<Path, int[][]> entry : expected.entrySet()) {
+            HistogramBatch.Result result = results.get(entry.getKey());
+            Assert.assertTrue(result.isSuccess());
+            Assert.assertArrayEquals(entry.getValue(), result.getHistogram().getHistogram());
+        }
+        HistogramBatch.Result failure = results.get(new File(folder.getRoot(), "notes.txt").toPath());
+        Assert.assertFalse(failure.isSuccess());
+        Assert.assertNotNull(failure.getError());
+        Assert.assertNull(failure.getHistogram());
+    }
+    
+    /**
+     * Test the stream and consumer overload.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testStream() throws Exception {
+        final Map<Path, HistogramBatch.Result> results = new ConcurrentHashMap<Path, HistogramBatch.Result>();
+        HistogramBatch batch = new HistogramBatch();
+        batch.setComputeThreads(2);
+        
+        batch.process(expected.keySet().stream(), new Consumer<HistogramBatch.Result>() {
+            @Override
+            public void accept(HistogramBatch.Result result) {
+                results.put(result.getPath(), result);
+            }
+        });
+        
+        Assert.assertEquals(IMAGES, results.size());
+        for (Map.Entry<Path, int[][]> entry : expected.entrySet()) {
+            Assert.assertArrayEquals(entry.getValue(), results.get(entry.getKey()).getHistogram().getHistogram());
+        }
+    }
+    
+    /**
+     * Test that when the paths throw partway through, the exception reaches the caller, every batch
+     * thread has ended and no result is reported afterwards.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testFailingPaths() throws Exception {
+        final List<Thread> threads = new ArrayList<Thread>();
+        ThreadFactory factory = new ThreadFactory() {
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+                threads.add(thread);
+                return thread;
+            }
+        };
+        final List<Path> paths = new ArrayList<Path>(expected.keySet());
+        Iterable<Path> failing = new Iterable<Path>() {
+            @Override
+            public Iterator<Path> iterator() {
+                return new Iterator<Path>() {
+                    private int next;
+                    
+                    @Override
+                    public boolean hasNext() {
+                        return true;
+                    }
+                    
+                    @Override
+                    public Path next() {
+                        if (next == 5) { throw new IllegalStateException("listing failed"); }
+                        return paths.get(next++);
+                    }
+                };
+            }
+        };
+        final List<HistogramBatch.Result> results = Collections.synchronizedList(new ArrayList<HistogramBatch.Result>());
+        HistogramBatch batch = new HistogramBatch();
+        batch.setDecodeThreadFactory(factory);
+        batch.setComputeThreadFactory(factory);
+        
+        try {
+            batch.process(failing, new HistogramBatch.Listener() {
+                @Override
+                public void onResult(HistogramBatch.Result result) {
+                    results.add(result);
+                }
+            });
+            Assert.fail("The failure of the paths was swallowed");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("listing failed", e.getMessage());
+        }
+        Assert.assertFalse(threads.isEmpty());
+        for (Thread thread : threads) { Assert.assertFalse(thread.getName(), thread.isAlive()); }
+        // the threads are joined, so nothing is reported from now on
+        int reported = results.size();
+        Thread.sleep(50);
+        Assert.assertEquals(reported, results.size());
+        Assert.assertTrue(reported <= 5);
+    }
+    
+    /**
+     * Test that an Error thrown by the listener stops the batch instead of leaving the decoders blocked
+     * on a queue nobody drains, and reaches the caller.
+     *
+     * @throws Exception the exception
+     */
+    @Test(timeout = 20000)
+    public void testListenerError() throws Exception {
+        final List<Thread> threads = new ArrayList<Thread>();
+        ThreadFactory factory = new ThreadFactory() {
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+                threads.add(thread);
+                return thread;
+            }
+        };
+        HistogramBatch batch = new HistogramBatch();
+        batch.setDecodeThreads(2);
+        batch.setComputeThreads(1);
+        batch.setQueueCapacity(1);
+        batch.setDecodeThreadFactory(factory);
+        batch.setComputeThreadFactory(factory);
+        
+        try {
+            batch.processDirectory(folder.getRoot().toPath(), new HistogramBatch.Listener() {
+                @Override
+                public void onResult(HistogramBatch.Result result) {
+                    throw new AssertionError("listener failed");
+                }
+            });
+            Assert.fail("The error of the listener was swallowed");
+        } catch (AssertionError e) {
+            Assert.assertEquals("listener failed", e.getMessage());
+        }
+        Assert.assertFalse(Thread.currentThread().isInterrupted());
+        for (Thread thread : threads) { Assert.assertFalse(thread.getName(), thread.isAlive()); }
+    }
+}
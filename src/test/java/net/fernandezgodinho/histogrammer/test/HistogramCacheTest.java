@@ -0,0 +1,257 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import net.fernandezgodinho.histogrammer.HistogramCache;
+import net.fernandezgodinho.histogrammer.Histogrammer;
+import net.fernandezgodinho.histogrammer.MergeableHistogram;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The Class HistogramCacheTest.
+ *
+ * @author Joao Godinho
+ */
+public class HistogramCacheTest {
+    /** The Constant IMG_SIZE. */
+    private final static int IMG_SIZE = 64;
+
+    /** The Constant THREADS. */
+    private final static int THREADS = 8;
+
+    /** The temporary folder. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that a repeated lookup is served from memory and a new cache on the same directory from disk.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testMemoryAndDiskHits() throws IOException {
+        Path file = writeImage("a.png", 1);
+        Path directory = folder.newFolder("cache").toPath();
+        HistogramCache cache = new HistogramCache(directory);
+        MergeableHistogram expected = histogram(file);
+
+        Assert.assertEquals(expected, cache.get(file));
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(expected, cache.get(file));
+        Assert.assertEquals(1, cache.getMemoryHits());
+
+        // returned histograms are copies
+        cache.get(file).merge(expected);
+        Assert.assertEquals(expected, cache.get(file));
+
+        HistogramCache reopened = new HistogramCache(directory);
+        Assert.assertEquals(expected, reopened.get(file));
+        Assert.assertEquals(1, reopened.getDiskHits());
+        Assert.assertEquals(0, reopened.getMisses());
+    }
+
+    /**
+     * Test that rewriting a file misses.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testChangedFile() throws IOException {
+        Path file = writeImage("a.png", 1);
+        HistogramCache cache = new HistogramCache(folder.newFolder("cache").toPath());
+        cache.get(file);
+
+        writeImage("a.png", 2);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        Assert.assertEquals(histogram(file), cache.get(file));
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(0, cache.getMemoryHits());
+    }
+
+    /**
+     * Test that the least recently used entry is evicted from memory, and found again on disk.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testEviction() throws IOException {
+        Path a = writeImage("a.png", 1), b = writeImage("b.png", 2), c = writeImage("c.png", 3);
+        HistogramCache cache = new HistogramCache(folder.newFolder("cache").toPath(), 2);
+        cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(2, cache.getMemorySize());
+
+        cache.get(a);
+        Assert.assertEquals(2, cache.getMemoryHits());
+        cache.get(b);
+        Assert.assertEquals(1, cache.getDiskHits());
+        Assert.assertEquals(3, cache.getMisses());
+    }
+
+    /**
+     * Test that copies of a file share an entry with content hashing only.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testContentHash() throws IOException {
+        Path file = writeImage("a.png", 1);
+        Path copy = Files.copy(file, file.resolveSibling("copy.png"));
+
+        HistogramCache cache = new HistogramCache(folder.newFolder("paths").toPath());
+        cache.get(file);
+        cache.get(copy);
+        Assert.assertEquals(2, cache.getMisses());
+
+        HistogramCache hashed = new HistogramCache(folder.newFolder("hashes").toPath());
+        hashed.setContentHash(true);
+        Assert.assertEquals(histogram(file), hashed.get(file));
+        Assert.assertEquals(histogram(file), hashed.get(copy));
+        Assert.assertEquals(1, hashed.getMisses());
+        Assert.assertEquals(1, hashed.getMemoryHits());
+    }
+
+    /**
+     * Test that concurrent lookups of the same file decode it once.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        final Path file = writeImage("a.png", 1);
+        final HistogramCache cache = new HistogramCache(folder.newFolder("cache").toPath());
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<MergeableHistogram>> results = new ArrayList<Future<MergeableHistogram>>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(new Callable<MergeableHistogram>() {
+                    @Override
+                    public MergeableHistogram call() throws Exception {
+                        start.await();
+                        return cache.get(file);
+                    }
+                }));
+            }
+            start.countDown();
+            MergeableHistogram expected = histogram(file);
+            for (Future<MergeableHistogram> result : results) { Assert.assertEquals(expected, result.get()); }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(THREADS - 1, cache.getMemoryHits());
+    }
+
+    /**
+     * Test that a damaged entry file is decoded again.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testDamagedEntry() throws IOException {
+        Path file = writeImage("a.png", 1);
+        Path directory = folder.newFolder("cache").toPath();
+        new HistogramCache(directory).get(file);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) { Files.write(entry, new byte[] { 1, 2, 3 }); }
+        }
+
+        HistogramCache reopened = new HistogramCache(directory);
+        Assert.assertEquals(histogram(file), reopened.get(file));
+        Assert.assertEquals(1, reopened.getMisses());
+    }
+
+    /**
+     * Test that an entry whose stored length is larger than the file is decoded again rather than
+     * allocated.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testDamagedEntryLength() throws IOException {
+        Path file = writeImage("a.png", 1);
+        Path directory = folder.newFolder("cache").toPath();
+        new HistogramCache(directory).get(file);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                // the length follows the magic and the key, written with writeUTF
+                ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(entry));
+                bytes.putInt(6 + bytes.getShort(4), Integer.MAX_VALUE - 8);
+                Files.write(entry, bytes.array());
+            }
+        }
+
+        HistogramCache reopened = new HistogramCache(directory);
+        Assert.assertEquals(histogram(file), reopened.get(file));
+        Assert.assertEquals(1, reopened.getMisses());
+    }
+
+    /**
+     * Test that a file that is not an image is rejected.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test(expected = IOException.class)
+    public void testNotAnImage() throws IOException {
+        Path file = folder.newFile("a.txt").toPath();
+        Files.write(file, new byte[] { 'n', 'o', 't' });
+        new HistogramCache(folder.newFolder("cache").toPath()).get(file);
+    }
+
+    /**
+     * Writes a random PNG image.
+     *
+     * @param name the file name
+     * @param seed the seed
+     * @return the file
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private Path writeImage(String name, int seed) throws IOException {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(IMG_SIZE, IMG_SIZE, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < IMG_SIZE; y++) {
+            for (int x = 0; x < IMG_SIZE; x++) { image.setRGB(x, y, random.nextInt()); }
+        }
+        File file = new File(folder.getRoot(), name);
+        ImageIO.write(image, "png", file);
+        return file.toPath();
+    }
+
+    /**
+     * Counts the histogram of an image file.
+     *
+     * @param file the file
+     * @return the histogram
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static MergeableHistogram histogram(Path file) throws IOException {
+        Histogrammer histogrammer = new Histogrammer(ImageIO.read(file.toFile()));
+        histogrammer.calcHistogram();
+        return new MergeableHistogram(histogrammer);
+    }
+}
@@ -0,0 +1,161 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import net.fernandezgodinho.histogrammer.HistogramIndex;
+import net.fernandezgodinho.histogrammer.HistogramIndex.Match;
+import net.fernandezgodinho.histogrammer.HistogramIndex.Metric;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The Class HistogramIndexTest. Checks the pruned queries against a brute force scan.
+ *
+ * @author Joao Godinho
+ */
+public class HistogramIndexTest {
+    /** The Constant COLOR_RANGE. */
+    private final static int COLOR_RANGE = 256;
+
+    /** The Constant BINS. */
+    private final static int BINS = 16;
+
+    /** The Constant SIZE. */
+    private final static int SIZE = 2000;
+
+    /** The histograms, clusters of near duplicates. */
+    private List<int[][]> histograms;
+
+    /** The index. */
+    private HistogramIndex index;
+
+    /**
+     * Creates the histograms and the index.
+     */
+    @Before
+    public void setUp() {
+        Random random = new Random(4);
+        histograms = new ArrayList<int[][]>();
+        index = new HistogramIndex(BINS, 6);
+        int[][] center = null;
+        for (int i = 0; i < SIZE; i++) {
+            if (i % 20 == 0) { center = randomHistogram(random); }
+            int[][] histogram = new int[4][COLOR_RANGE];
+            for (int c = 0; c < 4; c++) {
+                for (int v = 0; v < COLOR_RANGE; v++) { histogram[c][v] = center[c][v] + random.nextInt(50); }
+            }
+            histograms.add(histogram);
+            Assert.assertEquals(i, index.add(histogram));
+        }
+    }
+
+    /**
+     * Test top-k queries of every metric against a brute force scan.
+     */
+    @Test
+    public void testTopK() {
+        Random random = new Random(9);
+
+        for (Metric metric : Metric.values()) {
+            for (int i = 0; i < 20; i++) {
+                int[][] query = i % 2 == 0 ? histograms.get(random.nextInt(SIZE)) : randomHistogram(random);
+                List<Match> expected = bruteForce(query, metric);
+                List<Match> matches = index.topK(query, 10, metric);
+                Assert.assertEquals(10, matches.size());
+                for (int j = 0; j < 10; j++) {
+                    Assert.assertEquals(metric + " " + j, expected.get(j).getDistance(), matches.get(j).getDistance(), 1e-9);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test radius queries of every metric against a brute force scan.
+     */
+    @Test
+    public void testRadius() {
+        Random random = new Random(10);
+
+        for (Metric metric : Metric.values()) {
+            for (int i = 0; i < 10; i++) {
+                int[][] query = histograms.get(random.nextInt(SIZE));
+                List<Match> expected = bruteForce(query, metric);
+                double radius = expected.get(30).getDistance();
+                List<Match> matches = index.radius(query, radius, metric);
+                int within = 0;
+                while (within < SIZE && expected.get(within).getDistance() <= radius) { within++; }
+                Assert.assertEquals(metric.toString(), within, matches.size());
+                for (Match match : matches) { Assert.assertTrue(match.getDistance() <= radius); }
+            }
+        }
+    }
+
+    /**
+     * Test parallel batches against single queries, and histograms added after the first query.
+     */
+    @Test
+    public void testBatch() {
+        Random random = new Random(12);
+        List<int[][]> queries = new ArrayList<int[][]>();
+
+        index.topK(histograms.get(0), 1, Metric.L1);
+        for (int i = 0; i < 30; i++) { queries.add(randomHistogram(random)); }
+        Assert.assertEquals(SIZE, index.add(queries.get(0)));
+        List<List<Match>> batch = index.topK(queries, 5, Metric.CHI_SQUARE, new ForkJoinPool(4));
+        for (int i = 0; i < queries.size(); i++) {
+            List<Match> single = index.topK(queries.get(i), 5, Metric.CHI_SQUARE);
+            Assert.assertEquals(single.size(), batch.get(i).size());
+            for (int j = 0; j < single.size(); j++) {
+                Assert.assertEquals(single.get(j).getId(), batch.get(i).get(j).getId());
+            }
+        }
+        Assert.assertEquals(SIZE, batch.get(0).get(0).getId());
+        Assert.assertEquals(0, batch.get(0).get(0).getDistance(), 1e-9);
+    }
+
+    /**
+     * Distances from a query to every histogram, closest first, using a separate index per histogram.
+     *
+     * @param query the query
+     * @param metric the metric
+     * @return the matches
+     */
+    private List<Match> bruteForce(int[][] query, Metric metric) {
+        List<Match> matches = new ArrayList<Match>();
+        HistogramIndex single = new HistogramIndex(BINS, 1);
+        single.add(query);
+        for (int[][] histogram : histograms) {
+            matches.add(single.topK(histogram, 1, metric).get(0));
+        }
+        Collections.sort(matches, new Comparator<Match>() {
+            @Override
+            public int compare(Match a, Match b) {
+                return Double.compare(a.getDistance(), b.getDistance());
+            }
+        });
+        return matches;
+    }
+
+    /**
+     * Random histogram.
+     *
+     * @param random the random
+     * @return the histogram
+     */
+    private static int[][] randomHistogram(Random random) {
+        int[][] histogram = new int[4][COLOR_RANGE];
+
+        for (int c = 0; c < 4; c++) {
+            int peak = random.nextInt(COLOR_RANGE);
+            for (int v = 0; v < COLOR_RANGE; v++) { histogram[c][v] = 5000 / (1 + Math.abs(v - peak)) + random.nextInt(100); }
+        }
+        return histogram;
+    }
+}
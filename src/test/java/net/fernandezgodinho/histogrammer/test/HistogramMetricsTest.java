@@ -0,0 +1,202 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import net.fernandezgodinho.histogrammer.HistogramCache;
+import net.fernandezgodinho.histogrammer.HistogramMetrics;
+import net.fernandezgodinho.histogrammer.HistogramMetrics.Phase;
+import net.fernandezgodinho.histogrammer.Histogrammer;
+import net.fernandezgodinho.histogrammer.TiledHistogramReader;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The Class HistogramMetricsTest.
+ *
+ * @author Joao Godinho
+ */
+public class HistogramMetricsTest {
+    /** The Constant EVENT_NAME. */
+    private final static String EVENT_NAME = "net.fernandezgodinho.histogrammer.Histogram";
+
+    /** The Constant IMG_WIDTH. */
+    private final static int IMG_WIDTH = 120;
+
+    /** The Constant IMG_HEIGHT. */
+    private final static int IMG_HEIGHT = 80;
+
+    /** The temporary folder. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Clears the metrics.
+     */
+    @Before
+    public void setUp() {
+        HistogramMetrics.reset();
+    }
+
+    /**
+     * Turns the metrics off and clears them.
+     */
+    @After
+    public void tearDown() {
+        HistogramMetrics.setEnabled(false);
+        HistogramMetrics.reset();
+    }
+
+    /**
+     * Test the counters of every phase, and that nothing is recorded while metrics are off.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testMetrics() throws IOException {
+        Path file = writeImage();
+        Histogrammer histogrammer = new Histogrammer(new BufferedImage(IMG_WIDTH, IMG_HEIGHT,
+                BufferedImage.TYPE_INT_RGB));
+        histogrammer.calcHistogram();
+        histogrammer.getHistogramAsImage(1);
+        for (Phase phase : Phase.values()) { Assert.assertEquals(0, HistogramMetrics.getCount(phase)); }
+
+        HistogramMetrics.setEnabled(true);
+        new HistogramCache(folder.newFolder("cache").toPath()).get(file);
+        histogrammer.reset();
+        histogrammer.calcHistogram();
+        histogrammer.getHistogramAsImage(2);
+        // the percentages are cached
+        histogrammer.getPercentageHistogram();
+        histogrammer.reset();
+        histogrammer.calcHistogram();
+
+        long pixels = IMG_WIDTH * IMG_HEIGHT;
+        Assert.assertEquals(1, HistogramMetrics.getCount(Phase.DECODE));
+        Assert.assertEquals(pixels, HistogramMetrics.getPixels(Phase.DECODE));
+        Assert.assertEquals(3, HistogramMetrics.getCount(Phase.COUNT));
+        Assert.assertEquals(3 * pixels, HistogramMetrics.getPixels(Phase.COUNT));
+        Assert.assertEquals(1, HistogramMetrics.getCount(Phase.PERCENTAGE));
+        Assert.assertEquals(1, HistogramMetrics.getCount(Phase.RENDER));
+        Assert.assertEquals(512 * 200, HistogramMetrics.getPixels(Phase.RENDER));
+
+        long[] latencies = HistogramMetrics.getLatencyHistogram(Phase.COUNT);
+        long calls = 0;
+        for (long count : latencies) { calls += count; }
+        Assert.assertEquals(3, calls);
+        Assert.assertTrue(HistogramMetrics.getTotalNanos(Phase.COUNT) > 0);
+        Assert.assertTrue(HistogramMetrics.getPixelsPerSecond(Phase.COUNT) > 0);
+        long median = HistogramMetrics.getLatencyPercentile(Phase.COUNT, 50);
+        Assert.assertTrue(median > 0 && median <= 2 * HistogramMetrics.getTotalNanos(Phase.COUNT));
+
+        HistogramMetrics.reset();
+        Assert.assertEquals(0, HistogramMetrics.getCount(Phase.COUNT));
+        Assert.assertEquals(0, HistogramMetrics.getLatencyPercentile(Phase.COUNT, 99));
+        Assert.assertEquals(0, HistogramMetrics.getPixelsPerSecond(Phase.COUNT), 0);
+    }
+
+    /**
+     * Test that the masked, alpha weighted, raster and tiled counts are recorded too.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testOtherCounts() throws IOException {
+        Path file = writeImage();
+        BufferedImage image = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Histogrammer histogrammer = new Histogrammer(image);
+        long pixels = IMG_WIDTH * IMG_HEIGHT;
+        HistogramMetrics.setEnabled(true);
+
+        histogrammer.calcMaskedHistogram(new long[(IMG_WIDTH + 63) / 64 * IMG_HEIGHT]);
+        histogrammer.calcMaskedHistogram(new BufferedImage(IMG_WIDTH, IMG_HEIGHT,
+                BufferedImage.TYPE_BYTE_BINARY).getRaster());
+        Assert.assertEquals(2, HistogramMetrics.getCount(Phase.COUNT));
+        Assert.assertEquals(2 * pixels, HistogramMetrics.getPixels(Phase.COUNT));
+
+        histogrammer.calcAlphaWeightedHistogram();
+        histogrammer.accumulate(image.getRaster().createChild(0, 0, 10, 20, 0, 0, null));
+        Assert.assertEquals(4, HistogramMetrics.getCount(Phase.COUNT));
+        Assert.assertEquals(3 * pixels + 200, HistogramMetrics.getPixels(Phase.COUNT));
+
+        HistogramMetrics.reset();
+        new TiledHistogramReader().read(file.toFile());
+        Assert.assertEquals(1, HistogramMetrics.getCount(Phase.DECODE));
+        Assert.assertEquals(pixels, HistogramMetrics.getPixels(Phase.DECODE));
+        Assert.assertEquals(1, HistogramMetrics.getCount(Phase.COUNT));
+        Assert.assertEquals(pixels, HistogramMetrics.getPixels(Phase.COUNT));
+    }
+
+    /**
+     * Test the flight recorder events of counting and rendering, with metrics off.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testFlightRecorderEvents() throws IOException {
+        Histogrammer histogrammer = new Histogrammer(new BufferedImage(IMG_WIDTH, IMG_HEIGHT,
+                BufferedImage.TYPE_3BYTE_BGR));
+        Path dump = folder.getRoot().toPath().resolve("histogram.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(EVENT_NAME);
+            recording.start();
+            histogrammer.calcHistogram();
+            histogrammer.getHistogramAsImage(1);
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<String> phases = new ArrayList<String>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+            if (!EVENT_NAME.equals(event.getEventType().getName())) { continue; }
+            String phase = event.getString("phase");
+            phases.add(phase);
+            if ("COUNT".equals(phase)) {
+                Assert.assertEquals(BufferedImage.TYPE_3BYTE_BGR, event.getInt("imageType"));
+                Assert.assertEquals(IMG_WIDTH, event.getInt("width"));
+                Assert.assertEquals(IMG_HEIGHT, event.getInt("height"));
+                Assert.assertEquals(IMG_WIDTH * IMG_HEIGHT, event.getLong("pixels"));
+                Assert.assertEquals("THREE_BYTE_BGR", event.getString("kernel"));
+            }
+        }
+        Assert.assertTrue(phases.toString(), phases.contains("COUNT"));
+        Assert.assertTrue(phases.toString(), phases.contains("PERCENTAGE"));
+        Assert.assertTrue(phases.toString(), phases.contains("RENDER"));
+        Assert.assertEquals(0, HistogramMetrics.getCount(Phase.COUNT));
+    }
+
+    /**
+     * Test that a percentile outside 0 to 100 is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        HistogramMetrics.getLatencyPercentile(Phase.COUNT, 101);
+    }
+
+    /**
+     * Writes a PNG image.
+     *
+     * @return the file
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private Path writeImage() throws IOException {
+        File file = new File(folder.getRoot(), "image.png");
+        ImageIO.write(new BufferedImage(IMG_WIDTH, IMG_HEIGHT, BufferedImage.TYPE_INT_ARGB), "png", file);
+        return file.toPath();
+    }
+}
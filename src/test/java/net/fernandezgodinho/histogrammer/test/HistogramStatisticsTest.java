@@ -0,0 +1,129 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.fernandezgodinho.histogrammer.HistogramStatistics;
+import net.fernandezgodinho.histogrammer.Histogrammer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The Class HistogramStatisticsTest.
+ *
+ * @author Joao Godinho
+ */
+public class HistogramStatisticsTest {
+    /** The Constant IMG_WIDTH. */
+    private final static int IMG_WIDTH = 101;
+
+    /** The Constant IMG_HEIGHT. */
+    private final static int IMG_HEIGHT = 77;
+
+    /**
+     * Test every statistic against the sorted pixel values of each channel.
+     */
+    @Test
+    public void testStatistics() {
+        BufferedImage image = randomImage(new Random(3));
+        Histogrammer histogrammer = new Histogrammer(image);
+        histogrammer.calcHistogram();
+        HistogramStatistics statistics = histogrammer.getStatistics();
+
+        for (int c = 1; c < 4; c++) {
+            int[] values = channel(image, c);
+            Arrays.sort(values);
+            int n = values.length;
+            double mean = 0, variance = 0, entropy = 0;
+            for (int value : values) { mean += value; }
+            mean /= n;
+            for (int value : values) { variance += (value - mean) * (value - mean); }
+            variance /= n;
+            for (int count : histogrammer.getHistogram()[c]) {
+                if (count > 0) { entropy -= (double) count / n * Math.log((double) count / n) / Math.log(2); }
+            }
+
+            Assert.assertEquals(n, statistics.getTotal(c));
+            Assert.assertEquals(values[0], statistics.getMin(c));
+            Assert.assertEquals(values[n - 1], statistics.getMax(c));
+            Assert.assertEquals(mean, statistics.getMean(c), 1e-9);
+            Assert.assertEquals(variance, statistics.getVariance(c), 1e-6);
+            Assert.assertEquals(entropy, statistics.getEntropy(c), 1e-9);
+            Assert.assertEquals(values[(n - 1) / 2], statistics.getMedian(c));
+            Assert.assertEquals(values[0], statistics.getPercentile(c, 0));
+            Assert.assertEquals(values[n - 1], statistics.getPercentile(c, 100));
+            for (double p : new double[] { 1, 10, 33.3, 90, 99.9 }) {
+                Assert.assertEquals(values[(int) Math.ceil(p / 100 * n) - 1], statistics.getPercentile(c, p));
+            }
+            int below = 0;
+            while (below < n && values[below] <= 128) { below++; }
+            Assert.assertEquals(below, statistics.getCumulative(c, 128));
+            Assert.assertEquals((double) below / n, statistics.getCdf(c, 128), 0);
+        }
+        Assert.assertEquals(0, statistics.getEntropy(0), 0);
+        Assert.assertEquals(0, statistics.getVariance(0), 0);
+    }
+
+    /**
+     * Test that the statistics are cached until the histogram changes.
+     */
+    @Test
+    public void testInvalidation() {
+        Random random = new Random(4);
+        BufferedImage image = randomImage(random);
+        Histogrammer histogrammer = new Histogrammer(image);
+        histogrammer.calcHistogram();
+        HistogramStatistics statistics = histogrammer.getStatistics();
+        double mean = statistics.getMean(1);
+        Assert.assertSame(statistics, histogrammer.getStatistics());
+
+        histogrammer.calcHistogram();
+        Assert.assertEquals(2L * IMG_WIDTH * IMG_HEIGHT, histogrammer.getStatistics().getTotal(1));
+        Assert.assertEquals(mean, histogrammer.getStatistics().getMean(1), 1e-9);
+
+        BufferedImage other = randomImage(random);
+        histogrammer.reset(other);
+        Assert.assertEquals(0, histogrammer.getStatistics().getTotal(1));
+        Assert.assertEquals(-1, histogrammer.getStatistics().getMedian(1));
+        Assert.assertTrue(Double.isNaN(histogrammer.getStatistics().getMean(1)));
+        histogrammer.calcHistogram();
+        Histogrammer expected = new Histogrammer(other);
+        expected.calcHistogram();
+        Assert.assertEquals(expected.getStatistics().getMean(2), histogrammer.getStatistics().getMean(2), 0);
+        Assert.assertSame(statistics, histogrammer.getStatistics());
+    }
+
+    /**
+     * Values of a channel of every pixel.
+     *
+     * @param image the image
+     * @param channel the channel, 1 red to 3 blue
+     * @return the values
+     */
+    private static int[] channel(BufferedImage image, int channel) {
+        int[] values = new int[image.getWidth() * image.getHeight()];
+        for (int y = 0, i = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) { values[i++] = 0xFF & image.getRGB(x, y) >> (24 - 8 * channel); }
+        }
+        return values;
+    }
+
+    /**
+     * Random opaque image, with red skewed towards dark values.
+     *
+     * @param random the random
+     * @return the image
+     */
+    private static BufferedImage randomImage(Random random) {
+        BufferedImage image = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < IMG_HEIGHT; y++) {
+            for (int x = 0; x < IMG_WIDTH; x++) {
+                int red = random.nextInt(1 + random.nextInt(256));
+                image.setRGB(x, y, red << 16 | random.nextInt(1 << 16));
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,180 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import net.fernandezgodinho.histogrammer.HistogramCodec;
+import net.fernandezgodinho.histogrammer.HistogramCodec.Encoding;
+import net.fernandezgodinho.histogrammer.HistogramStore;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The Class HistogramStoreTest. Tests the binary histogram format and the store built on it.
+ *
+ * @author Joao Godinho
+ */
+public class HistogramStoreTest {
+    /** The Constant COLOR_RANGE. */
+    private final static int COLOR_RANGE = 256;
+
+    /** The temporary folder. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that every encoding round trips, and that the varint encodings shrink sparse histograms.
+     */
+    @Test
+    public void testEncodings() {
+        Random random = new Random(5);
+        int[][] histogram = randomHistogram(random);
+        histogram[1][7] = Integer.MAX_VALUE;
+        histogram[2][9] = -1;
+
+        for (Encoding encoding : Encoding.values()) {
+            byte[] encoded = HistogramCodec.encode(histogram, encoding);
+            Assert.assertArrayEquals(encoding.toString(), histogram, HistogramCodec.decode(encoded));
+        }
+        Assert.assertEquals(HistogramCodec.HEADER_SIZE + HistogramCodec.RECORD_SIZE,
+                HistogramCodec.encode(histogram, Encoding.RAW).length);
+
+        int[][] sparse = new int[4][COLOR_RANGE];
+        sparse[0][255] = 1000000;
+        for (int v = 0; v < COLOR_RANGE; v++) { sparse[1][v] = 3000 + v; }
+        Assert.assertTrue(HistogramCodec.encode(sparse, Encoding.VARINT).length < HistogramCodec.RECORD_SIZE / 2);
+        Assert.assertTrue(HistogramCodec.encode(sparse, Encoding.DELTA_VARINT).length
+                < HistogramCodec.encode(sparse, Encoding.VARINT).length);
+    }
+
+    /**
+     * Test that data which is not an encoded histogram is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testCorrupt() {
+        byte[] encoded = HistogramCodec.encode(new int[4][COLOR_RANGE], Encoding.RAW);
+        encoded[2] = 99;
+        HistogramCodec.decode(encoded);
+    }
+
+    /**
+     * Test appending across segments, reading back by index and reopening the store.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testStore() throws IOException {
+        Path directory = folder.newFolder("store").toPath();
+        int[][][] histograms = new int[25][][];
+        Random random = new Random(8);
+
+        try (HistogramStore store = new HistogramStore(directory, 10)) {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = randomHistogram(random);
+                Assert.assertEquals(i, store.append(histograms[i]));
+            }
+            assertStore(store, histograms);
+        }
+        Assert.assertEquals(3, directory.toFile().list().length);
+
+        try (HistogramStore store = new HistogramStore(directory, 10)) {
+            assertStore(store, histograms);
+            int[][] last = randomHistogram(random);
+            Assert.assertEquals(histograms.length, store.append(last));
+            int[][] read = new int[4][COLOR_RANGE];
+            store.read(histograms.length, read);
+            Assert.assertArrayEquals(last, read);
+        }
+    }
+
+    /**
+     * Test that reopening with a different segment size is rejected.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test(expected = IOException.class)
+    public void testSegmentSize() throws IOException {
+        Path directory = folder.newFolder("store").toPath();
+
+        try (HistogramStore store = new HistogramStore(directory, 10)) {
+            store.append(new int[4][COLOR_RANGE]);
+        }
+        Assert.assertTrue(Files.exists(directory.resolve("segment-00000.hst")));
+        new HistogramStore(directory, 20).close();
+    }
+
+    /**
+     * Test that a closed store rejects appends, reads and flushes.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testClosed() throws IOException {
+        HistogramStore store = new HistogramStore(folder.newFolder("store").toPath(), 10);
+        store.append(new int[4][COLOR_RANGE]);
+        IntBuffer view = store.get(0);
+        store.close();
+        store.close();
+
+        try {
+            store.append(new int[4][COLOR_RANGE]);
+            Assert.fail("append after close");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            store.get(0);
+            Assert.fail("get after close");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            store.flush();
+            Assert.fail("flush after close");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals(0, view.get(0));
+    }
+
+    /**
+     * Asserts that a store holds the given histograms.
+     *
+     * @param store the store
+     * @param histograms the histograms
+     */
+    private static void assertStore(HistogramStore store, int[][][] histograms) {
+        Assert.assertEquals(histograms.length, store.size());
+        for (int i = 0; i < histograms.length; i++) {
+            IntBuffer record = store.get(i);
+            Assert.assertEquals(4 * COLOR_RANGE, record.remaining());
+            for (int c = 0; c < 4; c++) {
+                for (int v = 0; v < COLOR_RANGE; v++) {
+                    Assert.assertEquals(histograms[i][c][v], record.get(c * COLOR_RANGE + v));
+                }
+            }
+            Assert.assertEquals(histograms[i][2][17], store.getCount(i, 2, 17));
+        }
+    }
+
+    /**
+     * Random histogram.
+     *
+     * @param random the random
+     * @return the histogram
+     */
+    private static int[][] randomHistogram(Random random) {
+        int[][] histogram = new int[4][COLOR_RANGE];
+
+        for (int c = 0; c < 4; c++) {
+            for (int v = 0; v < COLOR_RANGE; v++) { histogram[c][v] = random.nextInt(100000); }
+        }
+        return histogram;
+    }
+}
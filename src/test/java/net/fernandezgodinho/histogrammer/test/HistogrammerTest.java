@@ -3,7 +3,10 @@ package net.fernandezgodinho.histogrammer.test;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.imageio.ImageIO;
 
@@ -366,4 +369,292 @@ public class HistogrammerTest {
         actualHistogram = histogram.getPercentageHistogram();
         Assert.assertArrayEquals(expectedHistogram, actualHistogram);
     }
+    
+    /**
+     * Test that the raster kernels match getRGB on every supported image type and on the fallback.
+     */
+    @Test
+    public void testImageTypes() {
+        int[] types = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY,
+                BufferedImage.TYPE_INT_ARGB_PRE, BufferedImage.TYPE_USHORT_565_RGB };
+        
+        for (int type : types) {
+            BufferedImage image = randomImage(type, 123, 77);
+            Histogrammer histogram = new Histogrammer(image);
+            histogram.calcHistogram();
+            Assert.assertArrayEquals("type " + type, rgbHistogram(image), histogram.getHistogram());
+            
+            // sub-images share the parent raster with an offset and a wider stride
+            BufferedImage subImage = image.getSubimage(13, 7, 64, 50);
+            histogram = new Histogrammer(subImage);
+            histogram.calcHistogram();
+            Assert.assertArrayEquals("sub-image type " + type, rgbHistogram(subImage), histogram.getHistogram());
+        }
+    }
+    
+    /**
+     * Test the banked packed int kernels on uniform and random images large enough to use them, with a
+     * width that is not a multiple of the banks, on sub-images, and twice in a row on the same thread.
+     */
+    @Test
+    public void testBankedKernels() {
+        int[] types = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB };
+        
+        for (int type : types) {
+            BufferedImage uniform = new BufferedImage(301, 203, type);
+            for (int w = 0; w < uniform.getWidth(); w++) {
+                for (int h = 0; h < uniform.getHeight(); h++) { uniform.setRGB(w, h, 0x80FFFFFF); }
+            }
+            BufferedImage random = randomImage(type, 301, 203);
+            BufferedImage[] images = { uniform, random, uniform.getSubimage(3, 5, 257, 190),
+                    random.getSubimage(1, 2, 299, 201) };
+            for (BufferedImage image : images) {
+                for (int pass = 0; pass < 2; pass++) {
+                    Histogrammer histogram = new Histogrammer(image);
+                    histogram.calcHistogram();
+                    Assert.assertArrayEquals("type " + type, rgbHistogram(image), histogram.getHistogram());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test that the parallel histogram is identical to the sequential one, above and below the threshold.
+     */
+    @Test
+    public void testParallel() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        int[] types = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY };
+        
+        try {
+            for (int type : types) {
+                BufferedImage image = randomImage(type, 640, 480);
+                Histogrammer sequential = new Histogrammer(image);
+                sequential.calcHistogram();
+                
+                Histogrammer parallel = new Histogrammer(image);
+                parallel.setParallelThreshold(0);
+                parallel.calcHistogram(pool);
+                Assert.assertArrayEquals("type " + type, sequential.getHistogram(), parallel.getHistogram());
+                
+                Histogrammer small = new Histogrammer(image);
+                small.calcHistogram(pool);
+                Assert.assertArrayEquals("type " + type, sequential.getHistogram(), small.getHistogram());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Test that the raster renderer draws exactly what the getRGB/setRGB renderer did, into new and
+     * reused images.
+     */
+    @Test
+    public void testHistogramAsImage() {
+        BufferedImage[] images = { redGradientImg, greenGradientImg, whiteImg,
+                randomImage(BufferedImage.TYPE_INT_ARGB, 50, 20), randomImage(BufferedImage.TYPE_BYTE_GRAY, 64, 64) };
+        
+        for (BufferedImage image : images) {
+            Histogrammer histogram = new Histogrammer(image);
+            histogram.calcHistogram();
+            for (int scale = 1; scale <= 4; scale++) {
+                BufferedImage expected = referenceHistogramImage(histogram.getPercentageHistogram(), scale);
+                assertSamePixels(expected, histogram.getHistogramAsImage(scale));
+                
+                BufferedImage reused = randomImage(BufferedImage.TYPE_INT_ARGB, COLOR_RANGE * scale, 100 * scale);
+                Assert.assertSame(reused, histogram.getHistogramAsImage(scale, reused));
+                assertSamePixels(expected, reused);
+                
+                BufferedImage parent = new BufferedImage(COLOR_RANGE * scale + 3, 100 * scale + 2, BufferedImage.TYPE_INT_ARGB);
+                BufferedImage subImage = parent.getSubimage(2, 1, COLOR_RANGE * scale, 100 * scale);
+                histogram.getHistogramAsImage(scale, subImage);
+                assertSamePixels(expected, subImage);
+                Assert.assertEquals(0, parent.getRGB(0, 0));
+            }
+        }
+    }
+    
+    /**
+     * Test that a destination image of the wrong size is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testHistogramAsImageWrongSize() {
+        Histogrammer histogram = new Histogrammer(redImg);
+        histogram.calcHistogram();
+        histogram.getHistogramAsImage(2, new BufferedImage(COLOR_RANGE, 100, BufferedImage.TYPE_INT_ARGB));
+    }
+    
+    /**
+     * Test that reset clears the counters and the cached percentage histogram follows the histogram.
+     */
+    @Test
+    public void testReset() {
+        Histogrammer histogram = new Histogrammer(redImg);
+        histogram.calcHistogram();
+        int[][] percentage = histogram.getPercentageHistogram();
+        Assert.assertEquals(100, percentage[1][255]);
+        
+        histogram.reset(blueImg);
+        Assert.assertEquals(0, histogram.getPercentageHistogram()[1][255]);
+        histogram.calcHistogram();
+        Assert.assertSame(percentage, histogram.getPercentageHistogram());
+        Assert.assertEquals(100, percentage[3][255]);
+        Assert.assertEquals(0, percentage[1][255]);
+        
+        BufferedImage gray = randomImage(BufferedImage.TYPE_BYTE_GRAY, 40, 30);
+        histogram.reset(gray);
+        histogram.calcHistogram();
+        Assert.assertArrayEquals(rgbHistogram(gray), histogram.getHistogram());
+        
+        histogram.reset();
+        histogram.calcHistogram();
+        Assert.assertArrayEquals(rgbHistogram(gray), histogram.getHistogram());
+    }
+    
+    /**
+     * Test accumulating the rasters of parts of an image.
+     */
+    @Test
+    public void testAccumulateRaster() {
+        int[] types = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_USHORT_565_RGB };
+        
+        for (int type : types) {
+            BufferedImage image = randomImage(type, 90, 60);
+            Histogrammer histogram = new Histogrammer(image);
+            histogram.accumulate(image.getRaster().createChild(0, 0, 90, 25, 0, 0, null));
+            histogram.accumulate(image.getRaster().createChild(0, 25, 90, 35, 0, 25, null));
+            Assert.assertArrayEquals("type " + type, rgbHistogram(image), histogram.getHistogram());
+            
+            // a copy of the raster with its own data buffer and translated coordinates
+            histogram.reset();
+            histogram.accumulate(image.getData().createTranslatedChild(500, -20));
+            Assert.assertArrayEquals("type " + type, rgbHistogram(image), histogram.getHistogram());
+        }
+    }
+    
+    /**
+     * Test that once warmed up, processing a frame with a reused histogrammer and a reused output image
+     * allocates nothing.
+     */
+    @Test
+    public void testFrameAllocation() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int[] types = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_BYTE_GRAY };
+        
+        for (int type : types) {
+            BufferedImage[] frames = { randomImage(type, 320, 240), randomImage(type, 320, 240) };
+            Histogrammer histogram = new Histogrammer(frames[0]);
+            BufferedImage plot = new BufferedImage(COLOR_RANGE * 2, 100 * 2, BufferedImage.TYPE_INT_ARGB);
+            
+            processFrames(histogram, frames, plot, 200);
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            processFrames(histogram, frames, plot, 200);
+            long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            Assert.assertEquals("type " + type, 0, allocated);
+        }
+    }
+    
+    /**
+     * Histograms and renders a number of frames.
+     *
+     * @param histogram the histogram
+     * @param frames the frames, used in turn
+     * @param plot the plot to render into
+     * @param count the number of frames
+     */
+    private static void processFrames(Histogrammer histogram, BufferedImage[] frames, BufferedImage plot, int count) {
+        for (int i = 0; i < count; i++) {
+            histogram.reset(frames[i % frames.length]);
+            histogram.calcHistogram();
+            histogram.getHistogramAsImage(2, plot);
+        }
+    }
+    
+    /**
+     * Asserts that two images have the same pixels.
+     *
+     * @param expected the expected image
+     * @param actual the actual image
+     */
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        Assert.assertEquals(expected.getWidth(), actual.getWidth());
+        Assert.assertEquals(expected.getHeight(), actual.getHeight());
+        Assert.assertArrayEquals(
+                expected.getRGB(0, 0, expected.getWidth(), expected.getHeight(), null, 0, expected.getWidth()),
+                actual.getRGB(0, 0, actual.getWidth(), actual.getHeight(), null, 0, actual.getWidth()));
+    }
+    
+    /**
+     * Renders a percentage histogram pixel by pixel with getRGB and setRGB, the way the library did
+     * before drawing straight into the raster.
+     *
+     * @param histogram the percentage histogram
+     * @param scale the scale
+     * @return the image
+     */
+    private static BufferedImage referenceHistogramImage(int[][] histogram, int scale) {
+        int[] colors = { OPAQUE, OPAQUE | RED_COLOR, OPAQUE | GREEN_COLOR, OPAQUE | BLUE_COLOR };
+        BufferedImage image = new BufferedImage(COLOR_RANGE * scale, 100 * scale, BufferedImage.TYPE_INT_ARGB);
+        int[] colorArr = new int[scale];
+        
+        for (int i = 0; i < COLOR_RANGE; i++) {
+            for (int c = 0; c < 4; c++) {
+                int correctY = (100 - histogram[c][i]) * scale;
+                if (correctY == 100 * scale) { correctY--; }
+                Arrays.fill(colorArr, colors[c] | image.getRGB(i * scale, correctY));
+                image.setRGB(i * scale, correctY, scale, 1, colorArr, 0, scale);
+            }
+        }
+        for (int h = 0; h < image.getHeight(); h++) {
+            for (int w = 0; w < image.getWidth(); w++) {
+                if (image.getRGB(w, h) == 0) {
+                    image.setRGB(w, h, OPAQUE | (RED_COLOR - (100 << RED_SHIFT))
+                            | (GREEN_COLOR - (100 << GREEN_SHIFT)) | (BLUE_COLOR - (100 << BLUE_SHIFT)));
+                }
+            }
+        }
+        return image;
+    }
+    
+    /**
+     * Creates an image of the given type filled with random pixels.
+     *
+     * @param type the image type
+     * @param width the width
+     * @param height the height
+     * @return the image
+     */
+    private static BufferedImage randomImage(int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(type);
+        int[] imgArr = new int[width * height];
+        
+        for (int i = 0; i < imgArr.length; i++) { imgArr[i] = random.nextInt(); }
+        image.setRGB(0, 0, width, height, imgArr, 0, width);
+        return image;
+    }
+    
+    /**
+     * Calculates the reference histogram of an image with one getRGB call per pixel.
+     *
+     * @param image the image
+     * @return the histogram
+     */
+    private static int[][] rgbHistogram(BufferedImage image) {
+        int[][] histogram = new int[4][COLOR_RANGE];
+        
+        for (int h = 0; h < image.getHeight(); h++) {
+            for (int w = 0; w < image.getWidth(); w++) {
+                int pixel = image.getRGB(w, h);
+                histogram[0][0xFF & (pixel >> 24)]++;
+                histogram[1][0xFF & (pixel >> RED_SHIFT)]++;
+                histogram[2][0xFF & (pixel >> GREEN_SHIFT)]++;
+                histogram[3][0xFF & (pixel >> BLUE_SHIFT)]++;
+            }
+        }
+        return histogram;
+    }
 }
@@ -0,0 +1,112 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import net.fernandezgodinho.histogrammer.Histogrammer;
+import net.fernandezgodinho.histogrammer.IntegralHistogram;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The Class IntegralHistogramTest.
+ * 
+ * @author Joao Godinho
+ */
+public class IntegralHistogramTest {
+    /** The Constant COLOR_RANGE. */
+    private final static int COLOR_RANGE = 256;
+    
+    /** The Constant IMG_WIDTH. */
+    private final static int IMG_WIDTH = 120;
+    
+    /** The Constant IMG_HEIGHT. */
+    private final static int IMG_HEIGHT = 80;
+    
+    /** The random image. */
+    private BufferedImage image;
+    
+    /**
+     * Creates a random image.
+     */
+    @Before
+    public void setUp() {
+        Random random = new Random(3);
+        int[] imgArr = new int[IMG_WIDTH * IMG_HEIGHT];
+        
+        for (int i = 0; i < imgArr.length; i++) { imgArr[i] = random.nextInt(); }
+        image = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, IMG_WIDTH, IMG_HEIGHT, imgArr, 0, IMG_WIDTH);
+    }
+    
+    /**
+     * Test random rectangles against the histograms of sub-images, with and without quantisation.
+     */
+    @Test
+    public void testRectangles() {
+        Random random = new Random(11);
+        
+        for (int bins : new int[] { 1, 16, COLOR_RANGE }) {
+            IntegralHistogram integral = new IntegralHistogram(new Histogrammer(image), bins);
+            Assert.assertEquals(bins, integral.getBins());
+            for (int i = 0; i < 50; i++) {
+                int x = random.nextInt(IMG_WIDTH), y = random.nextInt(IMG_HEIGHT);
+                int w = random.nextInt(IMG_WIDTH - x + 1), h = random.nextInt(IMG_HEIGHT - y + 1);
+                Assert.assertArrayEquals(x + "," + y + " " + w + "x" + h,
+                        quantise(subHistogram(x, y, w, h), bins), integral.histogram(x, y, w, h));
+            }
+            Assert.assertArrayEquals(quantise(subHistogram(0, 0, IMG_WIDTH, IMG_HEIGHT), bins),
+                    integral.histogram(0, 0, IMG_WIDTH, IMG_HEIGHT));
+        }
+    }
+    
+    /**
+     * Test that rectangles outside the image are rejected.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutside() {
+        new IntegralHistogram(new Histogrammer(image), 8).histogram(IMG_WIDTH - 10, 0, 11, 1);
+    }
+    
+    /**
+     * Test that bin counts other than powers of two are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testBins() {
+        new IntegralHistogram(new Histogrammer(image), 12);
+    }
+    
+    /**
+     * Histogram of a sub-image.
+     *
+     * @param x the x
+     * @param y the y
+     * @param w the width
+     * @param h the height
+     * @return the histogram
+     */
+    private int[][] subHistogram(int x, int y, int w, int h) {
+        if (w == 0 || h == 0) { return new int[4][COLOR_RANGE]; }
+        Histogrammer histogram = new Histogrammer(image.getSubimage(x, y, w, h));
+        histogram.calcHistogram();
+        return histogram.getHistogram();
+    }
+    
+    /**
+     * Merges the 256 values of each channel into bins.
+     *
+     * @param histogram the histogram
+     * @param bins the bins
+     * @return the quantised histogram
+     */
+    private static int[][] quantise(int[][] histogram, int bins) {
+        int[][] quantised = new int[4][bins];
+        
+        for (int c = 0; c < 4; c++) {
+            for (int v = 0; v < COLOR_RANGE; v++) { quantised[c][v * bins / COLOR_RANGE] += histogram[c][v]; }
+        }
+        return quantised;
+    }
+}
@@ -0,0 +1,141 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import net.fernandezgodinho.histogrammer.Histogrammer;
+import net.fernandezgodinho.histogrammer.JointHistogram;
+import net.fernandezgodinho.histogrammer.JointHistogram.Space;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The Class JointHistogramTest.
+ *
+ * @author Joao Godinho
+ */
+public class JointHistogramTest {
+    /** The Constant IMG_WIDTH. */
+    private final static int IMG_WIDTH = 160;
+
+    /** The Constant IMG_HEIGHT. */
+    private final static int IMG_HEIGHT = 120;
+
+    /**
+     * Test dense and sparse RGB and HSV histograms against getRGB, filled in one pass with the
+     * channel histograms.
+     */
+    @Test
+    public void testJoint() {
+        for (int type : new int[] { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_BYTE_GRAY }) {
+            BufferedImage image = randomImage(type);
+            JointHistogram rgb = new JointHistogram(Space.RGB, 8);
+            JointHistogram rgbSparse = new JointHistogram(Space.RGB, 64);
+            JointHistogram hsv = new JointHistogram(Space.HSV, 18, 4, 4);
+            JointHistogram hsvSparse = new JointHistogram(Space.HSV, 90, 32, 32);
+            Assert.assertFalse(rgb.isSparse());
+            Assert.assertTrue(rgbSparse.isSparse());
+
+            Histogrammer histogrammer = new Histogrammer(image);
+            histogrammer.calcHistogram(rgb, rgbSparse, hsv, hsvSparse);
+            Histogrammer expected = new Histogrammer(image);
+            expected.calcHistogram();
+            Assert.assertArrayEquals(expected.getHistogram(), histogrammer.getHistogram());
+
+            for (JointHistogram joint : new JointHistogram[] { rgb, rgbSparse, hsv, hsvSparse }) {
+                assertJoint(image, joint);
+            }
+        }
+    }
+
+    /**
+     * Test that clearing empties both storages.
+     */
+    @Test
+    public void testClear() {
+        BufferedImage image = randomImage(BufferedImage.TYPE_INT_RGB);
+        JointHistogram dense = new JointHistogram(Space.RGB, 4);
+        JointHistogram sparse = new JointHistogram(Space.RGB, 128);
+
+        new Histogrammer(image).calcHistogram(dense, sparse);
+        dense.clear();
+        sparse.clear();
+        Assert.assertEquals(0, dense.getOccupiedCells());
+        Assert.assertEquals(0, sparse.getOccupiedCells());
+        Assert.assertEquals(0, sparse.getTotal());
+        new Histogrammer(image).calcHistogram(sparse);
+        assertJoint(image, sparse);
+    }
+
+    /**
+     * Asserts that a joint histogram holds the cells of every pixel of an image.
+     *
+     * @param image the image
+     * @param joint the joint histogram
+     */
+    private static void assertJoint(BufferedImage image, JointHistogram joint) {
+        final Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        final int bins0 = joint.getBins(0), bins1 = joint.getBins(1), bins2 = joint.getBins(2);
+        float[] hsb = new float[3];
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int pixel = image.getRGB(x, y);
+                int r = 0xFF & pixel >> 16, g = 0xFF & pixel >> 8, b = 0xFF & pixel;
+                int cell;
+                if (joint.getSpace() == Space.RGB) {
+                    cell = ((r * bins0 / 256) * bins1 + g * bins1 / 256) * bins2 + b * bins2 / 256;
+                } else {
+                    Color.RGBtoHSB(r, g, b, hsb);
+                    cell = (Math.min(bins0 - 1, (int) (hsb[0] * bins0)) * bins1
+                            + Math.min(bins1 - 1, (int) (hsb[1] * bins1))) * bins2
+                            + Math.min(bins2 - 1, (int) (hsb[2] * bins2));
+                }
+                Integer count = expected.get(cell);
+                expected.put(cell, count == null ? 1 : count + 1);
+            }
+        }
+
+        Assert.assertEquals((long) image.getWidth() * image.getHeight(), joint.getTotal());
+        Assert.assertEquals(expected.size(), joint.getOccupiedCells());
+        final int[] visited = new int[1];
+        joint.visit(new JointHistogram.Visitor() {
+            @Override
+            public void cell(int bin0, int bin1, int bin2, int count) {
+                visited[0]++;
+                Assert.assertEquals(expected.get((bin0 * bins1 + bin1) * bins2 + bin2).intValue(), count);
+            }
+        });
+        Assert.assertEquals(expected.size(), visited[0]);
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            int cell = entry.getKey();
+            Assert.assertEquals(entry.getValue().intValue(),
+                    joint.getCount(cell / (bins1 * bins2), cell / bins2 % bins1, cell % bins2));
+        }
+    }
+
+    /**
+     * Random image of the given type, with runs of equal pixels and a few saturated and grey ones.
+     *
+     * @param type the type
+     * @return the image
+     */
+    private static BufferedImage randomImage(int type) {
+        Random random = new Random(type);
+        BufferedImage image = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, type);
+        int pixel = 0;
+        for (int y = 0; y < IMG_HEIGHT; y++) {
+            for (int x = 0; x < IMG_WIDTH; x++) {
+                if (random.nextInt(4) != 0) {
+                    pixel = random.nextInt(8) == 0 ? 0xFF000000 | random.nextInt(256) * 0x010101 : random.nextInt();
+                }
+                image.setRGB(x, y, pixel);
+            }
+        }
+        return image;
+    }
+}
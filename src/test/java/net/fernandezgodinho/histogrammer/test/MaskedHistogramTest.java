@@ -0,0 +1,183 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import net.fernandezgodinho.histogrammer.Histogrammer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The Class MaskedHistogramTest.
+ *
+ * @author Joao Godinho
+ */
+public class MaskedHistogramTest {
+    /** The Constant IMG_WIDTH. Not a multiple of 64, so the last word of a row is partial. */
+    private final static int IMG_WIDTH = 200;
+
+    /** The Constant IMG_HEIGHT. */
+    private final static int IMG_HEIGHT = 50;
+
+    /** The Constant TYPES. */
+    private final static int[] TYPES = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY,
+            BufferedImage.TYPE_USHORT_565_RGB };
+
+    /**
+     * Test bitset masks with empty, full and mixed words against the pixels they select.
+     */
+    @Test
+    public void testBitsetMask() {
+        for (int type : TYPES) {
+            BufferedImage image = randomImage(type);
+            boolean[][] selected = randomSelection(new Random(type));
+            int words = (IMG_WIDTH + 63) / 64;
+            long[] mask = new long[words * IMG_HEIGHT];
+            for (int y = 0; y < IMG_HEIGHT; y++) {
+                for (int x = 0; x < IMG_WIDTH; x++) {
+                    if (selected[y][x]) { mask[y * words + x / 64] |= 1L << x; }
+                }
+                // bits past the width are ignored
+                mask[y * words + words - 1] |= -1L << (IMG_WIDTH % 64);
+            }
+
+            Histogrammer histogrammer = new Histogrammer(image);
+            histogrammer.calcMaskedHistogram(mask);
+            Assert.assertArrayEquals(expected(image, selected), histogrammer.getHistogram());
+        }
+    }
+
+    /**
+     * Test one bit per pixel mask rasters, on and off a byte boundary, and a byte raster.
+     */
+    @Test
+    public void testRasterMask() {
+        for (int type : TYPES) {
+            BufferedImage image = randomImage(type);
+            boolean[][] selected = randomSelection(new Random(type + 100));
+            int[][] expected = expected(image, selected);
+
+            BufferedImage binary = new BufferedImage(IMG_WIDTH + 3, IMG_HEIGHT + 2, BufferedImage.TYPE_BYTE_BINARY);
+            BufferedImage bytes = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+            WritableRaster raster = binary.getRaster();
+            for (int y = 0; y < IMG_HEIGHT; y++) {
+                for (int x = 0; x < IMG_WIDTH; x++) {
+                    raster.setSample(x, y, 0, selected[y][x] ? 1 : 0);
+                    bytes.getRaster().setSample(x, y, 0, selected[y][x] ? 17 : 0);
+                }
+            }
+            Histogrammer histogrammer = new Histogrammer(image);
+            histogrammer.calcMaskedHistogram(raster);
+            Assert.assertArrayEquals(expected, histogrammer.getHistogram());
+
+            histogrammer.reset();
+            histogrammer.calcMaskedHistogram(bytes.getRaster());
+            Assert.assertArrayEquals(expected, histogrammer.getHistogram());
+
+            // a child starting at x = 3 is off a byte boundary
+            WritableRaster shifted = new BufferedImage(IMG_WIDTH + 3, IMG_HEIGHT, BufferedImage.TYPE_BYTE_BINARY)
+                    .getRaster();
+            for (int y = 0; y < IMG_HEIGHT; y++) {
+                for (int x = 0; x < IMG_WIDTH; x++) { shifted.setSample(x + 3, y, 0, selected[y][x] ? 1 : 0); }
+            }
+            Raster child = shifted.createChild(3, 0, IMG_WIDTH, IMG_HEIGHT, 0, 0, null);
+            histogrammer.reset();
+            histogrammer.calcMaskedHistogram(child);
+            Assert.assertArrayEquals(expected, histogrammer.getHistogram());
+        }
+    }
+
+    /**
+     * Test the alpha weighted histogram against getRGB, and that the plain histogram is counted too.
+     */
+    @Test
+    public void testAlphaWeighted() {
+        for (int type : TYPES) {
+            BufferedImage image = randomImage(type);
+            double[][] expected = new double[4][256];
+            for (int y = 0; y < IMG_HEIGHT; y++) {
+                for (int x = 0; x < IMG_WIDTH; x++) {
+                    int pixel = image.getRGB(x, y);
+                    double weight = (pixel >>> 24) / 255.0;
+                    for (int c = 0; c < 4; c++) { expected[c][0xFF & pixel >> (24 - 8 * c)] += weight; }
+                }
+            }
+
+            Histogrammer histogrammer = new Histogrammer(image);
+            double[][] weighted = histogrammer.calcAlphaWeightedHistogram();
+            Histogrammer plain = new Histogrammer(image);
+            plain.calcHistogram();
+            Assert.assertArrayEquals(plain.getHistogram(), histogrammer.getHistogram());
+            for (int c = 0; c < 4; c++) { Assert.assertArrayEquals(expected[c], weighted[c], 1e-9); }
+        }
+    }
+
+    /**
+     * Test that a mask too small for the image is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testShortMask() {
+        new Histogrammer(randomImage(BufferedImage.TYPE_INT_RGB)).calcMaskedHistogram(new long[4 * IMG_HEIGHT - 1]);
+    }
+
+    /**
+     * Counts the selected pixels with getRGB.
+     *
+     * @param image the image
+     * @param selected the selected pixels
+     * @return the histogram
+     */
+    private static int[][] expected(BufferedImage image, boolean[][] selected) {
+        int[][] histogram = new int[4][256];
+        for (int y = 0; y < IMG_HEIGHT; y++) {
+            for (int x = 0; x < IMG_WIDTH; x++) {
+                if (!selected[y][x]) { continue; }
+                int pixel = image.getRGB(x, y);
+                for (int c = 0; c < 4; c++) { histogram[c][0xFF & pixel >> (24 - 8 * c)]++; }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Random selection with rows of nothing, rows of everything and rows with empty, full and mixed
+     * 64 pixel words.
+     *
+     * @param random the random
+     * @return the selection
+     */
+    private static boolean[][] randomSelection(Random random) {
+        boolean[][] selected = new boolean[IMG_HEIGHT][IMG_WIDTH];
+        for (int y = 0; y < IMG_HEIGHT; y++) {
+            int kind = random.nextInt(4);
+            for (int x = 0; x < IMG_WIDTH; x++) {
+                switch (kind) {
+                case 0: break;
+                case 1: selected[y][x] = true; break;
+                case 2: selected[y][x] = x / 64 % 2 == 0 || random.nextInt(3) == 0; break;
+                default: selected[y][x] = random.nextBoolean(); break;
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Random image of the given type.
+     *
+     * @param type the type
+     * @return the image
+     */
+    private static BufferedImage randomImage(int type) {
+        Random random = new Random(type);
+        BufferedImage image = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, type);
+        for (int y = 0; y < IMG_HEIGHT; y++) {
+            for (int x = 0; x < IMG_WIDTH; x++) { image.setRGB(x, y, random.nextInt()); }
+        }
+        return image;
+    }
+}
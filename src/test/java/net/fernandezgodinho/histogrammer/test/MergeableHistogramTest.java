@@ -0,0 +1,177 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import net.fernandezgodinho.histogrammer.HistogramCodec;
+import net.fernandezgodinho.histogrammer.Histogrammer;
+import net.fernandezgodinho.histogrammer.MergeableHistogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The Class MergeableHistogramTest.
+ *
+ * @author Joao Godinho
+ */
+public class MergeableHistogramTest {
+    /** The Constant COLOR_RANGE. */
+    private final static int COLOR_RANGE = 256;
+
+    /** The Constant IMG_WIDTH. */
+    private final static int IMG_WIDTH = 200;
+
+    /** The Constant IMG_HEIGHT. */
+    private final static int IMG_HEIGHT = 150;
+
+    /**
+     * Test that merging the histograms of tiles gives the histogram of the whole image, and that
+     * subtracting a tile takes it back out.
+     */
+    @Test
+    public void testMergeTiles() {
+        BufferedImage image = randomImage(6);
+        Histogrammer whole = new Histogrammer(image);
+        whole.calcHistogram();
+
+        MergeableHistogram merged = new MergeableHistogram();
+        MergeableHistogram first = null;
+        for (int y = 0; y < IMG_HEIGHT; y += 50) {
+            for (int x = 0; x < IMG_WIDTH; x += 40) {
+                Histogrammer tile = new Histogrammer(image.getSubimage(x, y, 40, 50));
+                tile.calcHistogram();
+                MergeableHistogram partial = new MergeableHistogram(tile);
+                if (first == null) { first = partial; }
+                merged.merge(partial);
+            }
+        }
+        Assert.assertEquals(new MergeableHistogram(whole), merged);
+        Assert.assertEquals((long) IMG_WIDTH * IMG_HEIGHT, merged.getTotalPixels());
+        Assert.assertArrayEquals(whole.getHistogram(), merged.toHistogram());
+        Assert.assertArrayEquals(whole.getPercentageHistogram(), merged.getPercentageHistogram());
+
+        merged.subtract(first);
+        Assert.assertEquals((long) IMG_WIDTH * IMG_HEIGHT - 40 * 50, merged.getTotalPixels());
+        merged.merge(first);
+        Assert.assertEquals(new MergeableHistogram(whole), merged);
+    }
+
+    /**
+     * Test that subtracting more than was merged is rejected and leaves the histogram unchanged.
+     */
+    @Test
+    public void testSubtractNegative() {
+        int[][] histogram = new int[4][COLOR_RANGE];
+        histogram[1][3] = 10;
+        MergeableHistogram small = new MergeableHistogram(histogram, 10);
+        histogram[1][3] = 5;
+        histogram[2][4] = 1;
+        try {
+            small.subtract(new MergeableHistogram(histogram, 6));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(10, small.getCount(1, 3));
+            Assert.assertEquals(10, small.getTotalPixels());
+        }
+    }
+
+    /**
+     * Test that merging a histogram with a short channel is rejected and leaves the histogram unchanged.
+     */
+    @Test
+    public void testMergeInvalidShape() {
+        int[][] histogram = new int[4][COLOR_RANGE];
+        histogram[0][7] = 10;
+        MergeableHistogram merged = new MergeableHistogram(histogram, 10);
+        histogram[2] = new int[COLOR_RANGE - 1];
+        try {
+            merged.merge(histogram, 10);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(10, merged.getCount(0, 7));
+            Assert.assertEquals(10, merged.getTotalPixels());
+        }
+    }
+
+    /**
+     * Test counts past the int range.
+     */
+    @Test
+    public void testOverflow() {
+        int[][] histogram = new int[4][COLOR_RANGE];
+        histogram[0][255] = 2000000000;
+        histogram[1][0] = 1000000000;
+        histogram[1][255] = 1000000000;
+        MergeableHistogram merged = new MergeableHistogram();
+        for (int i = 0; i < 5; i++) { merged.merge(histogram, 2000000000); }
+
+        Assert.assertEquals(10000000000L, merged.getTotalPixels());
+        Assert.assertEquals(10000000000L, merged.getCount(0, 255));
+        Assert.assertEquals(100, merged.getPercentageHistogram()[0][255]);
+        Assert.assertEquals(50, merged.getPercentageHistogram()[1][0]);
+        try {
+            merged.toHistogram();
+            Assert.fail();
+        } catch (ArithmeticException e) {
+            // expected
+        }
+        Assert.assertEquals(merged, MergeableHistogram.fromBytes(merged.toBytes()));
+    }
+
+    /**
+     * Test the wire form round trip, and that it is smaller than the raw counters.
+     */
+    @Test
+    public void testBytes() {
+        Histogrammer histogrammer = new Histogrammer(randomImage(7));
+        histogrammer.calcHistogram();
+        MergeableHistogram histogram = new MergeableHistogram(histogrammer);
+
+        byte[] bytes = histogram.toBytes();
+        Assert.assertEquals(histogram, MergeableHistogram.fromBytes(bytes));
+        Assert.assertTrue(bytes.length < HistogramCodec.RECORD_SIZE);
+    }
+
+    /**
+     * Test the parallel tree reduce against merging one by one.
+     */
+    @Test
+    public void testReduce() {
+        Random random = new Random(2);
+        List<MergeableHistogram> partials = new ArrayList<MergeableHistogram>();
+        MergeableHistogram expected = new MergeableHistogram();
+
+        for (int i = 0; i < 1000; i++) {
+            int[][] histogram = new int[4][COLOR_RANGE];
+            for (int c = 0; c < 4; c++) {
+                for (int v = 0; v < COLOR_RANGE; v++) { histogram[c][v] = random.nextInt(Integer.MAX_VALUE); }
+            }
+            MergeableHistogram partial = new MergeableHistogram(histogram, Integer.MAX_VALUE);
+            partials.add(partial);
+            expected.merge(partial);
+        }
+        Assert.assertEquals(expected, MergeableHistogram.reduce(partials, new ForkJoinPool(4)));
+        Assert.assertEquals(Integer.MAX_VALUE, partials.get(0).getTotalPixels());
+        Assert.assertEquals(new MergeableHistogram(),
+                MergeableHistogram.reduce(new ArrayList<MergeableHistogram>(), new ForkJoinPool(2)));
+    }
+
+    /**
+     * Random opaque image.
+     *
+     * @param seed the seed
+     * @return the image
+     */
+    private static BufferedImage randomImage(long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < IMG_HEIGHT; y++) {
+            for (int x = 0; x < IMG_WIDTH; x++) { image.setRGB(x, y, random.nextInt()); }
+        }
+        return image;
+    }
+}
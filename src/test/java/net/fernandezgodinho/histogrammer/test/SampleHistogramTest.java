@@ -0,0 +1,154 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.awt.Point;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import net.fernandezgodinho.histogrammer.SampleHistogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The Class SampleHistogramTest.
+ *
+ * @author Joao Godinho
+ */
+public class SampleHistogramTest {
+    /** The Constant IMG_WIDTH. */
+    private final static int IMG_WIDTH = 130;
+
+    /** The Constant IMG_HEIGHT. */
+    private final static int IMG_HEIGHT = 90;
+
+    /**
+     * Test 16 bit grey images at several bin counts.
+     */
+    @Test
+    public void testUShortGray() {
+        BufferedImage image = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, BufferedImage.TYPE_USHORT_GRAY);
+        fill(image.getRaster(), 0, 1 << 16, 1);
+
+        for (int bins : new int[] { 1, 256, 1000, 65536 }) {
+            SampleHistogram histogram = new SampleHistogram(image, bins);
+            histogram.calcHistogram();
+            Assert.assertArrayEquals(expected(image.getRaster(), bins, 0, 1 << 16), histogram.getHistogram());
+        }
+    }
+
+    /**
+     * Test a 16 bit per channel RGB image, a child raster of it and a 12 bit range.
+     */
+    @Test
+    public void testUShortRgb() {
+        ComponentColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false,
+                false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(IMG_WIDTH, IMG_HEIGHT);
+        fill(raster, 0, 1 << 12, 2);
+        BufferedImage image = new BufferedImage(colorModel, raster, false, null);
+
+        SampleHistogram histogram = new SampleHistogram(image, 4096);
+        histogram.calcHistogram();
+        Assert.assertEquals(3, histogram.getBands());
+        Assert.assertArrayEquals(expected(raster, 4096, 0, 1 << 16), histogram.getHistogram());
+
+        Raster child = raster.createChild(10, 20, 50, 30, 0, 0, null);
+        histogram = new SampleHistogram(child, 256);
+        histogram.setRange(0, 1 << 12);
+        histogram.calcHistogram();
+        Assert.assertArrayEquals(expected(child, 256, 0, 1 << 12), histogram.getHistogram());
+    }
+
+    /**
+     * Test banked signed short and float rasters, with values outside the range.
+     */
+    @Test
+    public void testBanked() {
+        WritableRaster shorts = Raster.createWritableRaster(
+                new BandedSampleModel(DataBuffer.TYPE_SHORT, IMG_WIDTH, IMG_HEIGHT, 2), new Point(5, 7));
+        fill(shorts, Short.MIN_VALUE, Short.MAX_VALUE + 1, 3);
+        SampleHistogram histogram = new SampleHistogram(shorts, 512);
+        histogram.calcHistogram();
+        Assert.assertArrayEquals(expected(shorts, 512, Short.MIN_VALUE, Short.MAX_VALUE + 1), histogram.getHistogram());
+
+        WritableRaster floats = Raster.createWritableRaster(
+                new BandedSampleModel(DataBuffer.TYPE_FLOAT, IMG_WIDTH, IMG_HEIGHT, 3), null);
+        Random random = new Random(4);
+        for (int y = 0; y < IMG_HEIGHT; y++) {
+            for (int x = 0; x < IMG_WIDTH; x++) {
+                for (int b = 0; b < 3; b++) { floats.setSample(x, y, b, random.nextFloat() * 6 - 2); }
+            }
+        }
+        floats.setSample(0, 0, 0, Float.NaN);
+        histogram = new SampleHistogram(floats, 64);
+        histogram.setRange(-1, 3);
+        histogram.calcHistogram();
+        Assert.assertArrayEquals(expected(floats, 64, -1, 3), histogram.getHistogram());
+    }
+
+    /**
+     * Test a raster without a ComponentSampleModel, read through getSamples.
+     */
+    @Test
+    public void testPacked() {
+        BufferedImage image = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, BufferedImage.TYPE_USHORT_565_RGB);
+        Random random = new Random(5);
+        for (int y = 0; y < IMG_HEIGHT; y++) {
+            for (int x = 0; x < IMG_WIDTH; x++) { image.setRGB(x, y, random.nextInt()); }
+        }
+        SampleHistogram histogram = new SampleHistogram(image, 32);
+        histogram.calcHistogram();
+        Assert.assertEquals(64.0, histogram.getMax(1), 0);
+        Assert.assertArrayEquals(new int[][] { expected(image.getRaster(), 32, 0, 32)[0],
+                expected(image.getRaster(), 32, 0, 64)[1], expected(image.getRaster(), 32, 0, 32)[2] },
+                histogram.getHistogram());
+    }
+
+    /**
+     * Counts the samples of a raster one by one.
+     *
+     * @param raster the raster
+     * @param bins the bins
+     * @param min the smallest value
+     * @param max the end of the range
+     * @return the histogram
+     */
+    private static int[][] expected(Raster raster, int bins, double min, double max) {
+        int[][] histogram = new int[raster.getNumBands()][bins];
+        for (int y = raster.getMinY(); y < raster.getMinY() + raster.getHeight(); y++) {
+            for (int x = raster.getMinX(); x < raster.getMinX() + raster.getWidth(); x++) {
+                for (int b = 0; b < raster.getNumBands(); b++) {
+                    double value = raster.getSampleDouble(x, y, b);
+                    if (Double.isNaN(value)) { continue; }
+                    int bin = (int) Math.floor((value - min) * bins / (max - min));
+                    histogram[b][Math.max(0, Math.min(bins - 1, bin))]++;
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Fills a raster with random samples.
+     *
+     * @param raster the raster
+     * @param from the smallest sample
+     * @param to the end of the samples
+     * @param seed the seed
+     */
+    private static void fill(WritableRaster raster, int from, int to, long seed) {
+        Random random = new Random(seed);
+        for (int y = raster.getMinY(); y < raster.getMinY() + raster.getHeight(); y++) {
+            for (int x = raster.getMinX(); x < raster.getMinX() + raster.getWidth(); x++) {
+                for (int b = 0; b < raster.getNumBands(); b++) { raster.setSample(x, y, b, from + random.nextInt(to - from)); }
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.Random;
+
+import net.fernandezgodinho.histogrammer.Histogrammer;
+import net.fernandezgodinho.histogrammer.SlidingHistogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The Class SlidingHistogramTest.
+ * 
+ * @author Joao Godinho
+ */
+public class SlidingHistogramTest {
+    /** The Constant IMG_WIDTH. */
+    private final static int IMG_WIDTH = 90;
+    
+    /** The Constant IMG_HEIGHT. */
+    private final static int IMG_HEIGHT = 70;
+    
+    /** The image types tested. */
+    private final static int[] TYPES = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY,
+            BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_USHORT_555_RGB };
+    
+    /**
+     * Test sliding the window across and down the image.
+     */
+    @Test
+    public void testSlide() {
+        for (int type : TYPES) {
+            BufferedImage image = randomImage(type, 5);
+            SlidingHistogram sliding = new SlidingHistogram(new Histogrammer(image), new Rectangle(0, 0, 16, 12));
+            
+            for (int i = 0; i < 20; i++) { sliding.slideRight(); }
+            assertWindow(image, sliding);
+            for (int i = 0; i < 7; i++) { sliding.slideDown(); }
+            assertWindow(image, sliding);
+            
+            sliding.addRows(10);
+            sliding.addColumn();
+            assertWindow(image, sliding);
+            sliding.removeRows(15);
+            sliding.removeColumn();
+            assertWindow(image, sliding);
+            Assert.assertEquals(new Rectangle(21, 22, 16, 7), sliding.getWindow());
+        }
+    }
+    
+    /**
+     * Test growing and shrinking the window upwards and leftwards.
+     */
+    @Test
+    public void testOppositeMoves() {
+        for (int type : TYPES) {
+            BufferedImage image = randomImage(type, 8);
+            SlidingHistogram sliding = new SlidingHistogram(new Histogrammer(image), new Rectangle(40, 30, 10, 8));
+            
+            sliding.addRowsAbove(12);
+            sliding.addColumnLeft();
+            assertWindow(image, sliding);
+            sliding.removeRowsBelow(5);
+            sliding.removeColumnRight();
+            assertWindow(image, sliding);
+            Assert.assertEquals(new Rectangle(39, 18, 10, 15), sliding.getWindow());
+            
+            for (int i = 0; i < 15; i++) { sliding.slideUp(); }
+            for (int i = 0; i < 30; i++) { sliding.slideLeft(); }
+            assertWindow(image, sliding);
+            Assert.assertEquals(new Rectangle(9, 3, 10, 15), sliding.getWindow());
+        }
+    }
+    
+    /**
+     * Test a serpentine scan of the whole image, right along one row of windows and left along the next.
+     */
+    @Test
+    public void testSerpentineScan() {
+        for (int type : TYPES) {
+            BufferedImage image = randomImage(type, 9);
+            int size = 9;
+            SlidingHistogram sliding = new SlidingHistogram(new Histogrammer(image), new Rectangle(0, 0, size, size));
+            
+            for (int y = 0; y + size <= IMG_HEIGHT; y++) {
+                if (y > 0) { sliding.slideDown(); }
+                for (int x = 1; x + size <= IMG_WIDTH; x++) {
+                    if (y % 2 == 0) { sliding.slideRight(); } else { sliding.slideLeft(); }
+                    if (x % 17 == 0) { assertWindow(image, sliding); }
+                }
+                assertWindow(image, sliding);
+            }
+            for (int i = 0; i < 10; i++) { sliding.slideUp(); }
+            assertWindow(image, sliding);
+        }
+    }
+    
+    /**
+     * Test that the window cannot leave the image on the left.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testLeaveImageLeft() {
+        SlidingHistogram sliding = new SlidingHistogram(new Histogrammer(randomImage(BufferedImage.TYPE_INT_ARGB, 1)),
+                new Rectangle(0, 3, 2, 2));
+        sliding.slideLeft();
+    }
+    
+    /**
+     * Test updating the window after part of the image changed.
+     */
+    @Test
+    public void testUpdate() {
+        for (int type : TYPES) {
+            BufferedImage image = randomImage(type, 6);
+            BufferedImage changed = randomImage(type, 7);
+            SlidingHistogram sliding = new SlidingHistogram(new Histogrammer(image), new Rectangle(10, 10, 40, 30));
+            
+            // the dirty region sticks out of the window
+            Rectangle dirty = new Rectangle(30, 5, 50, 20);
+            Raster before = image.getData(dirty);
+            image.getRaster().setRect(changed.getData(dirty));
+            sliding.update(dirty, before, image.getRaster());
+            assertWindow(image, sliding);
+            
+            // a region outside the window changes nothing
+            sliding.update(new Rectangle(60, 50, 10, 10), changed.getRaster(), image.getRaster());
+            assertWindow(image, sliding);
+        }
+    }
+    
+    /**
+     * Test that the window cannot leave the image.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testLeaveImage() {
+        SlidingHistogram sliding = new SlidingHistogram(new Histogrammer(randomImage(BufferedImage.TYPE_INT_ARGB, 1)),
+                new Rectangle(IMG_WIDTH - 2, 0, 2, 2));
+        sliding.slideRight();
+    }
+    
+    /**
+     * Asserts that the sliding histogram equals the histogram of its window calculated from scratch.
+     *
+     * @param image the image
+     * @param sliding the sliding histogram
+     */
+    private static void assertWindow(BufferedImage image, SlidingHistogram sliding) {
+        Rectangle window = sliding.getWindow();
+        Histogrammer histogram = new Histogrammer(image.getSubimage(window.x, window.y, window.width, window.height));
+        histogram.calcHistogram();
+        Assert.assertArrayEquals("type " + image.getType() + " window " + window,
+                histogram.getHistogram(), sliding.getHistogram());
+    }
+    
+    /**
+     * Creates an image of the given type filled with random pixels.
+     *
+     * @param type the image type
+     * @param seed the seed
+     * @return the image
+     */
+    private static BufferedImage randomImage(int type, long seed) {
+        BufferedImage image = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, type);
+        Random random = new Random(seed);
+        int[] imgArr = new int[IMG_WIDTH * IMG_HEIGHT];
+        
+        for (int i = 0; i < imgArr.length; i++) { imgArr[i] = random.nextInt(); }
+        image.setRGB(0, 0, IMG_WIDTH, IMG_HEIGHT, imgArr, 0, IMG_WIDTH);
+        return image;
+    }
+}
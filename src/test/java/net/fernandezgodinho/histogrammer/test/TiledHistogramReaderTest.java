@@ -0,0 +1,180 @@
+package net.fernandezgodinho.histogrammer.test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import net.fernandezgodinho.histogrammer.Histogrammer;
+import net.fernandezgodinho.histogrammer.TiledHistogramReader;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The Class TiledHistogramReaderTest.
+ * 
+ * @author Joao Godinho
+ */
+public class TiledHistogramReaderTest {
+    /** The Constant COLOR_RANGE. */
+    private final static int COLOR_RANGE = 256;
+    
+    /** The Constant IMG_WIDTH. */
+    private final static int IMG_WIDTH = 301;
+    
+    /** The Constant IMG_HEIGHT. */
+    private final static int IMG_HEIGHT = 203;
+    
+    /** The image written to disk. */
+    private BufferedImage image;
+    
+    /** The png file. */
+    private File pngFile;
+    
+    /**
+     * Writes a random image to a temporary png file.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Before
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        int[] imgArr = new int[IMG_WIDTH * IMG_HEIGHT];
+        
+        for (int i = 0; i < imgArr.length; i++) { imgArr[i] = random.nextInt(); }
+        image = new BufferedImage(IMG_WIDTH, IMG_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, IMG_WIDTH, IMG_HEIGHT, imgArr, 0, IMG_WIDTH);
+        pngFile = File.createTempFile("tiled", ".png");
+        ImageIO.write(image, "png", pngFile);
+    }
+    
+    /**
+     * Deletes the png file.
+     */
+    @After
+    public void tearDown() {
+        pngFile.delete();
+    }
+    
+    /**
+     * Test that the whole image fitting the budget matches the in memory histogram.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testSingleTile() throws IOException {
+        Histogrammer streamed = new TiledHistogramReader().read(pngFile);
+        
+        Assert.assertArrayEquals(expectedHistogram(), streamed.getHistogram());
+    }
+    
+    /**
+     * Test strips of a few rows.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testStrips() throws IOException {
+        TiledHistogramReader reader = new TiledHistogramReader();
+        reader.setTileBudget(IMG_WIDTH * 4 * 7);
+        Histogrammer streamed = reader.read(pngFile);
+        
+        Assert.assertArrayEquals(expectedHistogram(), streamed.getHistogram());
+        Assert.assertArrayEquals(inMemory().getPercentageHistogram(), streamed.getPercentageHistogram());
+    }
+    
+    /**
+     * Test a budget smaller than a single row, which splits rows in columns.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testColumns() throws IOException {
+        TiledHistogramReader reader = new TiledHistogramReader();
+        reader.setTileBudget(100 * 4);
+        Histogrammer streamed = reader.read(pngFile);
+        
+        Assert.assertArrayEquals(expectedHistogram(), streamed.getHistogram());
+    }
+    
+    /**
+     * Test that subsampled percentage histograms stay within the documented percentage point of the
+     * exact one on a photograph.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testSubsampling() throws IOException {
+        File photo = new File("res/image.jpg");
+        Histogrammer exact = new TiledHistogramReader().read(photo);
+        
+        Assert.assertEquals(1, exact.getSubsampling());
+        for (int period : new int[] { 2, 4, 8 }) {
+            TiledHistogramReader reader = new TiledHistogramReader();
+            reader.setSubsampling(period);
+            reader.setTileBudget(1 << 20);
+            Histogrammer approximate = reader.read(photo);
+            
+            Assert.assertEquals(period, approximate.getSubsampling());
+            for (int c = 0; c < 4; c++) {
+                for (int i = 0; i < COLOR_RANGE; i++) {
+                    Assert.assertEquals("period " + period + " channel " + c + " bin " + i,
+                            exact.getPercentageHistogram()[c][i], approximate.getPercentageHistogram()[c][i], 1);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test that the sample target picks the smallest period that keeps under it.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testSampleTarget() throws IOException {
+        TiledHistogramReader reader = new TiledHistogramReader();
+        reader.setSampleTarget(IMG_WIDTH * IMG_HEIGHT / 10);
+        Histogrammer approximate = reader.read(pngFile);
+        
+        // 301x203 sampled every 4 pixels is 76x51, every 3 pixels 101x68 is above the target
+        Assert.assertEquals(4, approximate.getSubsampling());
+        
+        reader.setSampleTarget(IMG_WIDTH * IMG_HEIGHT);
+        Assert.assertEquals(1, reader.read(pngFile).getSubsampling());
+    }
+    
+    /**
+     * Test that calcHistogram is rejected without an image.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testNoImage() throws IOException {
+        new TiledHistogramReader().read(pngFile).calcHistogram();
+    }
+    
+    /**
+     * Histogram of the fully decoded image.
+     *
+     * @return the histogrammer
+     */
+    private Histogrammer inMemory() {
+        Histogrammer histogram = new Histogrammer(image);
+        histogram.calcHistogram();
+        return histogram;
+    }
+    
+    /**
+     * Expected histogram.
+     *
+     * @return the histogram
+     */
+    private int[][] expectedHistogram() {
+        return inMemory().getHistogram();
+    }
+}